@@ -0,0 +1,6 @@
+-- Harvest snapshots are purged when they haven't been used for a while,
+-- not by age, so a long harvest doesn't expire while it is paging
+
+ALTER TABLE oaisnapshots ADD COLUMN accessed TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP;
+UPDATE oaisnapshots SET accessed = created;
+CREATE INDEX oaisnapshots_accessed ON oaisnapshots(accessed);
@@ -0,0 +1,5 @@
+-- Number of records in a harvest snapshot, NULL while it is being filled
+-- Only filled snapshots are used for harvesting
+
+ALTER TABLE oaisnapshots ADD COLUMN records INTEGER;
+UPDATE oaisnapshots SET records = (SELECT COUNT(*) FROM oaisnapshotrecords WHERE snapshot = id);
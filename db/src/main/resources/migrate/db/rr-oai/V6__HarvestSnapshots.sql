@@ -0,0 +1,19 @@
+-- Frozen lists of pids for full harvests (harvests without from)
+
+CREATE TABLE oaisnapshots (
+    id BIGSERIAL NOT NULL,
+    setSpecs TEXT NOT NULL,
+    untilTruncate TEXT,
+    untilTimestamp TIMESTAMP,
+    created TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT oaisnapshots_pk PRIMARY KEY (id)
+);
+CREATE INDEX oaisnapshots_setspecs ON oaisnapshots(setSpecs, created);
+
+CREATE TABLE oaisnapshotrecords (
+    snapshot BIGINT NOT NULL,
+    pos INTEGER NOT NULL,
+    pid VARCHAR(128) NOT NULL,
+    CONSTRAINT oaisnapshotrecords_pk PRIMARY KEY (snapshot, pos),
+    CONSTRAINT oaisnapshotrecords_snapshot_fk FOREIGN KEY (snapshot) REFERENCES oaisnapshots (id) ON DELETE CASCADE
+);
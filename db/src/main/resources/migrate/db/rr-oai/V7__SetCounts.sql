@@ -0,0 +1,13 @@
+-- Number of rows in oairecordsets pr. set pr. day (UTC) of changed
+-- Maintained by the setmatcher, used for completeListSize in resumptionTokens
+
+CREATE TABLE oaisetcounts (
+    setSpec VARCHAR(64) NOT NULL,
+    day DATE NOT NULL,
+    records INTEGER NOT NULL DEFAULT 0,
+    CONSTRAINT oaisetcounts_pk PRIMARY KEY (setSpec, day),
+    CONSTRAINT oaisetcounts_setspec_fk FOREIGN KEY (setSpec) REFERENCES oaisets (setSpec)
+);
+
+INSERT INTO oaisetcounts (setSpec, day, records)
+    SELECT setSpec, DATE(changed AT TIME ZONE 'UTC'), COUNT(*) FROM oairecordsets GROUP BY 1, 2;
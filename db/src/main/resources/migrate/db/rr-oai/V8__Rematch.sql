@@ -0,0 +1,12 @@
+-- Progress of bulk re-matching (all known pids through the setmatcher)
+-- checkpoint is the last pid of the last completed chunk (pids are processed in order)
+
+CREATE TABLE oairematch (
+    id BIGSERIAL NOT NULL,
+    started TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    checkpoint VARCHAR(128),
+    processed BIGINT NOT NULL DEFAULT 0,
+    failed BIGINT NOT NULL DEFAULT 0,
+    completed TIMESTAMP WITH TIME ZONE,
+    CONSTRAINT oairematch_pk PRIMARY KEY (id)
+);
@@ -0,0 +1,14 @@
+-- Pids that failed during a re-match. The checkpoint moves past them, and they
+-- are retried when all pids have been visited
+-- error is the message of the last attempt
+
+CREATE TABLE oairematchfailed (
+    id BIGINT NOT NULL,
+    pid VARCHAR(128) NOT NULL,
+    error TEXT,
+    CONSTRAINT oairematchfailed_pk PRIMARY KEY (id, pid),
+    CONSTRAINT oairematchfailed_id_fk FOREIGN KEY (id) REFERENCES oairematch (id) ON DELETE CASCADE
+);
+
+-- The number of failed pids is counted from oairematchfailed
+ALTER TABLE oairematch DROP COLUMN failed;
@@ -31,11 +31,21 @@ import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A pool of JavaScript environments
+ * <p>
+ * Metrics: {@code javascript_pool_active} and {@code javascript_pool_idle}
+ * (gauges), {@code javascript_pool_lease_wait} (time to get an environment)
+ * and {@code javascript_format} tagged with format (time spent in
+ * JavaScript).
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
@@ -48,11 +58,17 @@ public class JavaScriptPool {
     @Inject
     Config config;
 
+    @Inject
+    MetricRegistry metricRegistry;
+
     private ObjectPool<JavaScriptFormatter> pool;
     private boolean inBadState;
+    private final ConcurrentHashMap<String, Timer> formatTimers;
+    private Timer leaseWaitTimer;
 
     public JavaScriptPool() {
         inBadState = false;
+        formatTimers = new ConcurrentHashMap<>();
     }
 
     @PostConstruct
@@ -64,6 +80,9 @@ public class JavaScriptPool {
             log.debug("Error preparint JavaScript pool: ", ex);
             inBadState = true;
         }
+        leaseWaitTimer = metricRegistry.timer("javascript_pool_lease_wait");
+        metricRegistry.gauge("javascript_pool_active", () -> pool == null ? 0 : pool.getNumActive());
+        metricRegistry.gauge("javascript_pool_idle", () -> pool == null ? 0 : pool.getNumIdle());
     }
 
     /**
@@ -77,7 +96,8 @@ public class JavaScriptPool {
     public String format(MarcXChangeWrapper[] records, String format, String sets) {
         try (Lease lease = new Lease()) {
             JavaScriptFormatter formatter = lease.get();
-            try {
+            Timer timer = formatTimers.computeIfAbsent(format, f -> metricRegistry.timer("javascript_format", new Tag("format", f)));
+            try (Timer.Context timed = timer.time()) {
                 return formatter.format(records, format, sets);
             } catch (Exception e) {
                 log.error("Cannot format record(s): {}", e.getMessage());
@@ -152,7 +172,9 @@ public class JavaScriptPool {
         private final JavaScriptFormatter obj;
 
         public Lease() throws Exception {
-            this.obj = pool.borrowObject();
+            try (Timer.Context timed = leaseWaitTimer.time()) {
+                this.obj = pool.borrowObject();
+            }
         }
 
         public JavaScriptFormatter get() {
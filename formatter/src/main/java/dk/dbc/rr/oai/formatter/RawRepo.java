@@ -34,6 +34,9 @@ import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.ServerErrorException;
 import jakarta.ws.rs.core.Response;
 import net.jodah.failsafe.RetryPolicy;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +48,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Bean for communicating with RawRepo Record Service
+ * <p>
+ * Calls are timed as {@code rawrepo_record_service} tagged with call
+ * (content, parents or children).
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
@@ -59,6 +65,9 @@ public class RawRepo {
     @Inject
     Config config;
 
+    @Inject
+    MetricRegistry metricRegistry;
+
     private static final RecordServiceConnector.Params PARAMS = new RecordServiceConnector.Params()
             .withAllowDeleted(true)
             .withExcludeAutRecords(true)
@@ -69,6 +78,9 @@ public class RawRepo {
             .withUseParentAgency(false);
 
     RecordServiceConnector connector;
+    private Timer contentTimer;
+    private Timer parentsTimer;
+    private Timer childrenTimer;
 
     @PostConstruct
     public void init() {
@@ -86,6 +98,9 @@ public class RawRepo {
                 .withMaxRetries(1);
         final FailSafeHttpClient fsc = FailSafeHttpClient.create(config.getHttpClient(), rp);
         this.connector = new RecordServiceConnector(fsc, config.getRawrepoRecordService(), connectorLogLevel);
+        this.contentTimer = metricRegistry.timer("rawrepo_record_service", new Tag("call", "content"));
+        this.parentsTimer = metricRegistry.timer("rawrepo_record_service", new Tag("call", "parents"));
+        this.childrenTimer = metricRegistry.timer("rawrepo_record_service", new Tag("call", "children"));
     }
 
     @PreDestroy
@@ -135,7 +150,7 @@ public class RawRepo {
     }
 
     private String getDataOf(RecordIdDTO id) {
-        try {
+        try (Timer.Context timed = contentTimer.time()) {
             byte[] content = connector.getRecordContent(id.getAgencyId(), id.getBibliographicRecordId(), PARAMS);
             return new String(content, UTF_8);
         } catch (RecordServiceConnectorNoContentStatusCodeException ex) {
@@ -150,7 +165,7 @@ public class RawRepo {
     }
 
     private RecordIdDTO[] getChildrenOf(RecordIdDTO id) {
-        try {
+        try (Timer.Context timed = childrenTimer.time()) {
             RecordIdDTO[] recordParents = connector.getRecordChildren(id.getAgencyId(), id.getBibliographicRecordId());
             return Arrays.stream(recordParents)
                     .filter(r -> r.getAgencyId() == COMMON_AGENCY)
@@ -169,7 +184,7 @@ public class RawRepo {
      * @return null if no parent or parent id
      */
     private RecordIdDTO getParentOf(RecordIdDTO id) {
-        try {
+        try (Timer.Context timed = parentsTimer.time()) {
             log.debug("Get Parent Of: {}", id);
             RecordIdDTO[] recordParents = connector.getRecordParents(id.getAgencyId(), id.getBibliographicRecordId());
             log.debug("Got Parent Of: {}", id);
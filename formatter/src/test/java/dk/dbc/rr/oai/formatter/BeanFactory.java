@@ -19,6 +19,7 @@
 package dk.dbc.rr.oai.formatter;
 
 import jakarta.ws.rs.client.ClientBuilder;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 
 import java.util.HashMap;
@@ -26,6 +27,8 @@ import java.util.Map;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toMap;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.mock;
 
 /**
  *
@@ -66,7 +69,16 @@ public class BeanFactory {
     public static RawRepo newRawRepo(Config config) {
         RawRepo rawRepo = new RawRepo();
         rawRepo.config = config;
+        rawRepo.metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
         rawRepo.init();
         return rawRepo;
     }
+
+    public static JavaScriptPool newJavaScriptPool(Config config, MetricRegistry metricRegistry) {
+        JavaScriptPool javaScriptPool = new JavaScriptPool();
+        javaScriptPool.config = config;
+        javaScriptPool.metricRegistry = metricRegistry;
+        javaScriptPool.init();
+        return javaScriptPool;
+    }
 }
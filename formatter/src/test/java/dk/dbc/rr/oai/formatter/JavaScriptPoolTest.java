@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-formatter
+ *
+ * rr-oai-formatter is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-formatter is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.formatter;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Timer;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.formatter.BeanFactory.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class JavaScriptPoolTest {
+
+    @Test(timeout = 10_000L)
+    public void testLeaseIsTimed() throws Exception {
+        System.out.println("testLeaseIsTimed");
+        MetricRegistry metricRegistry = mock(MetricRegistry.class);
+        Timer timer = mock(Timer.class);
+        Timer.Context context = mock(Timer.Context.class);
+        when(metricRegistry.timer("javascript_pool_lease_wait")).thenReturn(timer);
+        when(timer.time()).thenReturn(context);
+
+        JavaScriptPool pool = newJavaScriptPool(newConfig(), metricRegistry);
+        assertThat(pool.isInBadState(), is(false));
+        assertThat(pool.checkFormat("marcx"), is(true));
+        assertThat(pool.checkFormat("foo"), is(false));
+
+        verify(timer, times(2)).time();
+        verify(context, times(2)).close();
+    }
+}
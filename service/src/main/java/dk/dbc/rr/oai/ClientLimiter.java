@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static jakarta.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * Per client admission control
+ * <p>
+ * A client (identity user:group or ip) can have at most
+ * {@link Config#getClientConcurrentRequests()} requests in progress, more
+ * requests wait in a fair (FIFO) queue for up to
+ * {@link Config#getClientQueueWaitInSeconds()}. And a client can make
+ * {@link Config#getClientRequestsPrMinute()} requests pr. minute (token
+ * bucket that holds 10 seconds worth of requests).
+ * <p>
+ * When a client is over its limits, the request is rejected with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header, as
+ * described for flow control in:
+ * http://www.openarchives.org/OAI/openarchivesprotocol.html#FlowControl
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Lock(LockType.READ)
+public class ClientLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientLimiter.class);
+
+    private static final Permit UNLIMITED = () -> {
+    };
+
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+    private static final long IDLE_TIME = TimeUnit.MINUTES.toNanos(10);
+
+    @Inject
+    public Config config;
+
+    private final ConcurrentHashMap<String, ClientState> clients;
+    private final AtomicLong nextSweep;
+
+    public ClientLimiter() {
+        this.clients = new ConcurrentHashMap<>();
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+    }
+
+    /**
+     * Admit a request from a client
+     * <p>
+     * The permit should be closed when the request has completed (use
+     * try-with-resources)
+     *
+     * @param client client key
+     * @return permit to run the request
+     * @throws WebApplicationException 503 if the client is over its limits
+     */
+    public Permit admit(String client) throws WebApplicationException {
+        int concurrent = config.getClientConcurrentRequests();
+        int prMinute = config.getClientRequestsPrMinute();
+        if (concurrent == 0 && prMinute == 0)
+            return UNLIMITED;
+        long now = System.nanoTime();
+        sweep(now);
+        // Entered atomically with the lookup, so a sweep cannot remove it while in use
+        ClientState state = clients.compute(client, (c, s) -> ( s == null ? new ClientState(concurrent, prMinute, now) : s ).enter());
+        boolean admitted = false;
+        try {
+            if (state.running != null) {
+                long queueWait = config.getClientQueueWaitInSeconds();
+                if (!state.running.tryAcquire(queueWait, TimeUnit.SECONDS)) {
+                    log.info("Client {} is over concurrency limit", client);
+                    throw serviceUnavailable(Math.max(1, queueWait), "Too many concurrent requests");
+                }
+            }
+            // Only requests that are allowed to run use the rate budget
+            long wait = state.takeToken(System.nanoTime());
+            if (wait > 0) {
+                if (state.running != null)
+                    state.running.release();
+                log.info("Client {} is over rate limit", client);
+                throw serviceUnavailable(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1, "Too many requests");
+            }
+            admitted = true;
+            return state::release;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for admission: {}", ex.getMessage());
+            log.debug("Interrupted waiting for admission: ", ex);
+            throw serviceUnavailable(1, "Interrupted");
+        } finally {
+            if (!admitted)
+                state.leave();
+        }
+    }
+
+    /**
+     * Remove state of clients that haven't been seen for a while
+     *
+     * @param now current nano time
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now - next < 0 || !nextSweep.compareAndSet(next, now + SWEEP_INTERVAL))
+            return;
+        for (String client : clients.keySet()) {
+            clients.computeIfPresent(client, (c, state) -> state.isIdle(now) ? null : state);
+        }
+    }
+
+    private static WebApplicationException serviceUnavailable(long retryAfter, String message) {
+        return new WebApplicationException(
+                Response.status(SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                        .type(MediaType.TEXT_PLAIN_TYPE)
+                        .entity(message)
+                        .build());
+    }
+
+    /**
+     * Admission to run a request
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    private static final class ClientState {
+
+        private final Semaphore running;
+        private final double tokensPrNano;
+        private final double capacity;
+        private double tokens;
+        private long lastSeen;
+        private int users; // Requests admitted or being admitted
+
+        private ClientState(int concurrent, int prMinute, long now) {
+            this.running = concurrent == 0 ? null : new Semaphore(concurrent, true);
+            this.tokensPrNano = prMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.capacity = Math.max(1.0, prMinute / 6.0);
+            this.tokens = capacity;
+            this.lastSeen = now;
+        }
+
+        /**
+         * Take a token from the bucket
+         *
+         * @param now current nano time
+         * @return 0 if a token was taken, otherwise nanos until there is one
+         */
+        private synchronized long takeToken(long now) {
+            if (tokensPrNano > 0.0) {
+                tokens = Math.min(capacity, tokens + ( now - lastSeen ) * tokensPrNano);
+                if (tokens < 1.0) {
+                    lastSeen = now;
+                    return (long) Math.ceil(( 1.0 - tokens ) / tokensPrNano);
+                }
+                tokens -= 1.0;
+            }
+            lastSeen = now;
+            return 0;
+        }
+
+        private synchronized ClientState enter() {
+            users++;
+            return this;
+        }
+
+        private synchronized void leave() {
+            users--;
+        }
+
+        private void release() {
+            if (running != null)
+                running.release();
+            leave();
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return users == 0 && now - lastSeen > IDLE_TIME;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -63,16 +64,31 @@ public class Config {
 
     private final Map<String, String> env;
 
+    private Instant acceptUnsignedTokensUntil;
+    private long adaptivePageBudget;
+    private int adaptivePageMinRows;
     private String adminEmail;
     private boolean authenticationDisabled;
+    private int clientConcurrentRequests;
+    private long clientQueueWait;
+    private int clientRequestsPrMinute;
+    private boolean coalesceRequests;
+    private int compressionLevel;
     private String exposedUrl;
     private int fetchTimeoutInSeconds;
     private UriBuilder formatServiceUri;
+    private boolean harvestSnapshots;
+    private long harvestSnapshotKeep;
+    private int harvestSnapshotMaxRows;
+    private long harvestSnapshotPurge;
+    private long harvestSnapshotReuse;
     private Client httpClient;
     private Map<String, List<String>> idpRightsRules;
     private UriBuilder idpUrl;
     private int maxRowsPrRequest;
+    private long metadataRefresh;
     private Integer parallelFetch;
+    private boolean partialPageOnTimeout;
     private Integer poolMinIdle;
     private Integer poolMaxIdle;
     private String repoName;
@@ -92,11 +108,32 @@ public class Config {
     public void init() {
         log.info("Setting up config");
 
+        this.acceptUnsignedTokensUntil = getenv("ACCEPT_UNSIGNED_TOKENS_UNTIL", "")
+                .convert(s -> s.isEmpty() ? Instant.EPOCH : Instant.parse(s));
+        this.adaptivePageBudget = getenv("ADAPTIVE_PAGE_BUDGET", "0s")
+                .convert(Config::seconds);
+        this.adaptivePageMinRows = getenv("ADAPTIVE_PAGE_MIN_ROWS", "10").asInt()
+                .min(1, "should be able to fetch something")
+                .get();
         this.adminEmail = getenv("ADMIN_EMAIL")
                 .is("not an email-address", EMAIL)
                 .get();
         this.authenticationDisabled = getenv("AUTHENTICATION_DISABLED", "false")
                 .convert(Boolean::parseBoolean);
+        this.clientConcurrentRequests = getenv("CLIENT_CONCURRENT_REQUESTS", "0").asInt()
+                .min(0)
+                .get();
+        this.clientQueueWait = getenv("CLIENT_QUEUE_WAIT", "5s")
+                .convert(Config::seconds);
+        this.clientRequestsPrMinute = getenv("CLIENT_REQUESTS_PR_MINUTE", "0").asInt()
+                .min(0)
+                .get();
+        this.coalesceRequests = getenv("COALESCE_REQUESTS", "true")
+                .convert(Boolean::parseBoolean);
+        this.compressionLevel = getenv("COMPRESSION_LEVEL", "6").asInt()
+                .min(0)
+                .max(9)
+                .get();
         this.exposedUrl = getenv("EXPOSED_URL").get();
         this.fetchTimeoutInSeconds = getenv("FETCH_TIMEOUT_IN_SECONDS").asInt()
                 .min(1)
@@ -104,6 +141,17 @@ public class Config {
         this.formatServiceUri = getenv("RAWREPO_OAI_FORMATTER_SERVICE_URL")
                 .isNot("not empty", String::isEmpty)
                 .convert(UriBuilder::fromUri);
+        this.harvestSnapshots = getenv("HARVEST_SNAPSHOTS", "false")
+                .convert(Boolean::parseBoolean);
+        this.harvestSnapshotKeep = getenv("HARVEST_SNAPSHOT_KEEP", "2d")
+                .convert(Config::seconds);
+        this.harvestSnapshotMaxRows = getenv("HARVEST_SNAPSHOT_MAX_ROWS", "1000000").asInt()
+                .min(0)
+                .get();
+        this.harvestSnapshotPurge = getenv("HARVEST_SNAPSHOT_PURGE", "1h")
+                .convert(Config::seconds);
+        this.harvestSnapshotReuse = getenv("HARVEST_SNAPSHOT_REUSE", "1h")
+                .convert(Config::seconds);
         this.idpRightsRules = getenv("IDP_RULES")
                 .isNot("not empty", String::isEmpty)
                 .convert(Config::idpRights);
@@ -120,9 +168,13 @@ public class Config {
         this.maxRowsPrRequest = getenv("MAX_ROWS_PR_REQUEST").asInt()
                 .min(1, "should be able to fetch something")
                 .get();
+        this.metadataRefresh = getenv("METADATA_REFRESH", "5m")
+                .convert(Config::seconds);
         this.parallelFetch = getenv("PARALLEL_FETCH").asInt()
                 .min(1)
                 .get();
+        this.partialPageOnTimeout = getenv("PARTIAL_PAGE_ON_TIMEOUT", "false")
+                .convert(Boolean::parseBoolean);
         this.poolMinIdle = getenv("POOL_MIN_IDLE").asInt()
                 .min(0)
                 .get();
@@ -135,7 +187,7 @@ public class Config {
                 .get();
         this.resumptionTokenTimeout = getenv("RESUMPTION_TOKEN_TIMEOUT")
                 .convert(Config::seconds);
-        this.xForwardedFor = getenv("X_FORWARDED_FOR", "10.0.0.0/8, 192.168.0.0/16, 172.16.0.0/12, 127.0.0.0/8")
+        this.xForwardedFor = getenv("X_FORWARDED_FOR", "10.0.0.0/8, 192.168.0.0/16, 172.16.0.0/12, 127.0.0.0/8, ::1, fc00::/7")
                 .convert(s -> Stream.of(s.split(","))
                         .map(String::trim)
                         .filter(x -> !x.isEmpty())
@@ -144,6 +196,23 @@ public class Config {
                 .convert(Config::xorBytes);
     }
 
+    /**
+     * Until when resumption tokens from before they were signed are accepted
+     *
+     * @return fixed point in time (epoch if they're not accepted)
+     */
+    public Instant getAcceptUnsignedTokensUntil() {
+        return acceptUnsignedTokensUntil;
+    }
+
+    public long getAdaptivePageBudgetInSeconds() {
+        return adaptivePageBudget;
+    }
+
+    public int getAdaptivePageMinRows() {
+        return adaptivePageMinRows;
+    }
+
     public String getAdminEmail() {
         return adminEmail;
     }
@@ -152,6 +221,26 @@ public class Config {
         return authenticationDisabled;
     }
 
+    public int getClientConcurrentRequests() {
+        return clientConcurrentRequests;
+    }
+
+    public long getClientQueueWaitInSeconds() {
+        return clientQueueWait;
+    }
+
+    public int getClientRequestsPrMinute() {
+        return clientRequestsPrMinute;
+    }
+
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
     public String getExposedUrl() {
         return exposedUrl;
     }
@@ -164,6 +253,26 @@ public class Config {
         return formatServiceUri.clone();
     }
 
+    public boolean isHarvestSnapshots() {
+        return harvestSnapshots;
+    }
+
+    public long getHarvestSnapshotKeepInSeconds() {
+        return harvestSnapshotKeep;
+    }
+
+    public int getHarvestSnapshotMaxRows() {
+        return harvestSnapshotMaxRows;
+    }
+
+    public long getHarvestSnapshotPurgeInSeconds() {
+        return harvestSnapshotPurge;
+    }
+
+    public long getHarvestSnapshotReuseInSeconds() {
+        return harvestSnapshotReuse;
+    }
+
     public Client getHttpClient() {
         return httpClient;
     }
@@ -187,10 +296,18 @@ public class Config {
         return maxRowsPrRequest;
     }
 
+    public long getMetadataRefreshInSeconds() {
+        return metadataRefresh;
+    }
+
     public Integer getParallelFetch() {
         return parallelFetch;
     }
 
+    public boolean isPartialPageOnTimeout() {
+        return partialPageOnTimeout;
+    }
+
     public Integer getPoolMaxIdle() {
         return poolMaxIdle;
     }
@@ -350,6 +467,14 @@ public class Config {
         private IntFromEnv min(int minValue) {
             return min(minValue, null);
         }
+
+        private IntFromEnv max(int maxValue) {
+            if (value > maxValue) {
+                log.error("Variable: {} is invalid - should be atmost {}", name, maxValue);
+                throw new IllegalArgumentException("Values should be atmost: " + maxValue);
+            }
+            return this;
+        }
     }
 
     FromEnv getenv(String name) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import jakarta.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiated compression of response content
+ * <p>
+ * The content is compressed while it is written to the client, with a
+ * deflater buffer sized from the content (XML compresses about 10x).
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+enum ContentEncoding {
+
+    GZIP("gzip") {
+        @Override
+        OutputStream wrap(OutputStream os, int level, int bufferSize) throws IOException {
+            return new GZIPOutputStream(os, bufferSize) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+    DEFLATE("deflate") {
+        @Override
+        OutputStream wrap(OutputStream os, int level, int bufferSize) throws IOException {
+            Deflater deflater = new Deflater(level);
+            return new DeflaterOutputStream(os, deflater, bufferSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end(); // Release native memory now, user supplied deflaters aren't ended by close()
+                    }
+                }
+            };
+        }
+    };
+
+    // Not worth compressing (error responses and the like)
+    static final int MIN_SIZE = 1024;
+
+    private static final int MIN_BUFFER = 512;
+    private static final int MAX_BUFFER = 65536;
+
+    private final String name;
+
+    ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Name as used in Content-Encoding
+     *
+     * @return encoding name
+     */
+    String getName() {
+        return name;
+    }
+
+    abstract OutputStream wrap(OutputStream os, int level, int bufferSize) throws IOException;
+
+    /**
+     * Make an entity that compresses content when written
+     *
+     * @param content the uncompressed content
+     * @param level   compression level
+     * @return entity for a response
+     */
+    StreamingOutput entity(byte[] content, int level) {
+        int bufferSize = Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, content.length / 8));
+        return os -> {
+            try (OutputStream compressed = wrap(os, level, bufferSize)) {
+                compressed.write(content);
+            }
+        };
+    }
+
+    /**
+     * Select an encoding from an Accept-Encoding header
+     * <p>
+     * Takes the one with the highest q-value, gzip before deflate if equal.
+     * A wildcard means gzip (unless gzip is listed explicitly)
+     *
+     * @param acceptEncoding header value (or null)
+     * @return encoding or null if no compression should be used
+     */
+    static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        double gzip = -1.0;
+        double deflate = -1.0;
+        double wildcard = -1.0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1 ; i < params.length ; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException ex) {
+                        q = 0.0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip":
+                case "x-gzip":
+                    gzip = q;
+                    break;
+                case "deflate":
+                    deflate = q;
+                    break;
+                case "*":
+                    wildcard = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzip < 0.0)
+            gzip = wildcard;
+        if (gzip > 0.0 && gzip >= deflate)
+            return GZIP;
+        if (deflate > 0.0)
+            return DEFLATE;
+        return null;
+    }
+}
@@ -25,6 +25,9 @@ import dk.dbc.rr.oai.fetch.IdpRights;
 import dk.dbc.rr.oai.io.OaiIOBean;
 import dk.dbc.rr.oai.io.OaiRequest;
 import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiStages;
+import dk.dbc.rr.oai.io.OaiValidator;
+import dk.dbc.rr.oai.worker.OaiRequestCoalescer;
 import dk.dbc.rr.oai.worker.OaiWorker;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
@@ -46,6 +49,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Date;
 import java.util.Set;
 import java.util.UUID;
 
@@ -63,6 +68,9 @@ public class OaiBean {
 
     private static final Logger log = LoggerFactory.getLogger(OaiBean.class);
 
+    @Inject
+    public ClientLimiter clientLimiter;
+
     @Inject
     public Config config;
 
@@ -75,6 +83,12 @@ public class OaiBean {
     @Inject
     public OaiIOBean oaiIO;
 
+    @Inject
+    public OaiMetrics oaiMetrics;
+
+    @Inject
+    public OaiRequestCoalescer oaiRequestCoalescer;
+
     @Inject
     public OaiWorker oaiWorker;
 
@@ -107,18 +121,79 @@ public class OaiBean {
             String clientIp = remoteIp.clientIp(httpRequest.getRemoteAddr(),
                                                 headers.getHeaderString("X-Forwarded-For"));
             log.trace("triple = {}; clientIp = {}", triple, clientIp);
+            long authStart = System.nanoTime();
             Set<String> allowedSets = getAllowedSets(triple, clientIp);
+            long authTime = System.nanoTime() - authStart;
 
             if (allowedSets.isEmpty())
                 throw new ClientErrorException(UNAUTHORIZED);
 
-            return Response.ok()
-                    .type(MediaType.APPLICATION_XML_TYPE)
-                    .entity(processOaiRequest(allowedSets, params, trackingId))
-                    .build();
+            try (ClientLimiter.Permit permit = clientLimiter.admit(clientKey(triple, clientIp))) {
+                OaiResponse response = processOaiRequest(allowedSets, params, trackingId,
+                                                         headers.getHeaderString(HttpHeaders.IF_NONE_MATCH),
+                                                         headers.getHeaderString(HttpHeaders.IF_MODIFIED_SINCE));
+                response.getStages().add(OaiStages.Stage.AUTH, authTime);
+                Response.ResponseBuilder builder;
+                if (response.isNotModified()) {
+                    builder = Response.notModified();
+                } else {
+                    builder = Response.ok()
+                            .type(MediaType.APPLICATION_XML_TYPE);
+                    entity(builder, content(response, trackingId), headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+                }
+                OaiValidator validator = response.getValidator();
+                if (validator != null) {
+                    builder.header(HttpHeaders.ETAG, validator.getETag());
+                    Instant lastModified = validator.getLastModified();
+                    if (lastModified != null)
+                        builder.lastModified(Date.from(lastModified));
+                }
+                oaiMetrics.record(response);
+                return builder.build();
+            }
+        }
+    }
+
+    /**
+     * Set the entity of a response, compressed if the client accepts it
+     *
+     * @param builder        response
+     * @param content        uncompressed content
+     * @param acceptEncoding Accept-Encoding header or null
+     */
+    void entity(Response.ResponseBuilder builder, byte[] content, String acceptEncoding) {
+        int level = config.getCompressionLevel();
+        if (level == 0) {
+            builder.entity(content);
+            return;
+        }
+        builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        ContentEncoding encoding = content.length < ContentEncoding.MIN_SIZE ? null : ContentEncoding.negotiate(acceptEncoding);
+        if (encoding == null) {
+            builder.entity(content);
+        } else {
+            log.debug("Content-Encoding: {}", encoding.getName());
+            builder.encoding(encoding.getName())
+                    .entity(encoding.entity(content, level));
         }
     }
 
+    /**
+     * Identify the client for admission control
+     *
+     * @param triple   optional user:group:password
+     * @param clientIp remote ip
+     * @return user:group if a triple is given, otherwise the ip
+     */
+    static String clientKey(String triple, String clientIp) {
+        if (triple != null) {
+            String[] parts = triple.split(":", 3);
+            if (parts.length == 3)
+                return "identity:" + parts[0] + ":" + parts[1];
+        }
+        return "ip:" + clientIp;
+    }
+
     /**
      * Create xml document from request parameters
      *
@@ -128,8 +203,27 @@ public class OaiBean {
      * @return XML bytes
      */
     byte[] processOaiRequest(Set<String> allowedSets, MultivaluedMap<String, String> params, String trackingId) {
+        return content(processOaiRequest(allowedSets, params, trackingId, null, null), trackingId);
+    }
+
+    /**
+     * Process a request from request parameters
+     * <p>
+     * If the client's copy (from the conditional headers) is current, the
+     * records aren't formatted, and the response is "not modified"
+     *
+     * @param allowedSets     This sets the user has access to
+     * @param params          The request params
+     * @param trackingId      The tracking id (to be used in different threads)
+     * @param ifNoneMatch     If-None-Match header or null
+     * @param ifModifiedSince If-Modified-Since header or null
+     * @return response structure
+     */
+    OaiResponse processOaiRequest(Set<String> allowedSets, MultivaluedMap<String, String> params, String trackingId,
+                                  String ifNoneMatch, String ifModifiedSince) {
 
         OaiResponse response = oaiIO.oaiResponseOf(config.getExposedUrl(), params);
+        response.setConditions(ifNoneMatch, ifModifiedSince);
         OaiRequest request = response.getRequest();
         VerbType verb = request.getVerb();
         if (verb != null) {
@@ -149,7 +243,7 @@ public class OaiBean {
                         oaiWorker.listMetadataFormats(response, request, allowedSets);
                         break;
                     case LIST_RECORDS:
-                        oaiWorker.listRecords(response, request, allowedSets, trackingId);
+                        oaiRequestCoalescer.listRecords(response, request, allowedSets, trackingId);
                         break;
                     case LIST_SETS:
                         oaiWorker.listSets(response);
@@ -163,6 +257,17 @@ public class OaiBean {
                 throw new ServerErrorException(INTERNAL_SERVER_ERROR);
             }
         }
+        return response;
+    }
+
+    /**
+     * Format a response
+     *
+     * @param response   the response structure
+     * @param trackingId The tracking id (added as a comment)
+     * @return XML bytes
+     */
+    private static byte[] content(OaiResponse response, String trackingId) {
         String comment = new StringBuilder()
                 .append(" trackingId: ")
                 .append(trackingId)
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import dk.dbc.oai.pmh.VerbType;
+import dk.dbc.rr.oai.io.OaiRequest;
+import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiStages;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per request metrics
+ * <p>
+ * The time spent in each stage of a request ({@link OaiStages}) is reported
+ * as a histogram {@code oai_stage_<stage>} (in microseconds) tagged with
+ * verb and metadataPrefix. Requests with errors are tagged with
+ * metadataPrefix "none", so client supplied junk doesn't become tags.
+ * <p>
+ * The rows read from the database and the identifiers they're collapsed
+ * into are counted as {@code oai_database_rows_fetched} and
+ * {@code oai_database_rows_returned}.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Lock(LockType.READ)
+public class OaiMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiMetrics.class);
+
+    static final String NONE = "none";
+
+    private static final Map<OaiStages.Stage, Metadata> STAGES = makeStageMetadata();
+
+    @Inject
+    public MetricRegistry metricRegistry;
+
+    /**
+     * Report the stage timings of a response
+     *
+     * @param response the processed (and rendered) response
+     */
+    public void record(OaiResponse response) {
+        OaiStages stages = response.getStages();
+        log.debug("stages = {}", stages);
+        String verb = verbOf(response);
+        String metadataPrefix = metadataPrefixOf(response);
+        for (OaiStages.Stage stage : OaiStages.Stage.values()) {
+            long nanos = stages.get(stage);
+            if (nanos >= 0)
+                timing(stage, verb, metadataPrefix, nanos);
+        }
+    }
+
+    /**
+     * Report the number of rows read, and how many identifiers they became
+     *
+     * @param fetched  number of rows read from the result set
+     * @param returned number of identifiers returned
+     */
+    public void rows(long fetched, long returned) {
+        count("oai_database_rows_fetched", fetched);
+        count("oai_database_rows_returned", returned);
+    }
+
+    /**
+     * Update a stage histogram
+     *
+     * @param stage          the stage
+     * @param verb           verb tag
+     * @param metadataPrefix metadataPrefix tag
+     * @param nanos          time spent in the stage
+     */
+    protected void timing(OaiStages.Stage stage, String verb, String metadataPrefix, long nanos) {
+        metricRegistry.histogram(STAGES.get(stage), new Tag("verb", verb), new Tag("metadataPrefix", metadataPrefix))
+                .update(nanos / 1_000L);
+    }
+
+    /**
+     * Increment a counter
+     *
+     * @param name  name of counter
+     * @param count how much
+     */
+    protected void count(String name, long count) {
+        metricRegistry.counter(name).inc(count);
+    }
+
+    static String verbOf(OaiResponse response) {
+        OaiRequest request = response.getRequest();
+        if (request == null)
+            return NONE;
+        VerbType verb = request.getVerb();
+        return verb == null ? NONE : verb.value();
+    }
+
+    static String metadataPrefixOf(OaiResponse response) {
+        OaiRequest request = response.getRequest();
+        if (request == null || response.hasErrors())
+            return NONE;
+        String metadataPrefix = request.getMetadataPrefix();
+        return metadataPrefix == null ? NONE : metadataPrefix;
+    }
+
+    private static Map<OaiStages.Stage, Metadata> makeStageMetadata() {
+        EnumMap<OaiStages.Stage, Metadata> map = new EnumMap<>(OaiStages.Stage.class);
+        for (OaiStages.Stage stage : OaiStages.Stage.values()) {
+            map.put(stage, Metadata.builder()
+                    .withName("oai_stage_" + stage.getLabel())
+                    .withDescription("Time spent in the " + stage.getLabel() + " stage of a request")
+                    .withUnit(MetricUnits.MICROSECONDS)
+                    .build());
+        }
+        return map;
+    }
+}
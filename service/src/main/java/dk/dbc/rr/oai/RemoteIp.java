@@ -22,14 +22,10 @@ import jakarta.annotation.PostConstruct;
 import jakarta.ejb.Singleton;
 import jakarta.inject.Inject;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.toList;
 
 /**
  *
@@ -38,31 +34,27 @@ import static java.util.stream.Collectors.toList;
 @Singleton
 public class RemoteIp {
 
-    private static final String IP0TO255 = "(2(?:5[0-5]|[0-4][0-9])|1[0-9][0-9]|[1-9][0-9]|[0-9])";
-    private static final String DOT = "\\.";
-    private static final Pattern IP_PATTERN = Pattern.compile("^" + IP0TO255 + DOT + IP0TO255 + DOT + IP0TO255 + DOT + IP0TO255 + "$");
-    private static final Pattern NET_PATTERN = Pattern.compile("^(?:3[0-2]|[12]?[0-9])$");
-
     @Inject
     public Config config;
 
-    private List<IpRange> proxyRanges;
+    private ProxyRanges proxyRanges;
 
     @PostConstruct
     public void init() {
-        proxyRanges = config.getxForwardedFor().stream()
-                .map(IpRange::of)
-                .collect(toList());
+        proxyRanges = ProxyRanges.of(config.getxForwardedFor());
     }
 
     /**
      * Look up remote IP address
      * <p>
-     * This is only valid for IPv4 ranges.
-     * <p>
      * It looks at current remove and proxies from the X-Forwarded-For header.
-     * Then returns the first client, that is not represented as an IPv4 address
-     * or not in the IP ranges that denotes there the proxies are located
+     * Then returns the first client, that is not represented as an IPv4/IPv6
+     * address or not in the IP ranges that denotes there the proxies are
+     * located
+     * <p>
+     * The header is scanned in place from the end, and IPv4 addresses are
+     * parsed and looked up without allocating, as this is done for every
+     * request.
      * <p>
      * https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/X-Forwarded-For
      *
@@ -75,21 +67,32 @@ public class RemoteIp {
     public String clientIp(String ip, String xForwardedFor) {
         if (xForwardedFor == null)
             return ip;
-        String[] xForwardedForHosts = Stream.of(xForwardedFor.split(","))
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .toArray(String[]::new);
-        int offset = xForwardedForHosts.length - 1;
+        String source = ip;
+        int start = 0;
+        int end = ip.length();
+        int remaining = xForwardedFor.length(); // Unscanned part of X-Forwarded-For
         for (;;) {
-            if (offset < 0) // no more in X-Forwarded-For Header
-                return ip;
-            Long ipNumber = ipOf(ip);
-            if (ipNumber == null) // Ip is not an ipv4 (a host or ipv6)
-                return ip;
-            if (!proxyRanges.stream()
-                    .anyMatch(r -> r.isInRange(ipNumber))) // Ip is outside proxy range
-                return ip;
-            ip = xForwardedForHosts[offset--];
+            if (!proxyRanges.isProxy(source, start, end)) // Ip is not an ip, or is outside proxy range
+                return source.substring(start, end);
+            int hopStart;
+            int hopEnd;
+            do {
+                if (remaining < 0) // no more in X-Forwarded-For Header
+                    return source.substring(start, end);
+                int comma = xForwardedFor.lastIndexOf(',', remaining - 1);
+                hopStart = comma + 1;
+                hopEnd = remaining;
+                remaining = comma;
+                while (hopStart < hopEnd && xForwardedFor.charAt(hopStart) <= ' ') {
+                    hopStart++;
+                }
+                while (hopStart < hopEnd && xForwardedFor.charAt(hopEnd - 1) <= ' ') {
+                    hopEnd--;
+                }
+            } while (hopStart == hopEnd);
+            source = xForwardedFor;
+            start = hopStart;
+            end = hopEnd;
         }
     }
 
@@ -100,14 +103,254 @@ public class RemoteIp {
      * @return long or null if not an IPv4 address
      */
     static Long ipOf(String ip) {
-        Matcher m = IP_PATTERN.matcher(ip);
-        if (m.matches()) {
-            return Long.parseUnsignedLong(m.group(1)) << 24 |
-                   Long.parseUnsignedLong(m.group(2)) << 16 |
-                   Long.parseUnsignedLong(m.group(3)) << 8 |
-                   Long.parseUnsignedLong(m.group(4));
-        }
-        return null;
+        long value = parseIpv4(ip, 0, ip.length());
+        return value < 0 ? null : value;
+    }
+
+    /**
+     * Parse an IPv4 address in dotted decimal, without allocating
+     * <p>
+     * Octets are 0-255 without leading zeros
+     *
+     * @param s     string containing the ip
+     * @param start where the ip starts
+     * @param end   where the ip ends
+     * @return the ip as a positive number, or -1 if it isn't an IPv4
+     */
+    static long parseIpv4(String s, int start, int end) {
+        long ip = 0;
+        int i = start;
+        for (int octet = 0 ; octet < 4 ; octet++) {
+            if (octet != 0) {
+                if (i >= end || s.charAt(i) != '.')
+                    return -1;
+                i++;
+            }
+            int first = i;
+            int value = 0;
+            while (i < end && i - first < 3) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9')
+                    break;
+                value = value * 10 + c - '0';
+                i++;
+            }
+            if (i == first || value > 255 || i - first > 1 && s.charAt(first) == '0')
+                return -1;
+            ip = ip << 8 | value;
+        }
+        return i == end ? ip : -1;
+    }
+
+    /**
+     * Parse an IPv6 address (optionally in brackets) into two longs
+     * <p>
+     * Handles :: compression, and an IPv4 address as the last 32 bits. Zone
+     * ids are not accepted.
+     *
+     * @param s     string containing the ip
+     * @param start where the ip starts
+     * @param end   where the ip ends
+     * @param out   high and low 64 bits
+     * @return if it is an IPv6 address
+     */
+    static boolean parseIpv6(String s, int start, int end, long[] out) {
+        if (end - start > 2 && s.charAt(start) == '[' && s.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = start;
+        if (end - i >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+            gap = 0;
+            i += 2;
+        }
+        while (i < end) {
+            if (count == 8)
+                return false;
+            int first = i;
+            int value = 0;
+            while (i < end && i - first < 5) {
+                int digit = Character.digit(s.charAt(i), 16);
+                if (digit < 0)
+                    break;
+                value = value << 4 | digit;
+                i++;
+            }
+            if (i < end && s.charAt(i) == '.') { // IPv4 as last 32 bits
+                long ipv4 = count <= 6 ? parseIpv4(s, first, end) : -1;
+                if (ipv4 < 0)
+                    return false;
+                groups[count++] = (int) ( ipv4 >>> 16 );
+                groups[count++] = (int) ( ipv4 & 0xffff );
+                break;
+            }
+            if (i == first || i - first > 4)
+                return false;
+            groups[count++] = value;
+            if (i == end)
+                break;
+            if (s.charAt(i++) != ':' || i == end)
+                return false;
+            if (s.charAt(i) == ':') {
+                if (gap >= 0)
+                    return false;
+                gap = count;
+                i++;
+            }
+        }
+        if (gap < 0 ? count != 8 : count == 8)
+            return false;
+        int zeros = 8 - count;
+        long high = 0;
+        long low = 0;
+        for (int g = 0, src = 0 ; g < 8 ; g++) {
+            int value = gap >= 0 && g >= gap && g < gap + zeros ? 0 : groups[src++];
+            if (g < 4) {
+                high = high << 16 | value;
+            } else {
+                low = low << 16 | value;
+            }
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+
+    /**
+     * Compare two 128 bit unsigned numbers
+     */
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int cmp = Long.compareUnsigned(high1, high2);
+        return cmp != 0 ? cmp : Long.compareUnsigned(low1, low2);
+    }
+
+    /**
+     * The proxy ranges, merged into sorted non overlapping interval arrays
+     * for IPv4 and IPv6, searched using binary search
+     */
+    static final class ProxyRanges {
+
+        private final long[] from;
+        private final long[] to;
+        private final long[] from6High;
+        private final long[] from6Low;
+        private final long[] to6High;
+        private final long[] to6Low;
+
+        /**
+         * Compile ranges
+         *
+         * @param ranges IPv4 ranges as in {@link IpRange#of(java.lang.String)}
+         *               or IPv6 ranges as in
+         *               {@link Ip6Range#of(java.lang.String)}
+         * @return lookup structure
+         */
+        static ProxyRanges of(List<String> ranges) {
+            ArrayList<IpRange> ipv4 = new ArrayList<>();
+            ArrayList<Ip6Range> ipv6 = new ArrayList<>();
+            for (String range : ranges) {
+                if (range.contains(":")) {
+                    ipv6.add(Ip6Range.of(range));
+                } else {
+                    ipv4.add(IpRange.of(range));
+                }
+            }
+            return new ProxyRanges(ipv4, ipv6);
+        }
+
+        private ProxyRanges(ArrayList<IpRange> ipv4, ArrayList<Ip6Range> ipv6) {
+            ipv4.sort(Comparator.comparingLong(r -> r.from));
+            ArrayList<IpRange> merged = new ArrayList<>();
+            for (IpRange range : ipv4) {
+                IpRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && range.from <= last.to + 1) {
+                    last.to = Math.max(last.to, range.to);
+                } else {
+                    merged.add(new IpRange(range.from, range.to));
+                }
+            }
+            this.from = merged.stream().mapToLong(r -> r.from).toArray();
+            this.to = merged.stream().mapToLong(r -> r.to).toArray();
+
+            ipv6.sort((l, r) -> compare(l.fromHigh, l.fromLow, r.fromHigh, r.fromLow));
+            ArrayList<Ip6Range> merged6 = new ArrayList<>();
+            for (Ip6Range range : ipv6) {
+                Ip6Range last = merged6.isEmpty() ? null : merged6.get(merged6.size() - 1);
+                if (last != null && ( compare(range.fromHigh, range.fromLow, last.toHigh, last.toLow) <= 0 ||
+                                      last.isBefore(range) )) {
+                    if (compare(range.toHigh, range.toLow, last.toHigh, last.toLow) > 0) {
+                        last.toHigh = range.toHigh;
+                        last.toLow = range.toLow;
+                    }
+                } else {
+                    merged6.add(new Ip6Range(range.fromHigh, range.fromLow, range.toHigh, range.toLow));
+                }
+            }
+            this.from6High = merged6.stream().mapToLong(r -> r.fromHigh).toArray();
+            this.from6Low = merged6.stream().mapToLong(r -> r.fromLow).toArray();
+            this.to6High = merged6.stream().mapToLong(r -> r.toHigh).toArray();
+            this.to6Low = merged6.stream().mapToLong(r -> r.toLow).toArray();
+        }
+
+        /**
+         * Check if an address is in a proxy range
+         * <p>
+         * IPv4-mapped IPv6 addresses (::ffff:a.b.c.d) are checked against
+         * the IPv4 ranges
+         *
+         * @param s     string containing the ip
+         * @param start where the ip starts
+         * @param end   where the ip ends
+         * @return false if it isn't a proxy or isn't an ip
+         */
+        boolean isProxy(String s, int start, int end) {
+            long ipv4 = parseIpv4(s, start, end);
+            if (ipv4 >= 0)
+                return isProxy(ipv4);
+            if (from6High.length == 0 && from.length == 0)
+                return false;
+            long[] ipv6 = new long[2];
+            if (!parseIpv6(s, start, end, ipv6))
+                return false;
+            if (ipv6[0] == 0 && ( ipv6[1] >>> 32 ) == 0xffffL)
+                return isProxy(ipv6[1] & 0xffffffffL);
+            return isProxy(ipv6[0], ipv6[1]);
+        }
+
+        boolean isProxy(long ip) {
+            int low = 0;
+            int high = from.length - 1;
+            while (low <= high) {
+                int mid = ( low + high ) >>> 1;
+                if (ip < from[mid]) {
+                    high = mid - 1;
+                } else if (ip > to[mid]) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isProxy(long ipHigh, long ipLow) {
+            int low = 0;
+            int high = from6High.length - 1;
+            while (low <= high) {
+                int mid = ( low + high ) >>> 1;
+                if (compare(ipHigh, ipLow, from6High[mid], from6Low[mid]) < 0) {
+                    high = mid - 1;
+                } else if (compare(ipHigh, ipLow, to6High[mid], to6Low[mid]) > 0) {
+                    low = mid + 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     static class IpRange {
@@ -125,7 +368,7 @@ public class RemoteIp {
                 Long to = ipOf(a[1]);
                 if (from == null || to == null)
                     throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range");
-                if (Objects.equals(from, to))
+                if (from.equals(to))
                     throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range from and to are rqual");
                 if (from > to)
                     throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range from and to are switched");
@@ -135,9 +378,8 @@ public class RemoteIp {
                 Long from = ipOf(a[0]);
                 if (from == null)
                     throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range");
-                Matcher m = NET_PATTERN.matcher(a[1]);
-                if (m.matches()) {
-                    int width = Integer.parseUnsignedInt(a[1]);
+                int width = prefixLength(a[1], 32);
+                if (width >= 0) {
                     long mask = 0xffffffffL << ( 32 - width );
                     from = from & mask;
                     long to = from | ( ~mask & 0xffffffffL );
@@ -198,4 +440,120 @@ public class RemoteIp {
                                  ( to >> 24 ) & 0xff, ( to >> 16 ) & 0xff, ( to >> 8 ) & 0xff, to & 0xff);
         }
     }
+
+    static class Ip6Range {
+
+        /**
+         * Convert a string to an IPv6 ip-range
+         *
+         * @param range host, host-host or host/net(0-128)
+         * @return ip-range description
+         */
+        static Ip6Range of(String range) {
+            long[] from = new long[2];
+            long[] to = new long[2];
+            if (range.contains("-")) {
+                String[] a = range.split("-", 2);
+                if (!parseIpv6(a[0], 0, a[0].length(), from) || !parseIpv6(a[1], 0, a[1].length(), to))
+                    throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range");
+                int cmp = compare(from[0], from[1], to[0], to[1]);
+                if (cmp == 0)
+                    throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range from and to are rqual");
+                if (cmp > 0)
+                    throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range from and to are switched");
+                return new Ip6Range(from[0], from[1], to[0], to[1]);
+            } else if (range.contains("/")) {
+                String[] a = range.split("/", 2);
+                if (!parseIpv6(a[0], 0, a[0].length(), from))
+                    throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range");
+                int width = prefixLength(a[1], 128);
+                if (width >= 0) {
+                    long maskHigh = width == 0 ? 0 : width >= 64 ? -1L : -1L << ( 64 - width );
+                    long maskLow = width <= 64 ? 0 : -1L << ( 128 - width );
+                    return new Ip6Range(from[0] & maskHigh, from[1] & maskLow,
+                                        from[0] | ~maskHigh, from[1] | ~maskLow);
+                }
+                throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range invalid net");
+            } else {
+                if (!parseIpv6(range, 0, range.length(), from))
+                    throw new IllegalArgumentException("Cannot turn: " + range + " into an ip-range");
+                return new Ip6Range(from[0], from[1], from[0], from[1]);
+            }
+        }
+
+        long fromHigh;
+        long fromLow;
+        long toHigh;
+        long toLow;
+
+        private Ip6Range(long fromHigh, long fromLow, long toHigh, long toLow) {
+            this.fromHigh = fromHigh;
+            this.fromLow = fromLow;
+            this.toHigh = toHigh;
+            this.toLow = toLow;
+        }
+
+        /**
+         * If other starts right after this
+         *
+         * @param other range that starts after this
+         * @return if they are adjacent
+         */
+        private boolean isBefore(Ip6Range other) {
+            long nextLow = toLow + 1;
+            long nextHigh = nextLow == 0 ? toHigh + 1 : toHigh;
+            return nextHigh == other.fromHigh && nextLow == other.fromLow;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 89 * hash + Long.hashCode(this.fromHigh);
+            hash = 89 * hash + Long.hashCode(this.fromLow);
+            hash = 89 * hash + Long.hashCode(this.toHigh);
+            hash = 89 * hash + Long.hashCode(this.toLow);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null ||
+                getClass() != obj.getClass())
+                return false;
+            final Ip6Range other = (Ip6Range) obj;
+            return this.fromHigh == other.fromHigh &&
+                   this.fromLow == other.fromLow &&
+                   this.toHigh == other.toHigh &&
+                   this.toLow == other.toLow;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                                 "Ip6Range{%016x%016x-%016x%016x}",
+                                 fromHigh, fromLow, toHigh, toLow);
+        }
+    }
+
+    /**
+     * Parse a prefix length (decimal without leading zeros)
+     *
+     * @param net the text
+     * @param max the largest allowed value
+     * @return the length or -1 if invalid
+     */
+    private static int prefixLength(String net, int max) {
+        if (net.isEmpty() || net.length() > 3 || net.length() > 1 && net.charAt(0) == '0')
+            return -1;
+        int value = 0;
+        for (int i = 0 ; i < net.length() ; i++) {
+            char c = net.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + c - '0';
+        }
+        return value <= max ? value : -1;
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.fetch;
+
+import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * A parallel fetch didn't complete before the deadline
+ * <p>
+ * Carries the number of records that were formatted in time, so the cost of
+ * formatting can be estimated from a failed fetch too
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class FetchTimeoutException extends ServerErrorException {
+
+    private final int completed;
+
+    public FetchTimeoutException(int completed) {
+        super("Fetching of records timed out", Response.Status.INTERNAL_SERVER_ERROR);
+        this.completed = completed;
+    }
+
+    /**
+     * Number of records formatted before the deadline
+     *
+     * @return count
+     */
+    public int getCompleted() {
+        return completed;
+    }
+}
@@ -20,6 +20,7 @@ package dk.dbc.rr.oai.fetch;
 
 import dk.dbc.log.LogWith;
 import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.io.OaiFragment;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.ProcessingException;
@@ -30,10 +31,8 @@ import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -61,9 +60,6 @@ public class ParallelFetch {
     @Inject
     public Config config;
 
-    @Inject
-    public DocumentBuilderPool documentBuilders;
-
     // List of currently active threads, for forced stop upon timeout
     private final ConcurrentHashMap<Long, Thread> threads;
 
@@ -86,40 +82,50 @@ public class ParallelFetch {
     }
 
     /**
-     * Produces a list of DOM Elements for the given uris
+     * Produces a list of XML fragments for the given uris
      * <p>
-     * If the service doesn't supply a valid xml response the element will be
-     * null.
+     * If {@link Config#isPartialPageOnTimeout()} is set, a timeout doesn't
+     * fail the request, but the list is cut at the first uri that wasn't
+     * completed before the deadline, and is shorter than the list of uris.
      *
      * @param uris       uris as generated by
      *                   {@link #buildUri(java.lang.String, java.lang.String, java.lang.String, java.lang.String)}
      * @param trackingId tracking id of the request
-     * @return list of XML-Elements and/or nulls
-     * @throws ServerErrorException in case of a timeout
+     * @return list of XML-fragments
+     * @throws FetchTimeoutException in case of a timeout
      */
     @Timed
-    public List<Element> parallelFetch(List<URI> uris, String trackingId) {
+    public List<OaiFragment> parallelFetch(List<URI> uris, String trackingId) {
         log.info("Requesting {} uris", uris.size());
         threads.clear();
         ExecutorService executor;
         executor = Executors.newFixedThreadPool(config.getParallelFetch());
-        List<Future<Document>> requests = uris.stream()
-                .map(u -> new Callable<Document>() {
+        List<Future<OaiFragment>> requests = uris.stream()
+                .map(u -> new Callable<OaiFragment>() {
                     @Override
-                    public Document call() throws Exception {
+                    public OaiFragment call() throws Exception {
                         try (LogWith logWith = LogWith.track(trackingId)) {
-                            return fetchASingleDocument(u);
+                            return fetchASingleFragment(u);
                         }
                     }
                 })
                 .map(executor::submit)
                 .collect(toList());
         executor.shutdown();
+        int done = requests.size();
         try {
             boolean completed = executor.awaitTermination(config.getFetchTimeoutInSeconds(), TimeUnit.SECONDS);
             log.debug("completed = {}", completed);
-            if (!completed)
-                throw new ServerErrorException("Fetching of records timed out", Response.Status.INTERNAL_SERVER_ERROR);
+            if (!completed) {
+                if (!config.isPartialPageOnTimeout())
+                    throw new FetchTimeoutException((int) requests.stream().filter(Future::isDone).count());
+                // Before shutdownNow(), interrupted fetches would complete with an exception
+                done = 0;
+                while (done < requests.size() && requests.get(done).isDone()) {
+                    done++;
+                }
+                log.info("Fetching of records timed out, returning {} of {}", done, requests.size());
+            }
         } catch (InterruptedException ex) {
             log.error("Interrupted during awaitTermination: {}", ex.getMessage());
             log.debug("Interrupted during awaitTermination: ", ex);
@@ -132,11 +138,12 @@ public class ParallelFetch {
             }
         }
         return requests.stream()
+                .limit(done)
                 .map(f -> {
                     try {
                         if (!f.isDone())
                             return null;
-                        return f.get().getDocumentElement();
+                        return f.get();
                     } catch (ExecutionException ex) {
                         Throwable cause = ex.getCause();
                         if (cause != null &&
@@ -156,42 +163,41 @@ public class ParallelFetch {
     }
 
     /**
-     * Fetch an uri as an XML Element
+     * Fetch an uri as an XML fragment
      * <p>
      * This registers itself in {@link #threads} before a fetch and unregisters
      * after.
-     * It uses the {@link #documentBuilders} pool ,for xml parsing
+     * The content is parsed with StAX (checking that it is well-formed), no
+     * DOM is built
      *
      * @param req uri to fetch
-     * @return xml element or runtime exception
+     * @return xml fragment or runtime exception
      */
     @Timed
-    public Document fetchASingleDocument(URI req) {
+    public OaiFragment fetchASingleFragment(URI req) {
         log.info("Fetching {}", req);
         Thread thread = Thread.currentThread();
         long me = thread.getId();
         try {
             threads.put(me, thread);
-            try (DocumentBuilderPool.Lease lease = documentBuilders.lease()) {
+            if (thread.isInterrupted())
+                throw new InterruptedException("Before get(url)");
+            Client client = config.getHttpClient();
+            try (InputStream is = client.target(req)
+                    .request(MediaType.APPLICATION_XML_TYPE)
+                    .get(InputStream.class)) {
                 if (thread.isInterrupted())
-                    throw new InterruptedException("During lease()");
-                Client client = config.getHttpClient();
-                try (InputStream is = client.target(req)
-                        .request(MediaType.APPLICATION_XML_TYPE)
-                        .get(InputStream.class)) {
-                    if (thread.isInterrupted())
-                        throw new InterruptedException("During get(url)");
-                    return lease.get().parse(is);
-                }
-            } catch (ProcessingException | SAXException | IOException ex) {
-                log.error("Cannot parse XML from formatter url: {}: {}", req, ex.getMessage());
-                log.debug("Cannot parse XML from formatter url: {}: ", req, ex);
-                throw new ServerErrorException("Cannot format record (parse xml)", Response.Status.INTERNAL_SERVER_ERROR);
-            } catch (Exception ex) {
-                log.error("Error leasing document builder: {}", ex.getMessage());
-                log.debug("Error leasing document builder: ", ex);
-                throw new ServerErrorException("Cannot format record (get parser)", Response.Status.INTERNAL_SERVER_ERROR);
+                    throw new InterruptedException("During get(url)");
+                return OaiFragment.parse(is);
             }
+        } catch (ProcessingException | XMLStreamException | IOException ex) {
+            log.error("Cannot parse XML from formatter url: {}: {}", req, ex.getMessage());
+            log.debug("Cannot parse XML from formatter url: {}: ", req, ex);
+            throw new ServerErrorException("Cannot format record (parse xml)", Response.Status.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException ex) {
+            log.error("Interrupted fetching record: {}", ex.getMessage());
+            log.debug("Interrupted fetching record: ", ex);
+            throw new ServerErrorException("Cannot format record (interrupted)", Response.Status.INTERNAL_SERVER_ERROR);
         } finally {
             threads.remove(me);
         }
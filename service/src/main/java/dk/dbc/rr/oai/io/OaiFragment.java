@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * A well-formed XML document (from the formatter) as a list of StAX events,
+ * ready to be copied into a response
+ * <p>
+ * The events are in the form the JAXB marshaller produces: namespace
+ * declarations and attributes as separate events after a bare start element,
+ * so prefixes are rewritten like the rest of the response. Prolog, comments,
+ * processing instructions and DTD are dropped.
+ * <p>
+ * A fragment is immutable, and can be written by several responses at once.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public final class OaiFragment {
+
+    private static final XMLInputFactory I = makeXMLInputFactory();
+    private static final XMLEventFactory E = makeXMLEventFactory();
+
+    private final List<XMLEvent> events;
+    private final long parseNanos;
+
+    private OaiFragment(List<XMLEvent> events, long parseNanos) {
+        this.events = unmodifiableList(events);
+        this.parseNanos = parseNanos;
+    }
+
+    /**
+     * Parse a document
+     *
+     * @param is the XML content
+     * @return fragment
+     * @throws XMLStreamException if the content isn't well-formed XML
+     */
+    public static OaiFragment parse(InputStream is) throws XMLStreamException {
+        long start = System.nanoTime();
+        ArrayList<XMLEvent> events = new ArrayList<>();
+        XMLEventReader reader = I.createXMLEventReader(is);
+        try {
+            int level = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                switch (event.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        level++;
+                        addStartElement(events, event.asStartElement());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        level--;
+                        events.add(event);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (level > 0)
+                            events.add(event);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (events.isEmpty())
+            throw new XMLStreamException("No document element");
+        events.trimToSize();
+        return new OaiFragment(events, System.nanoTime() - start);
+    }
+
+    private static void addStartElement(List<XMLEvent> events, StartElement e) {
+        events.add(E.createStartElement(e.getName(), null, null));
+        for (Iterator<?> i = e.getNamespaces() ; i.hasNext() ;) {
+            Namespace ns = (Namespace) i.next();
+            if (ns.getNamespaceURI() != null && !ns.getNamespaceURI().isEmpty()) // Not undeclaration
+                events.add(ns);
+        }
+        for (Iterator<?> i = e.getAttributes() ; i.hasNext() ;) {
+            events.add((Attribute) i.next());
+        }
+    }
+
+    /**
+     * The events of the document, from the start of the document element to
+     * the end of it
+     *
+     * @return unmodifiable list of events
+     */
+    List<XMLEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Time it took to parse the document (including reading it)
+     *
+     * @return nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    private static XMLInputFactory makeXMLInputFactory() {
+        synchronized (XMLInputFactory.class) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    }
+
+    private static XMLEventFactory makeXMLEventFactory() {
+        synchronized (XMLEventFactory.class) {
+            return XMLEventFactory.newInstance();
+        }
+    }
+}
@@ -21,19 +21,18 @@ package dk.dbc.rr.oai.io;
 import dk.dbc.oai.pmh.OAIPMH;
 import dk.dbc.oai.pmh.ResumptionTokenType;
 import dk.dbc.rr.oai.Config;
+import jakarta.annotation.PostConstruct;
 import jakarta.ejb.Singleton;
 import jakarta.inject.Inject;
-import jakarta.ws.rs.ServerErrorException;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.UriInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.math.BigInteger;
 import java.time.Instant;
 
 import static dk.dbc.rr.oai.io.OaiResponse.O;
-import static jakarta.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 
 /**
  *
@@ -47,6 +46,16 @@ public class OaiIOBean {
     @Inject
     public Config config;
 
+    private ResumptionTokenSigner signer;
+    private Instant acceptUnsignedUntil;
+
+    @PostConstruct
+    public void init() {
+        this.signer = new ResumptionTokenSigner(config.getXorBytes());
+        // Fixed cutoff, so the window doesn't reopen when the service restarts
+        this.acceptUnsignedUntil = config.getAcceptUnsignedTokensUntil();
+    }
+
     /**
      * Create an response prepared for sending to the client
      *
@@ -70,30 +79,65 @@ public class OaiIOBean {
     }
 
     public OaiResumptionToken resumptionTokenOf(String content) {
-        return OaiResumptionToken.of(content, config.getXorBytes());
+        return OaiResumptionToken.of(content, signer, Instant.now().isBefore(acceptUnsignedUntil));
     }
 
     /**
      * Build a new resumption token for adding to response
      *
-     * @param from       When the harvesting should start
-     * @param identifier Identifier to continue from (first in response not
-     *                   supplied to user)
-     * @param until      When the harvesting should stop
-     * @param set        set to harvest from
+     * @param from             When the harvesting should start
+     * @param identifier       Identifier to continue from (first in response
+     *                         not supplied to user)
+     * @param until            When the harvesting should stop
+     * @param set              set to harvest from
+     * @param completeListSize (estimated) size of the complete list, 0 if
+     *                         unknown
+     * @param cursor           number of records returned before this
+     *                         response
+     * @param count            number of records in this response
      * @return XmlNode
      */
-    public ResumptionTokenType resumptionTokenFor(OaiTimestamp from, OaiIdentifier identifier, OaiTimestamp until, String set) {
-        try {
-            OaiResumptionToken token = new OaiResumptionToken(from, identifier, until, set);
-            long ttl = config.getResumptionTokenTimeoutInSeconds();
-            return token.toXML(Instant.now().plusSeconds(ttl),
-                               config.getXorBytes());
-        } catch (IOException ex) {
-            log.error("Error building resumption token: {}", ex.getMessage());
-            log.debug("Error building resumption token: ", ex);
-            throw new ServerErrorException("Cannot generate resumptionToken", INTERNAL_SERVER_ERROR);
-        }
+    public ResumptionTokenType resumptionTokenFor(OaiTimestamp from, OaiIdentifier identifier, OaiTimestamp until, String set, long completeListSize, long cursor, int count) {
+        return resumptionTokenFor(new OaiResumptionToken(from, identifier, until, set),
+                                  completeListSize, cursor, count);
+    }
+
+    /**
+     * Build a new resumption token for a snapshot harvest for adding to
+     * response
+     *
+     * @param until            When the harvesting should stop
+     * @param set              set to harvest from
+     * @param snapshot         id of the harvest snapshot
+     * @param offset           position in the snapshot to continue from
+     * @param completeListSize (estimated) size of the complete list, 0 if
+     *                         unknown
+     * @param cursor           number of records returned before this
+     *                         response
+     * @param count            number of records in this response
+     * @return XmlNode
+     */
+    public ResumptionTokenType resumptionTokenFor(OaiTimestamp until, String set, long snapshot, int offset, long completeListSize, long cursor, int count) {
+        return resumptionTokenFor(new OaiResumptionToken(until, set, snapshot, offset),
+                                  completeListSize, cursor, count);
+    }
+
+    private ResumptionTokenType resumptionTokenFor(OaiResumptionToken token, long completeListSize, long cursor, int count) {
+        if (completeListSize <= 0)
+            return resumptionTokenFor(token);
+        // The list size is an estimate, it should never claim fewer records
+        // than has been seen, and there's at least one more to come
+        completeListSize = Math.max(completeListSize, cursor + count + 1);
+        ResumptionTokenType xml = resumptionTokenFor(token.withProgress(completeListSize, cursor + count));
+        xml.setCompleteListSize(BigInteger.valueOf(completeListSize));
+        xml.setCursor(BigInteger.valueOf(cursor));
+        return xml;
+    }
+
+    private ResumptionTokenType resumptionTokenFor(OaiResumptionToken token) {
+        long ttl = config.getResumptionTokenTimeoutInSeconds();
+        return token.toXML(Instant.now().plusSeconds(ttl),
+                           signer);
     }
 
 }
@@ -33,6 +33,7 @@ import dk.dbc.oai.pmh.VerbType;
 import jakarta.ws.rs.ServerErrorException;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import org.slf4j.Logger;
@@ -42,6 +43,7 @@ import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
@@ -58,6 +60,9 @@ import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -86,10 +91,20 @@ public final class OaiResponse {
     private static final XMLOutputFactory OF = makeXMLOutputFactory();
     private static final XMLEventFactory E = makeXMLEventFactory();
 
+    // Placeholder for an embedded fragment, content is the index in fragments
+    private static final QName FRAGMENT = new QName("urn:dbc:rr-oai:fragment", "fragment");
+
     private final String baseUrl;
     private final OaiRequest request;
     private final MultivaluedMap<String, String> requestParameters;
     private final OAIPMH oaipmh;
+    private final OaiStages stages;
+    private OaiResponseTemplate preRendered;
+    private List<OaiFragment> fragments;
+    private String ifNoneMatch;
+    private Instant ifModifiedSince;
+    private OaiValidator validator;
+    private boolean notModified;
 
     /**
      * Create an UTC timestamp for xml output
@@ -126,6 +141,8 @@ public final class OaiResponse {
         this.request = request;
         this.requestParameters = requestParameters;
         this.oaipmh = oaipmh;
+        this.stages = new OaiStages();
+        this.fragments = new ArrayList<>();
     }
 
     /**
@@ -231,6 +248,147 @@ public final class OaiResponse {
         return obj;
     }
 
+    /**
+     * Use a pre-rendered template instead of marshalling the response object
+     * <p>
+     * The template is only used if no errors are registered
+     *
+     * @param template pre-rendered response
+     */
+    public void usePreRendered(OaiResponseTemplate template) {
+        this.preRendered = template;
+    }
+
+    /**
+     * Set the conditional request headers
+     *
+     * @param ifNoneMatch     If-None-Match header or null
+     * @param ifModifiedSince If-Modified-Since header or null
+     */
+    public void setConditions(String ifNoneMatch, String ifModifiedSince) {
+        this.ifNoneMatch = ifNoneMatch;
+        this.ifModifiedSince = null;
+        if (ifModifiedSince != null) {
+            try {
+                this.ifModifiedSince = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            } catch (DateTimeParseException ex) {
+                log.debug("Invalid If-Modified-Since: {}", ifModifiedSince);
+            }
+        }
+    }
+
+    /**
+     * If the request has conditional headers
+     *
+     * @return if the response could be "304 Not Modified"
+     */
+    public boolean isConditional() {
+        return ifNoneMatch != null || ifModifiedSince != null;
+    }
+
+    /**
+     * Set the validator of the response, and check the conditional headers
+     * against it
+     * <p>
+     * If-None-Match takes precedence over If-Modified-Since. The latter is
+     * only used if there's no resumption token (an old copy could have an
+     * expired token), and compared at second resolution
+     *
+     * @param validator validator computed from the response content
+     * @return if the client has the current content
+     */
+    public boolean validate(OaiValidator validator) {
+        this.validator = validator;
+        if (ifNoneMatch != null) {
+            notModified = validator.matchesAny(ifNoneMatch);
+        } else if (ifModifiedSince != null && !hasResumptionToken() && validator.getLastModified() != null) {
+            notModified = !validator.getLastModified().truncatedTo(ChronoUnit.SECONDS).isAfter(ifModifiedSince);
+        }
+        return notModified;
+    }
+
+    /**
+     * Remove the validator, if the content was changed after it was
+     * computed
+     */
+    public void dropValidator() {
+        this.validator = null;
+        this.notModified = false;
+    }
+
+    /**
+     * Get the validator
+     *
+     * @return validator or null if none has been computed
+     */
+    public OaiValidator getValidator() {
+        return hasErrors() ? null : validator;
+    }
+
+    /**
+     * If the response should be "304 Not Modified"
+     *
+     * @return if the client has the current content
+     */
+    public boolean isNotModified() {
+        return notModified && !hasErrors();
+    }
+
+    private boolean hasResumptionToken() {
+        ListRecordsType records = oaipmh.getListRecords();
+        ListIdentifiersType identifiers = oaipmh.getListIdentifiers();
+        return records != null && records.getResumptionToken() != null ||
+               identifiers != null && identifiers.getResumptionToken() != null;
+    }
+
+    /**
+     * Use the content (errors and verb response) of the response to an
+     * identical request
+     * <p>
+     * The content is shared, not copied. It is only read when marshalling,
+     * and the records are immutable {@link OaiFragment}s, so both responses
+     * can be marshalled at the same time.
+     *
+     * @param other response that has been completed
+     */
+    public void useContentOf(OaiResponse other) {
+        oaipmh.getErrors().addAll(other.oaipmh.getErrors());
+        oaipmh.setGetRecord(other.oaipmh.getGetRecord());
+        oaipmh.setIdentify(other.oaipmh.getIdentify());
+        oaipmh.setListIdentifiers(other.oaipmh.getListIdentifiers());
+        oaipmh.setListMetadataFormats(other.oaipmh.getListMetadataFormats());
+        oaipmh.setListRecords(other.oaipmh.getListRecords());
+        oaipmh.setListSets(other.oaipmh.getListSets());
+        this.preRendered = other.preRendered;
+        this.validator = other.validator;
+        this.fragments = other.fragments;
+    }
+
+    /**
+     * Embed a formatted record in the response
+     * <p>
+     * The returned object is a placeholder for {@link dk.dbc.oai.pmh.MetadataType#setAny(java.lang.Object)},
+     * the events of the fragment are written in its place, when the response
+     * is marshalled.
+     *
+     * @param fragment formatted record
+     * @return placeholder
+     */
+    public Object embed(OaiFragment fragment) {
+        stages.add(OaiStages.Stage.PARSE, fragment.getParseNanos());
+        fragments.add(fragment);
+        return new JAXBElement<>(FRAGMENT, String.class, Integer.toString(fragments.size() - 1));
+    }
+
+    /**
+     * Time spent in the stages of processing this request
+     *
+     * @return stage timings
+     */
+    public OaiStages getStages() {
+        return stages;
+    }
+
     /**
      * Format data to the client
      * <p>
@@ -242,6 +400,19 @@ public final class OaiResponse {
      * @return bytes to send to the user
      */
     public byte[] content(String comment) {
+        long start = System.nanoTime();
+        try {
+            return render(comment);
+        } finally {
+            stages.add(OaiStages.Stage.MARSHAL, System.nanoTime() - start);
+        }
+    }
+
+    private byte[] render(String comment) {
+        if (preRendered != null && !hasErrors())
+            return preRendered.render(xmlDate(Instant.now()).toXMLFormat(),
+                                      requestParameters.getFirst("identifier"),
+                                      comment);
         try {
             oaipmh.setResponseDate(xmlDate(Instant.now()));
             RequestType reqType = O.createRequestType();
@@ -253,7 +424,7 @@ public final class OaiResponse {
             try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
                 Marshaller marshaller = C.createMarshaller();
                 XMLEventWriter writer = OF.createXMLEventWriter(bos);
-                XMLEventWriterWithNamespaces nsWriter = new XMLEventWriterWithNamespaces(writer, comment);
+                XMLEventWriterWithNamespaces nsWriter = new XMLEventWriterWithNamespaces(writer, comment, fragments);
                 marshaller.marshal(oaipmh, nsWriter);
                 nsWriter.close(); // outputs to writer
                 writer.close();
@@ -312,6 +483,9 @@ public final class OaiResponse {
      * <p>
      * Upon close all events are sent to the writer declare in the constructor,
      * and all namespaces are added to the root element
+     * <p>
+     * Placeholders from {@link #embed(dk.dbc.rr.oai.io.OaiFragment)} are
+     * replaced by the events of the fragment
      */
     private static class XMLEventWriterWithNamespaces implements XMLEventWriter {
 
@@ -319,19 +493,44 @@ public final class OaiResponse {
         private final ArrayList<XMLEvent> events;
         private final NamespaceContextWithDefaults namespaces;
         private final String comment;
+        private final List<OaiFragment> fragments;
+        private final StringBuilder fragment;
+        private boolean inFragment;
         private int level;
 
-        public XMLEventWriterWithNamespaces(XMLEventWriter writer, String comment) {
+        public XMLEventWriterWithNamespaces(XMLEventWriter writer, String comment, List<OaiFragment> fragments) {
             this.writer = writer;
             this.events = new ArrayList<>();
             this.namespaces = new NamespaceContextWithDefaults();
             this.comment = comment;
+            this.fragments = fragments;
+            this.fragment = new StringBuilder();
+            this.inFragment = false;
             this.level = 0;
         }
 
         @Override
-        @SuppressWarnings("PMD.CollapsibleIfStatements")
         public void add(XMLEvent event) throws XMLStreamException {
+            if (event.isStartElement() && FRAGMENT.equals(event.asStartElement().getName())) {
+                inFragment = true;
+            } else if (inFragment) {
+                if (event.isCharacters()) {
+                    fragment.append(event.asCharacters().getData());
+                } else if (event.isEndElement()) {
+                    inFragment = false;
+                    for (XMLEvent e : fragments.get(Integer.parseInt(fragment.toString())).getEvents()) {
+                        append(e);
+                    }
+                    fragment.setLength(0);
+                }
+            } else if (!event.isNamespace() ||
+                       !FRAGMENT.getNamespaceURI().equals(( (Namespace) event ).getNamespaceURI())) {
+                append(event);
+            }
+        }
+
+        @SuppressWarnings("PMD.CollapsibleIfStatements")
+        private void append(XMLEvent event) {
             if (event.isNamespace()) {
                 Namespace ns = (Namespace) event;
                 String nsUri = ns.getNamespaceURI();
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import dk.dbc.oai.pmh.VerbType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+
+import java.util.function.Consumer;
+
+import static dk.dbc.rr.oai.io.OaiResponse.O;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A pre-rendered response, for verbs whose content only depends upon
+ * configuration and database metadata
+ * <p>
+ * The response is marshalled once, and split into byte chunks around the
+ * parts that differ from request to request: responseDate, the optional
+ * identifier attribute of the request element and the trailing comment.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public final class OaiResponseTemplate {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] RESPONSE_DATE_START = "<responseDate>".getBytes(UTF_8);
+    private static final byte[] RESPONSE_DATE_END = "</responseDate>".getBytes(UTF_8);
+    private static final byte[] REQUEST_START = "<request".getBytes(UTF_8);
+    private static final byte[] TAG_END = ">".getBytes(UTF_8);
+    private static final byte[] ROOT_END = "</OAI-PMH>".getBytes(UTF_8);
+
+    private final byte[] head;
+    private final byte[] request;
+    private final byte[] body;
+    private final byte[] tail;
+
+    /**
+     * Render a response into a template
+     *
+     * @param baseUrl The exposed url of the service
+     * @param verb    The verb the template is for
+     * @param filler  Function that fills the response object
+     * @return template
+     */
+    public static OaiResponseTemplate of(String baseUrl, VerbType verb, Consumer<OaiResponse> filler) {
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.putSingle("verb", verb.value());
+        OaiResponse response = new OaiResponse(baseUrl, null, params, O.createOAIPMH());
+        filler.accept(response);
+        if (response.hasErrors())
+            throw new IllegalStateException("Cannot make template of a response with errors");
+        return new OaiResponseTemplate(response.content(null));
+    }
+
+    OaiResponseTemplate(byte[] content) {
+        int dateStart = indexOf(content, RESPONSE_DATE_START, 0) + RESPONSE_DATE_START.length;
+        int dateEnd = indexOf(content, RESPONSE_DATE_END, dateStart);
+        int requestEnd = indexOf(content, TAG_END, indexOf(content, REQUEST_START, dateEnd));
+        int rootEnd = lastIndexOf(content, ROOT_END);
+        this.head = slice(content, 0, dateStart);
+        this.request = slice(content, dateEnd, requestEnd);
+        this.body = slice(content, requestEnd, rootEnd);
+        this.tail = slice(content, rootEnd, content.length);
+    }
+
+    /**
+     * Produce the response bytes
+     *
+     * @param responseDate The formatted response date
+     * @param identifier   Optional identifier attribute for the request
+     *                     element
+     * @param comment      Optional comment to add to the end of the output
+     *                     XML
+     * @return bytes to send to the user
+     */
+    public byte[] render(String responseDate, String identifier, String comment) {
+        byte[] date = responseDate.getBytes(UTF_8);
+        byte[] attributes = identifier == null ? EMPTY :
+                            ( " identifier=\"" + escapeAttribute(identifier) + "\"" ).getBytes(UTF_8);
+        byte[] trailer = comment == null ? EMPTY :
+                         ( "<!--" + comment + "-->" ).getBytes(UTF_8);
+        byte[] out = new byte[head.length + date.length + request.length + attributes.length +
+                              body.length + trailer.length + tail.length];
+        int pos = 0;
+        pos = append(out, pos, head);
+        pos = append(out, pos, date);
+        pos = append(out, pos, request);
+        pos = append(out, pos, attributes);
+        pos = append(out, pos, body);
+        pos = append(out, pos, trailer);
+        append(out, pos, tail);
+        return out;
+    }
+
+    private static int append(byte[] out, int pos, byte[] part) {
+        System.arraycopy(part, 0, out, pos, part.length);
+        return pos + part.length;
+    }
+
+    private static byte[] slice(byte[] in, int from, int to) {
+        byte[] out = new byte[to - from];
+        System.arraycopy(in, from, out, 0, out.length);
+        return out;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        for (int i = from ; i <= haystack.length - needle.length ; i++) {
+            if (matchesAt(haystack, needle, i))
+                return i;
+        }
+        throw new IllegalStateException("Cannot find splice point in rendered response");
+    }
+
+    private static int lastIndexOf(byte[] haystack, byte[] needle) {
+        for (int i = haystack.length - needle.length ; i >= 0 ; i--) {
+            if (matchesAt(haystack, needle, i))
+                return i;
+        }
+        throw new IllegalStateException("Cannot find splice point in rendered response");
+    }
+
+    private static boolean matchesAt(byte[] haystack, byte[] needle, int pos) {
+        for (int j = 0 ; j < needle.length ; j++) {
+            if (haystack[pos + j] != needle[j])
+                return false;
+        }
+        return true;
+    }
+
+    private static String escapeAttribute(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0 ; i < value.length() ; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
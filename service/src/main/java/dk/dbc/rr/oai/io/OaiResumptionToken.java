@@ -21,9 +21,7 @@ package dk.dbc.rr.oai.io;
 import dk.dbc.oai.pmh.ResumptionTokenType;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -32,6 +30,8 @@ import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static dk.dbc.rr.oai.io.ResumptionTokenCodec.CHECKSUM_SIZE;
+import static dk.dbc.rr.oai.io.ResumptionTokenCodec.VERSION_SIGNED;
 import static java.nio.charset.StandardCharsets.*;
 
 /**
@@ -42,28 +42,44 @@ public class OaiResumptionToken {
 
     private static final Logger log = LoggerFactory.getLogger(OaiResumptionToken.class);
 
+    // Bits in the field mask of the compact layout
+    private static final int FROM = 1;
+    private static final int SEGMENT_START = 2;
+    private static final int SEGMENT_ID = 4;
+    private static final int UNTIL = 8;
+    private static final int SET = 16;
+    private static final int SNAPSHOT = 32;
+    private static final int PROGRESS = 64;
+
     private final OaiTimestamp from;
     private final Timestamp segmentStart;
     private final String segmentId;
     private final OaiTimestamp until;
     private final String set;
+    private final Long snapshot;
+    private final int offset;
+    private final long completeListSize;
+    private final long cursor;
 
-    static OaiResumptionToken of(String base64, byte[] xorBytes) {
+    /**
+     * Decode a resumption token
+     *
+     * @param base64         text from the user
+     * @param signer         signer with the secret
+     * @param acceptUnsigned if tokens from before signing should be accepted
+     *                       (only while they could still be valid)
+     * @return token or null if invalid or expired
+     */
+    static OaiResumptionToken of(String base64, ResumptionTokenSigner signer, boolean acceptUnsigned) {
         try {
-            byte[] xored = Base64.getUrlDecoder().decode(base64);
-            byte[] checksummed = xor(xored, xorBytes);
-            try (ByteArrayInputStream bis = checkChecksum(checksummed) ;
-                 DataInputStream dis = new DataInputStream(bis)) {
-                Instant validUntil = readInstant(dis);
-                OaiTimestamp from = OaiTimestamp.from(dis);
-                Timestamp segmentStart = readTimestamp(dis);
-                String segmentId = readString(dis);
-                OaiTimestamp until = OaiTimestamp.from(dis);
-                String set = readString(dis);
-                if (validUntil.isAfter(Instant.now()))
-                    return new OaiResumptionToken(from, segmentStart, segmentId, until, set);
-                return null;
-            }
+            byte[] bytes = Base64.getUrlDecoder().decode(base64);
+            signer.xor(bytes);
+            if (bytes.length > 0 && bytes[0] == VERSION_SIGNED && signer.verify(bytes))
+                return decode(new ResumptionTokenCodec.Reader(bytes, 1, bytes.length - ResumptionTokenSigner.MAC_SIZE));
+            if (!acceptUnsigned)
+                throw new IllegalStateException("Invalid signature");
+            ResumptionTokenCodec.checkChecksum(bytes);
+            return decodeLegacy(bytes);
         } catch (IOException | RuntimeException ex) {
             log.error("Error parsing resumptionToken: {}", ex.getMessage());
             log.debug("Error parsing resumptionToken: ", ex);
@@ -71,16 +87,105 @@ public class OaiResumptionToken {
         }
     }
 
+    /**
+     * Decode the fields of a token in the compact layout
+     *
+     * @param reader reader positioned after the version byte
+     * @return token or null if expired
+     */
+    private static OaiResumptionToken decode(ResumptionTokenCodec.Reader reader) {
+        int fields = reader.getByte();
+        Instant validUntil = Instant.ofEpochSecond(reader.getSignedVarLong());
+        if (!validUntil.isAfter(Instant.now()))
+            return null;
+        OaiTimestamp from = ( fields & FROM ) != 0 ? OaiTimestamp.from(reader) : null;
+        Timestamp segmentStart = ( fields & SEGMENT_START ) != 0 ? reader.getMicros() : null;
+        String segmentId = ( fields & SEGMENT_ID ) != 0 ? reader.getString() : null;
+        OaiTimestamp until = ( fields & UNTIL ) != 0 ? OaiTimestamp.from(reader) : null;
+        String set = ( fields & SET ) != 0 ? reader.getString() : null;
+        Long snapshot = null;
+        int offset = 0;
+        if (( fields & SNAPSHOT ) != 0) {
+            snapshot = reader.getVarLong();
+            offset = reader.getVarInt();
+        }
+        long completeListSize = 0;
+        long cursor = 0;
+        if (( fields & PROGRESS ) != 0) {
+            completeListSize = reader.getVarLong();
+            cursor = reader.getVarLong();
+        }
+        if (reader.hasMore())
+            throw new IllegalStateException("Trailing bytes in token");
+        return new OaiResumptionToken(from, segmentStart, segmentId, until, set, snapshot, offset, completeListSize, cursor);
+    }
+
+    /**
+     * Decode a token made with the old {@link java.io.DataOutputStream} based
+     * layout
+     * <p>
+     * This is only needed until all tokens issued before the compact layout
+     * have expired. Only the layout of released versions is accepted (no
+     * snapshot or progress), these tokens aren't signed, so a snapshot id
+     * from one cannot be trusted.
+     *
+     * @param bytes token with xor removed and checksum validated
+     * @return token or null if expired
+     * @throws IOException in case of IO errors in java.io.*
+     */
+    private static OaiResumptionToken decodeLegacy(byte[] bytes) throws IOException {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes, CHECKSUM_SIZE, bytes.length - CHECKSUM_SIZE) ;
+             DataInputStream dis = new DataInputStream(bis)) {
+            Instant validUntil = readInstant(dis);
+            OaiTimestamp from = OaiTimestamp.from(dis);
+            Timestamp segmentStart = readTimestamp(dis);
+            String segmentId = readString(dis);
+            OaiTimestamp until = OaiTimestamp.from(dis);
+            String set = readString(dis);
+            if (dis.available() > 0)
+                throw new IllegalStateException("Trailing bytes in legacy token");
+            if (validUntil.isAfter(Instant.now()))
+                return new OaiResumptionToken(from, segmentStart, segmentId, until, set);
+            return null;
+        }
+    }
+
     OaiResumptionToken(OaiTimestamp from, OaiIdentifier identifier, OaiTimestamp until, String set) {
         this(from, identifier.getChanged(), identifier.getIdentifier(), until, set);
     }
 
     OaiResumptionToken(OaiTimestamp from, Timestamp segmentStart, String segmentId, OaiTimestamp until, String set) {
+        this(from, segmentStart, segmentId, until, set, null, 0, 0, 0);
+    }
+
+    OaiResumptionToken(OaiTimestamp until, String set, long snapshot, int offset) {
+        this(null, null, null, until, set, snapshot, offset, 0, 0);
+    }
+
+    private OaiResumptionToken(OaiTimestamp from, Timestamp segmentStart, String segmentId, OaiTimestamp until, String set, Long snapshot, int offset, long completeListSize, long cursor) {
         this.from = from;
         this.segmentStart = segmentStart;
         this.segmentId = segmentId;
         this.until = until;
         this.set = set;
+        this.snapshot = snapshot;
+        this.offset = offset;
+        this.completeListSize = completeListSize;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Make a copy of this token, with information about the progress of the
+     * harvest
+     *
+     * @param completeListSize (estimated) size of the complete list, 0 if
+     *                         unknown
+     * @param cursor           number of records returned before the
+     *                         response this token resumes
+     * @return new token
+     */
+    OaiResumptionToken withProgress(long completeListSize, long cursor) {
+        return new OaiResumptionToken(from, segmentStart, segmentId, until, set, snapshot, offset, completeListSize, cursor);
     }
 
     public OaiTimestamp getFrom() {
@@ -104,98 +209,99 @@ public class OaiResumptionToken {
         return until;
     }
 
-    public ResumptionTokenType toXML(Instant validUntil, byte[] xorBytes) throws IOException {
-        ResumptionTokenType resumptionToken = OaiResponse.O.createResumptionTokenType();
-        resumptionToken.setExpirationDate(OaiResponse.xmlDate(validUntil));
-        resumptionToken.setValue(toData(validUntil, xorBytes));
-        return resumptionToken;
-    }
-
-    String toData(Instant expires, byte[] xorBytes) throws IOException {
-        byte[] bytes = asBytes(expires);
-        byte[] checksummed = calcChecksum(bytes);
-        byte[] xored = xor(checksummed, xorBytes);
-        byte[] base64 = Base64.getUrlEncoder().encode(xored);
-        return new String(base64, ISO_8859_1);
+    /**
+     * Id of the harvest snapshot this token continues
+     *
+     * @return snapshot id or null if this isn't a snapshot harvest
+     */
+    public Long getSnapshot() {
+        return snapshot;
     }
 
     /**
-     * Turn data into bytes using writeInstant/String
+     * Position in the snapshot to continue from
      *
-     * @param expires Then the token expires
-     * @return byte array representing thie object and expires timestamp
-     * @throws IOException in case of IO errors in java.io.*
+     * @return position
      */
-    private byte[] asBytes(Instant expires) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            try (DataOutputStream oos = new DataOutputStream(bos)) {
-                writeInstant(oos, expires);
-                OaiTimestamp.to(oos, from);
-                writeTimestamp(oos, segmentStart);
-                writeString(oos, segmentId);
-                OaiTimestamp.to(oos, until);
-                writeString(oos, set);
-            }
-            return bos.toByteArray();
-        }
+    public int getOffset() {
+        return offset;
     }
 
     /**
-     * Write an instant as nanos and seconds
-     * <p>
-     * if instant is null: nanos is written as Integer.MIN_VALUE and seconds
-     * aren't written
+     * Size of the complete list as estimated when the harvest started
      *
-     * @param dos     output stream
-     * @param instant timestamp
-     * @throws IOException in case of IO errors in java.io.*
+     * @return size or 0 if unknown
      */
-    private static void writeInstant(DataOutputStream dos, Instant instant) throws IOException {
-        if (instant == null) {
-            dos.writeInt(Integer.MIN_VALUE); // Magic null value
-        } else {
-            dos.writeInt(instant.getNano());
-            dos.writeLong(instant.getEpochSecond());
-        }
+    public long getCompleteListSize() {
+        return completeListSize;
     }
 
     /**
-     * Write an instant as nanos and seconds
-     * <p>
-     * if instant is null: nanos is written as Integer.MIN_VALUE and seconds
-     * aren't written
+     * Number of records returned before the response this token resumes
      *
-     * @param dos       output stream
-     * @param timestamp timestamp
-     * @throws IOException in case of IO errors in java.io.*
+     * @return cursor (only valid if completeListSize is known)
      */
-    private static void writeTimestamp(DataOutputStream dos, Timestamp timestamp) throws IOException {
-        if (timestamp == null) {
-            dos.writeInt(Integer.MIN_VALUE); // Magic null value
-        } else {
-            dos.writeInt(timestamp.getNanos());
-            dos.writeLong(timestamp.getTime());
-        }
+    public long getCursor() {
+        return cursor;
+    }
+
+    public ResumptionTokenType toXML(Instant validUntil, ResumptionTokenSigner signer) {
+        ResumptionTokenType resumptionToken = OaiResponse.O.createResumptionTokenType();
+        resumptionToken.setExpirationDate(OaiResponse.xmlDate(validUntil));
+        resumptionToken.setValue(toData(validUntil, signer));
+        return resumptionToken;
     }
 
     /**
-     * Write an String as length if utf-8 and bytes
+     * Encode the token
      * <p>
-     * if the string is null: length is Integer.MIN_VALUE and no bytes are
-     * written
+     * The size is computed first, so the token is written into one array,
+     * which is signed and xor'ed in place before Base64 encoding
      *
-     * @param dos output stream
-     * @param s   timestamp
-     * @throws IOException in case of IO errors in java.io.*
+     * @param expires when the token expires (second precision)
+     * @param signer  signer with the secret
+     * @return url safe Base64 text
      */
-    private static void writeString(DataOutputStream dos, String s) throws IOException {
-        if (s == null) {
-            dos.writeInt(Integer.MIN_VALUE); // Magic null value
-        } else {
-            byte[] bytes = s.getBytes(UTF_8);
-            dos.writeInt(bytes.length);
-            dos.write(bytes, 0, bytes.length);
-        }
+    String toData(Instant expires, ResumptionTokenSigner signer) {
+        byte[] segmentIdBytes = segmentId == null ? null : segmentId.getBytes(UTF_8);
+        byte[] setBytes = set == null ? null : set.getBytes(UTF_8);
+        int size = write(new ResumptionTokenCodec.Writer(), expires, segmentIdBytes, setBytes).size();
+        byte[] bytes = new byte[size + ResumptionTokenSigner.MAC_SIZE];
+        write(new ResumptionTokenCodec.Writer(bytes), expires, segmentIdBytes, setBytes);
+        signer.sign(bytes);
+        signer.xor(bytes);
+        return Base64.getUrlEncoder().encodeToString(bytes);
+    }
+
+    private ResumptionTokenCodec.Writer write(ResumptionTokenCodec.Writer writer, Instant expires, byte[] segmentIdBytes, byte[] setBytes) {
+        boolean progress = completeListSize > 0;
+        int fields = ( from != null ? FROM : 0 ) |
+                     ( segmentStart != null ? SEGMENT_START : 0 ) |
+                     ( segmentIdBytes != null ? SEGMENT_ID : 0 ) |
+                     ( until != null ? UNTIL : 0 ) |
+                     ( setBytes != null ? SET : 0 ) |
+                     ( snapshot != null ? SNAPSHOT : 0 ) |
+                     ( progress ? PROGRESS : 0 );
+        writer.putByte(VERSION_SIGNED)
+                .putByte(fields)
+                .putSignedVarLong(expires.getEpochSecond());
+        if (from != null)
+            OaiTimestamp.to(writer, from);
+        if (segmentStart != null)
+            writer.putMicros(segmentStart);
+        if (segmentIdBytes != null)
+            writer.putBytes(segmentIdBytes);
+        if (until != null)
+            OaiTimestamp.to(writer, until);
+        if (setBytes != null)
+            writer.putBytes(setBytes);
+        if (snapshot != null)
+            writer.putVarLong(snapshot)
+                    .putVarLong(offset);
+        if (progress)
+            writer.putVarLong(completeListSize)
+                    .putVarLong(cursor);
+        return writer;
     }
 
     /**
@@ -267,6 +373,10 @@ public class OaiResumptionToken {
         hash = 79 * hash + Objects.hashCode(this.segmentId);
         hash = 79 * hash + Objects.hashCode(this.until);
         hash = 79 * hash + Objects.hashCode(this.set);
+        hash = 79 * hash + Objects.hashCode(this.snapshot);
+        hash = 79 * hash + this.offset;
+        hash = 79 * hash + Long.hashCode(this.completeListSize);
+        hash = 79 * hash + Long.hashCode(this.cursor);
         return hash;
     }
 
@@ -281,66 +391,15 @@ public class OaiResumptionToken {
                Objects.equals(this.segmentStart, other.segmentStart) &&
                Objects.equals(this.segmentId, other.segmentId) &&
                Objects.equals(this.set, other.set) &&
-               Objects.equals(this.until, other.until);
+               Objects.equals(this.until, other.until) &&
+               Objects.equals(this.snapshot, other.snapshot) &&
+               this.offset == other.offset &&
+               this.completeListSize == other.completeListSize &&
+               this.cursor == other.cursor;
     }
 
     @Override
     public String toString() {
-        return "OaiResumptionToken{" + "from=" + from + ", segmentStart=" + segmentStart + ", segmentId=" + segmentId + ", until=" + until + ", set=" + set + '}';
-    }
-
-    /**
-     * Simple obfuscation using XOR from an environment variable
-     *
-     * @param in  byte array
-     * @param xor byte array to xor with
-     * @return byte array xor'ed
-     */
-    private static byte[] xor(byte[] in, byte[] xor) {
-        byte[] out = new byte[in.length];
-        for (int i = 0 ; i < in.length ; i++) {
-            out[i] = (byte) ( in[i] ^ xor[i % xor.length] );
-        }
-        return out;
+        return "OaiResumptionToken{" + "from=" + from + ", segmentStart=" + segmentStart + ", segmentId=" + segmentId + ", until=" + until + ", set=" + set + ", snapshot=" + snapshot + ", offset=" + offset + ", completeListSize=" + completeListSize + ", cursor=" + cursor + '}';
     }
-
-    /**
-     * Calculate checksum
-     * <p>
-     * 4 bytes are added to the front. Every 4th (starting at 0..3) xor'ed
-     * together gives zero in the resulting byte array
-     *
-     * @param in byte array
-     * @return byte array with 4 checksum bytes
-     */
-    private static byte[] calcChecksum(byte[] in) {
-        byte[] out = new byte[in.length + 4];
-        out[0] = out[1] = out[2] = out[3] = 0;
-        for (int i = 0 ; i < in.length ; i++) {
-            byte b = in[i];
-            out[i % 4] ^= b;
-            out[i + 4] = b;
-        }
-        return out;
-    }
-
-    /**
-     * Check the checksum
-     * <p>
-     * Every 4th (starting at 0..3) xor'ed together gives zero in the input
-     *
-     * @param in raw byte array
-     * @return input stream that skipped the 4 checksum bytes
-     */
-    private static ByteArrayInputStream checkChecksum(byte[] in) {
-        if (in.length <= 4)
-            throw new IllegalStateException("Too short");
-        for (int i = 4 ; i < in.length ; i++) {
-            in[i % 4] ^= in[i];
-        }
-        if (in[0] != 0 || in[1] != 0 || in[2] != 0 || in[3] != 0)
-            throw new IllegalStateException("Checksum failed");
-        return new ByteArrayInputStream(in, 4, in.length - 4);
-    }
-
 }
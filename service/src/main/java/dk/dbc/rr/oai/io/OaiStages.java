@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.util.Arrays;
+
+/**
+ * Time spent in the stages of a request
+ * <p>
+ * A stage can be entered several times (ie. a database lookup and a count),
+ * the times are added up. Stages that haven't been entered (a static
+ * response doesn't touch the database) are not reported.
+ * <p>
+ * Only the request thread updates this, the parse time of records parsed in
+ * fetch threads is added as they are embedded in the response.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public final class OaiStages {
+
+    public enum Stage {
+        /**
+         * Looking up the rights of the user
+         */
+        AUTH("auth"),
+        /**
+         * Selecting identifiers
+         */
+        DATABASE("database"),
+        /**
+         * Wall time of the formatter calls (including parsing)
+         */
+        FETCH("fetch"),
+        /**
+         * Parsing formatted records, summed over all records
+         */
+        PARSE("parse"),
+        /**
+         * Serializing the response
+         */
+        MARSHAL("marshal");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final long[] nanos;
+
+    public OaiStages() {
+        this.nanos = new long[Stage.values().length];
+        Arrays.fill(nanos, -1L);
+    }
+
+    /**
+     * Add time to a stage
+     *
+     * @param stage the stage
+     * @param time  nanoseconds spent in it
+     */
+    public void add(Stage stage, long time) {
+        int i = stage.ordinal();
+        nanos[i] = Math.max(0L, nanos[i]) + time;
+    }
+
+    /**
+     * Time spent in a stage
+     *
+     * @param stage the stage
+     * @return nanoseconds or -1 if the stage hasn't been entered
+     */
+    public long get(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Stage stage : Stage.values()) {
+            long time = get(stage);
+            if (time >= 0) {
+                if (sb.length() > 1)
+                    sb.append(", ");
+                sb.append(stage.getLabel()).append('=').append(time / 1_000L).append("us");
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
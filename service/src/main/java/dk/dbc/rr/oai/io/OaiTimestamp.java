@@ -20,8 +20,9 @@ package dk.dbc.rr.oai.io;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.DateTimeException;
 import java.time.Instant;
@@ -180,34 +181,52 @@ public class OaiTimestamp {
         return granularity.getText();
     }
 
-    public void sqlFrom(StringBuilder sql, String column) {
-        sql(sql, column, ">=");
+    /**
+     * SQL fragment for a lower bound on a column
+     * <p>
+     * The granularity is a statement parameter, so the SQL text is the same
+     * for all timestamps. Parameters are set by
+     * {@link #bind(java.sql.PreparedStatement, int)}
+     *
+     * @param column name of column
+     * @return SQL with 3 parameters
+     */
+    public static String sqlFrom(String column) {
+        return sql(column, ">=");
     }
 
-    public void sqlTo(StringBuilder sql, String column) {
-        sql(sql, column, "<=");
+    /**
+     * SQL fragment for an upper bound on a column
+     * <p>
+     * The granularity is a statement parameter, so the SQL text is the same
+     * for all timestamps. Parameters are set by
+     * {@link #bind(java.sql.PreparedStatement, int)}
+     *
+     * @param column name of column
+     * @return SQL with 3 parameters
+     */
+    public static String sqlTo(String column) {
+        return sql(column, "<=");
     }
 
-    String sql(String column, String op) {
-        StringBuilder sql = new StringBuilder();
-        sql(sql, column, op);
-        return sql.toString();
+    static String sql(String column, String op) {
+        return "DATE_TRUNC(?::TEXT, " + column + ") " + op + " DATE_TRUNC(?::TEXT, ?::TIMESTAMP)";
     }
 
-    void sql(StringBuilder sql, String column, String op) {
-        sqlString(sql, column);
-        sql.append(" ")
-                .append(op)
-                .append(" ");
-        sqlString(sql, "?::TIMESTAMP");
-    }
-
-    private void sqlString(StringBuilder stringBuilder, String column) {
-        stringBuilder.append("DATE_TRUNC('")
-                .append(getTruncate())
-                .append("', ")
-                .append(column)
-                .append(")");
+    /**
+     * Set the parameters for a {@link #sqlFrom(java.lang.String)} or
+     * {@link #sqlTo(java.lang.String)} fragment
+     *
+     * @param stmt statement
+     * @param pos  position of first parameter
+     * @return position of next parameter
+     * @throws SQLException if parameters cannot be set
+     */
+    public int bind(PreparedStatement stmt, int pos) throws SQLException {
+        stmt.setString(pos++, getTruncate());
+        stmt.setString(pos++, getTruncate());
+        stmt.setTimestamp(pos++, timestamp);
+        return pos;
     }
 
     @Override
@@ -234,16 +253,6 @@ public class OaiTimestamp {
         return "OaiTimestamp{" + timestamp.toInstant() + "/" + granularity.text + '}';
     }
 
-    static void to(DataOutputStream dos, OaiTimestamp ts) throws IOException {
-        if (ts == null) {
-            dos.writeByte(Byte.MIN_VALUE);
-        } else {
-            dos.writeByte(ts.granularity.getNo());
-            dos.writeInt(ts.timestamp.getNanos());
-            dos.writeLong(ts.timestamp.getTime());
-        }
-    }
-
     static OaiTimestamp from(DataInputStream dis) throws IOException {
         byte b = dis.readByte();
         if (b == Byte.MIN_VALUE)
@@ -256,6 +265,16 @@ public class OaiTimestamp {
         return new OaiTimestamp(ts, g);
     }
 
+    static void to(ResumptionTokenCodec.Writer writer, OaiTimestamp ts) {
+        writer.putByte(ts.granularity.getNo())
+                .putMicros(ts.timestamp);
+    }
+
+    static OaiTimestamp from(ResumptionTokenCodec.Reader reader) {
+        Granularity g = Granularity.of((byte) reader.getByte());
+        return new OaiTimestamp(reader.getMicros(), g);
+    }
+
     private enum Granularity {
         YEAR("year", 0),
         MONTH("month", 1),
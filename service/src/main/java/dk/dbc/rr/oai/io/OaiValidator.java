@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * HTTP validator (ETag and Last-Modified) of a response, computed from the
+ * request and the identifiers in the response, before any records are
+ * formatted
+ * <p>
+ * The ETag is weak, the response differs in responseDate and trackingId
+ * comment. If the response has a resumption token, the ETag also includes
+ * the time window (half the resumption token lifetime) it was computed in,
+ * so a client never gets a 304 for a page with a token that would have less
+ * than half its lifetime left.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public final class OaiValidator {
+
+    private static final byte SEPARATOR = 0;
+    private static final int ETAG_BYTES = 16;
+
+    private final MessageDigest digest;
+    private Timestamp lastModified;
+    private String etag;
+
+    /**
+     * Start a validator
+     *
+     * @param request     the (validated) request
+     * @param allowedSets which sets the user has access to
+     * @param window      time window for responses with resumption tokens
+     *                    (0 if no token)
+     */
+    public OaiValidator(OaiRequest request, Set<String> allowedSets, long window) {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Cannot make validator", ex);
+        }
+        this.lastModified = null;
+        this.etag = null;
+        add(String.valueOf(request.getVerb()));
+        add(request.getMetadataPrefix());
+        add(request.getIdentifier());
+        add(request.getFrom() == null ? null : request.getFrom().toString());
+        add(request.getUntil() == null ? null : request.getUntil().toString());
+        add(request.getSet());
+        add(request.getResumptionToken() == null ? null : request.getResumptionToken().toString());
+        add(new TreeSet<>(allowedSets).toString());
+        add(Long.toString(window));
+    }
+
+    /**
+     * Add an identifier, as it is presented in the response
+     *
+     * @param identifier  the identifier
+     * @param allowedSets which sets the user has access to
+     * @return self for chaining
+     */
+    public OaiValidator add(OaiIdentifier identifier, Set<String> allowedSets) {
+        Timestamp changed = identifier.getChanged();
+        add(identifier.getIdentifier());
+        add(identifier.isDeleted() ? "deleted" : "present");
+        add(changed == null ? null : changed.toString());
+        add(new TreeSet<>(identifier.setspecsLimitedTo(allowedSets)).toString());
+        if (changed != null && ( lastModified == null || changed.after(lastModified) ))
+            lastModified = changed;
+        return this;
+    }
+
+    private void add(String value) {
+        if (value != null)
+            digest.update(value.getBytes(UTF_8));
+        digest.update(SEPARATOR);
+    }
+
+    /**
+     * The entity tag (quoted and weak) as sent in the ETag header
+     *
+     * @return the entity tag
+     */
+    public String getETag() {
+        if (etag == null)
+            etag = "W/\"" + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Arrays.copyOf(digest.digest(), ETAG_BYTES)) + "\"";
+        return etag;
+    }
+
+    /**
+     * The newest change of any record in the response
+     *
+     * @return instant or null if there are no records
+     */
+    public Instant getLastModified() {
+        return lastModified == null ? null : lastModified.toInstant();
+    }
+
+    /**
+     * Check the If-None-Match header
+     *
+     * @param ifNoneMatch header value
+     * @return if any of the entity tags (weak comparison) matches
+     */
+    boolean matchesAny(String ifNoneMatch) {
+        String opaque = opaque(getETag());
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || opaque(tag).equals(opaque))
+                return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.sql.Timestamp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Primitives for the compact binary resumption token layout
+ * <p>
+ * A token is laid out in a single byte array:
+ * <ul>
+ * <li>a version byte ({@link #VERSION_SIGNED})
+ * <li>fields as varints (zig-zag for signed values), timestamps as
+ * microseconds since epoch and strings as length prefixed UTF-8
+ * <li>a signature (see {@link ResumptionTokenSigner})
+ * </ul>
+ * The size is computed by a {@link Writer} without a buffer, then the token
+ * is written into an array of the exact size, and signed and xor'ed in
+ * place. Decoding reverses the xor and verifies the signature in place, and
+ * reads the fields directly from the array.
+ * <p>
+ * Unsigned tokens (4 checksum bytes, then the old
+ * {@link java.io.DataOutputStream} based layout) can still be decoded, until
+ * ACCEPT_UNSIGNED_TOKENS_UNTIL.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+final class ResumptionTokenCodec {
+
+    static final byte VERSION_SIGNED = (byte) 0x82;
+    static final int CHECKSUM_SIZE = 4;
+
+    private ResumptionTokenCodec() {
+    }
+
+    /**
+     * Check the checksum of an unsigned token (with the xor removed)
+     * <p>
+     * Every 4th byte (starting at 0..3) xor'ed together gives zero
+     *
+     * @param buffer token bytes
+     */
+    static void checkChecksum(byte[] buffer) {
+        if (buffer.length <= CHECKSUM_SIZE)
+            throw new IllegalStateException("Too short");
+        for (int i = CHECKSUM_SIZE ; i < buffer.length ; i++) {
+            buffer[i & 3] ^= buffer[i];
+        }
+        if (( buffer[0] | buffer[1] | buffer[2] | buffer[3] ) != 0)
+            throw new IllegalStateException("Checksum failed");
+    }
+
+    private static long micros(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000L) * 1_000_000L + timestamp.getNanos() / 1000;
+    }
+
+    private static Timestamp timestamp(long micros) {
+        Timestamp timestamp = new Timestamp(Math.floorDiv(micros, 1000L));
+        timestamp.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+        return timestamp;
+    }
+
+    /**
+     * Writes fields into a byte array, or if constructed without an array
+     * only counts the number of bytes needed
+     */
+    static final class Writer {
+
+        private final byte[] buffer;
+        private int pos;
+
+        /**
+         * Make a writer that only counts bytes
+         */
+        Writer() {
+            this.buffer = null;
+            this.pos = 0;
+        }
+
+        /**
+         * Make a writer that writes from the start of a buffer
+         *
+         * @param buffer output
+         */
+        Writer(byte[] buffer) {
+            this.buffer = buffer;
+            this.pos = 0;
+        }
+
+        int size() {
+            return pos;
+        }
+
+        Writer putByte(int b) {
+            if (buffer != null)
+                buffer[pos] = (byte) b;
+            pos++;
+            return this;
+        }
+
+        Writer putVarLong(long value) {
+            while (( value & ~0x7fL ) != 0) {
+                putByte((int) ( value & 0x7f ) | 0x80);
+                value >>>= 7;
+            }
+            return putByte((int) value);
+        }
+
+        Writer putSignedVarLong(long value) {
+            return putVarLong(( value << 1 ) ^ ( value >> 63 ));
+        }
+
+        /**
+         * Timestamp as microseconds since epoch
+         * <p>
+         * Sub microsecond precision is lost, timestamps come from, and are
+         * compared in, the database which has microsecond precision
+         *
+         * @param timestamp the timestamp
+         * @return self for chaining
+         */
+        Writer putMicros(Timestamp timestamp) {
+            return putSignedVarLong(micros(timestamp));
+        }
+
+        Writer putBytes(byte[] bytes) {
+            putVarLong(bytes.length);
+            if (buffer != null)
+                System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+            pos += bytes.length;
+            return this;
+        }
+    }
+
+    /**
+     * Reads fields directly from a byte array
+     */
+    static final class Reader {
+
+        private final byte[] buffer;
+        private final int end;
+        private int pos;
+
+        /**
+         * Make a reader for a region of a buffer
+         *
+         * @param buffer token bytes
+         * @param pos    where the fields start
+         * @param end    where the fields end
+         */
+        Reader(byte[] buffer, int pos, int end) {
+            this.buffer = buffer;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        int getByte() {
+            if (pos >= end)
+                throw new IllegalStateException("Token is truncated");
+            return buffer[pos++];
+        }
+
+        long getVarLong() {
+            long value = 0;
+            for (int shift = 0 ; shift < 64 ; shift += 7) {
+                int b = getByte();
+                value |= (long) ( b & 0x7f ) << shift;
+                if (( b & 0x80 ) == 0)
+                    return value;
+            }
+            throw new IllegalStateException("Malformed varint in token");
+        }
+
+        int getVarInt() {
+            return Math.toIntExact(getVarLong());
+        }
+
+        long getSignedVarLong() {
+            long value = getVarLong();
+            return ( value >>> 1 ) ^ -( value & 1 );
+        }
+
+        Timestamp getMicros() {
+            return timestamp(getSignedVarLong());
+        }
+
+        String getString() {
+            int length = getVarInt();
+            if (length < 0 || length > end - pos)
+                throw new IllegalStateException("Token is truncated");
+            String s = new String(buffer, pos, length, UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Signing and obfuscation of resumption tokens
+ * <p>
+ * Tokens are signed with a HMAC-SHA256 (truncated to {@link #MAC_SIZE}
+ * bytes) using a key derived from the xor bytes (XOR_TEXT_ASCII), and
+ * then xor'ed with the xor bytes, as the old tokens were.
+ * <p>
+ * {@link Mac} instances aren't thread safe and are relatively expensive to
+ * initialize, so one is kept pr. thread.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+final class ResumptionTokenSigner {
+
+    static final int MAC_SIZE = 16;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_LABEL = "rr-oai resumption token signing key".getBytes(UTF_8);
+
+    private final byte[] xorBytes;
+    private final ThreadLocal<Signer> signers;
+
+    ResumptionTokenSigner(byte[] xorBytes) {
+        if (xorBytes == null || xorBytes.length == 0)
+            throw new IllegalArgumentException("No xor bytes for resumption tokens");
+        this.xorBytes = xorBytes.clone();
+        SecretKeySpec key = new SecretKeySpec(deriveKey(this.xorBytes), ALGORITHM);
+        this.signers = ThreadLocal.withInitial(() -> new Signer(key));
+    }
+
+    /**
+     * Derive the signing key, so it is not the same as the xor bytes, which
+     * could be deduced from a token with known content
+     *
+     * @param xorBytes secret
+     * @return key bytes
+     */
+    private static byte[] deriveKey(byte[] xorBytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(KEY_LABEL);
+            return digest.digest(xorBytes);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Cannot derive resumption token key", ex);
+        }
+    }
+
+    /**
+     * Sign content in place
+     * <p>
+     * The last {@link #MAC_SIZE} bytes of the buffer are set to the
+     * signature of the rest
+     *
+     * @param buffer token bytes
+     */
+    void sign(byte[] buffer) {
+        int length = buffer.length - MAC_SIZE;
+        byte[] mac = signers.get().mac(buffer, length);
+        System.arraycopy(mac, 0, buffer, length, MAC_SIZE);
+    }
+
+    /**
+     * Verify a signature, in constant time
+     *
+     * @param buffer token bytes with signature at the end
+     * @return if the signature is valid
+     */
+    boolean verify(byte[] buffer) {
+        int length = buffer.length - MAC_SIZE;
+        if (length <= 0)
+            return false;
+        byte[] mac = signers.get().mac(buffer, length);
+        int diff = 0;
+        for (int i = 0 ; i < MAC_SIZE ; i++) {
+            diff |= mac[i] ^ buffer[length + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Simple obfuscation using XOR, in place
+     *
+     * @param buffer token bytes
+     */
+    void xor(byte[] buffer) {
+        int x = 0;
+        for (int i = 0 ; i < buffer.length ; i++) {
+            buffer[i] ^= xorBytes[x++];
+            if (x == xorBytes.length)
+                x = 0;
+        }
+    }
+
+    private static final class Signer {
+
+        private final Mac mac;
+        private final byte[] output;
+
+        private Signer(SecretKeySpec key) {
+            try {
+                this.mac = Mac.getInstance(ALGORITHM);
+                this.mac.init(key);
+                this.output = new byte[mac.getMacLength()];
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("Cannot make resumption token signer", ex);
+            }
+        }
+
+        private byte[] mac(byte[] buffer, int length) {
+            try {
+                mac.update(buffer, 0, length);
+                mac.doFinal(output, 0);
+                return output;
+            } catch (ShortBufferException ex) {
+                throw new IllegalStateException("Cannot sign resumption token", ex);
+            }
+        }
+    }
+}
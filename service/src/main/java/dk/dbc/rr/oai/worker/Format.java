@@ -18,6 +18,8 @@
  */
 package dk.dbc.rr.oai.worker;
 
+import java.util.Objects;
+
 /**
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
@@ -45,4 +47,26 @@ public class Format {
     public String getNamespace() {
         return namespace;
     }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 53 * hash + Objects.hashCode(this.prefix);
+        hash = 53 * hash + Objects.hashCode(this.schema);
+        hash = 53 * hash + Objects.hashCode(this.namespace);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null ||
+            getClass() != obj.getClass())
+            return false;
+        final Format other = (Format) obj;
+        return Objects.equals(this.prefix, other.prefix) &&
+               Objects.equals(this.schema, other.schema) &&
+               Objects.equals(this.namespace, other.namespace);
+    }
 }
@@ -39,9 +39,14 @@ import java.util.List;
 import java.util.Set;
 
 import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
 import static java.util.stream.Collectors.toSet;
 
 /**
+ * Formats and sets from the database
+ * <p>
+ * The data is kept as an immutable snapshot, that is replaced atomically by
+ * {@link #refresh()}, so readers never need to lock.
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
  */
@@ -56,18 +61,12 @@ public class OaiDatabaseMetadata {
     @Resource(lookup = "jdbc/rawrepo-oai")
     public DataSource dataSource;
 
-    private List<Format> formats;
-    private Set<String> prefixes;
-    private List<OaiSet> sets;
+    private volatile Snapshot snapshot;
 
     @PostConstruct
     public void init() {
         try {
-            this.formats = unmodifiableList(listFormats());
-            this.prefixes = this.formats.stream()
-                    .map(Format::getPrefix)
-                    .collect(toSet());
-            this.sets = unmodifiableList(listSet());
+            this.snapshot = new Snapshot(listFormats(), listSet());
         } catch (SQLException ex) {
             log.error("Error building formats lists: {}", ex.getMessage());
             log.debug("Error building formats lists: ", ex);
@@ -75,16 +74,51 @@ public class OaiDatabaseMetadata {
         }
     }
 
+    /**
+     * Reload formats and sets from the database
+     * <p>
+     * If the content has changed, a new snapshot replaces the current one.
+     * If the database cannot be reached, the current snapshot is kept.
+     *
+     * @return if a new snapshot has been installed
+     */
+    public boolean refresh() {
+        try {
+            Snapshot fresh = new Snapshot(listFormats(), listSet());
+            if (fresh.equals(snapshot))
+                return false;
+            log.info("Database metadata has changed - installing new snapshot");
+            this.snapshot = fresh;
+            return true;
+        } catch (SQLException ex) {
+            log.error("Error refreshing formats lists: {}", ex.getMessage());
+            log.debug("Error refreshing formats lists: ", ex);
+            return false;
+        }
+    }
+
+    /**
+     * The current metadata
+     * <p>
+     * Use this when several values should be taken from the same generation
+     * of metadata
+     *
+     * @return immutable snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
     public List<Format> getFormats() {
-        return formats;
+        return snapshot.getFormats();
     }
 
     public boolean knownPrefix(String prefix) {
-        return prefixes.contains(prefix);
+        return snapshot.knownPrefix(prefix);
     }
 
     public List<OaiSet> getSets() {
-        return sets;
+        return snapshot.getSets();
     }
 
     private List<Format> listFormats() throws SQLException {
@@ -116,4 +150,53 @@ public class OaiDatabaseMetadata {
 
     }
 
+    /**
+     * Immutable view of formats and sets
+     */
+    public static final class Snapshot {
+
+        private final List<Format> formats;
+        private final Set<String> prefixes;
+        private final List<OaiSet> sets;
+
+        Snapshot(List<Format> formats, List<OaiSet> sets) {
+            this.formats = unmodifiableList(formats);
+            this.prefixes = unmodifiableSet(formats.stream()
+                    .map(Format::getPrefix)
+                    .collect(toSet()));
+            this.sets = unmodifiableList(sets);
+        }
+
+        public List<Format> getFormats() {
+            return formats;
+        }
+
+        public boolean knownPrefix(String prefix) {
+            return prefixes.contains(prefix);
+        }
+
+        public List<OaiSet> getSets() {
+            return sets;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 3;
+            hash = 29 * hash + formats.hashCode();
+            hash = 29 * hash + sets.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null ||
+                getClass() != obj.getClass())
+                return false;
+            final Snapshot other = (Snapshot) obj;
+            return this.formats.equals(other.formats) &&
+                   this.sets.equals(other.sets);
+        }
+    }
 }
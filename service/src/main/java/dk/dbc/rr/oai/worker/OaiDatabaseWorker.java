@@ -19,6 +19,7 @@
 package dk.dbc.rr.oai.worker;
 
 import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.OaiMetrics;
 import dk.dbc.rr.oai.io.OaiIdentifier;
 import dk.dbc.rr.oai.io.OaiResumptionToken;
 import dk.dbc.rr.oai.io.OaiTimestamp;
@@ -35,11 +36,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Arrays;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.LinkedList;
 import java.util.Set;
 
 import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.joining;
 
 /**
  *
@@ -55,9 +59,56 @@ public class OaiDatabaseWorker {
             " FROM oairecords" +
             " JOIN oairecordsets USING (pid)";
 
+    private static final String[] LIST_RECORDS_SQL = listRecordsSqls();
+
+    private static final String SELECT_SNAPSHOT_RECORDS =
+            "SELECT pid, deleted, changed, setspec, gone" +
+            " FROM oaisnapshotrecords" +
+            " JOIN oaisnapshots ON snapshot = id" +
+            " JOIN oairecords USING (pid)" +
+            " JOIN oairecordsets USING (pid)" +
+            " WHERE snapshot = ? AND pos BETWEEN ? AND ?" +
+            " AND setspec = ANY(STRING_TO_ARRAY(setspecs, ','))" +
+            " ORDER BY pos";
+    private static final String[] ESTIMATE_SQL = {
+        "SELECT COALESCE(SUM(records), 0) FROM oaisetcounts WHERE setspec = ANY(?::TEXT[])",
+        "SELECT COALESCE(SUM(records), 0) FROM oaisetcounts WHERE setspec = ANY(?::TEXT[]) AND day <= ?",
+        "SELECT COALESCE(SUM(records), 0) FROM oaisetcounts WHERE setspec = ANY(?::TEXT[]) AND day >= ?",
+        "SELECT COALESCE(SUM(records), 0) FROM oaisetcounts WHERE setspec = ANY(?::TEXT[]) AND day >= ? AND day <= ?"
+    };
+    private static final String SELECT_SNAPSHOT_EXISTS =
+            "SELECT 1 FROM oaisnapshots WHERE id = ?";
+    private static final String FIND_SNAPSHOT =
+            "SELECT id FROM oaisnapshots" +
+            " WHERE setspecs = ?" +
+            " AND untiltruncate IS NOT DISTINCT FROM ?" +
+            " AND untiltimestamp IS NOT DISTINCT FROM ?::TIMESTAMP" +
+            " AND created > ?" +
+            " AND records IS NOT NULL" +
+            " ORDER BY created DESC LIMIT 1";
+    private static final String TOUCH_SNAPSHOT =
+            "UPDATE oaisnapshots SET accessed = CURRENT_TIMESTAMP" +
+            " WHERE id = ? AND accessed < CURRENT_TIMESTAMP - INTERVAL '1 minute'";
+    private static final String PURGE_SNAPSHOTS =
+            "DELETE FROM oaisnapshots WHERE accessed < ?";
+    private static final String FILLED_SNAPSHOT =
+            "UPDATE oaisnapshots SET records = ? WHERE id = ?";
+    private static final String DROP_SNAPSHOT =
+            "DELETE FROM oaisnapshots WHERE id = ?";
+    private static final String CREATE_SNAPSHOT =
+            "INSERT INTO oaisnapshots(setspecs, untiltruncate, untiltimestamp)" +
+            " VALUES(?, ?, ?::TIMESTAMP) RETURNING id";
+    private static final String FILL_SNAPSHOT =
+            "INSERT INTO oaisnapshotrecords(snapshot, pos, pid)" +
+            " SELECT ?, ROW_NUMBER() OVER (ORDER BY pid) - 1, pid" +
+            " FROM (SELECT DISTINCT pid FROM oairecordsets WHERE setspec = ANY(?::TEXT[])";
+
     @Inject
     public Config config;
 
+    @Inject
+    public OaiMetrics metrics;
+
     @Resource(lookup = "jdbc/rawrepo-oai")
     public DataSource dataSource;
 
@@ -96,7 +147,23 @@ public class OaiDatabaseWorker {
      */
     @Timed
     public LinkedList<OaiIdentifier> listIdentifiers(OaiResumptionToken token, Set<String> allowedSets) throws SQLException {
-        return listIdentifiers(token.getFrom(), token.getSegmentStart(), token.getSegmentId(), token.getUntil(), makeSetsSet(token, allowedSets));
+        return listIdentifiers(token, allowedSets, config.getMaxRowsPrRequest());
+    }
+
+    /**
+     * List identifiers starting with the one in the token
+     * <p>
+     * Resulting list is up to maxRows + 1 long
+     *
+     * @param token       resumptionToken as supplied from user
+     * @param allowedSets which sets to use in none has been declared originally
+     * @param maxRows     page size
+     * @return List of identifiers
+     * @throws SQLException if identifiers couldn't be fetched from the database
+     */
+    @Timed
+    public LinkedList<OaiIdentifier> listIdentifiers(OaiResumptionToken token, Set<String> allowedSets, int maxRows) throws SQLException {
+        return listIdentifiers(token.getFrom(), token.getSegmentStart(), token.getSegmentId(), token.getUntil(), makeSetsSet(token, allowedSets), maxRows);
     }
 
     private static Set<String> makeSetsSet(OaiResumptionToken token, Set<String> allowedSets) {
@@ -121,37 +188,246 @@ public class OaiDatabaseWorker {
      */
     @Timed
     public LinkedList<OaiIdentifier> listIdentifiers(OaiTimestamp from, OaiTimestamp until, Set<String> set) throws SQLException {
-        return listIdentifiers(from, null, null, until, set);
+        return listIdentifiers(from, until, set, config.getMaxRowsPrRequest());
     }
 
-    private LinkedList<OaiIdentifier> listIdentifiers(OaiTimestamp from, Timestamp segmentStart, String segmentId, OaiTimestamp until, Set<String> set) throws SQLException {
-        Object[] values = new Object[5 + set.size()];
-        values[0] = set;
-        int pos = 0;
-        for (String s : set) {
-            values[pos++] = s;
-        }
-        String sql = listRecordsSql(values, pos, from, segmentStart, segmentId, until, set.size());
-        log.debug("sql = {}, values = {}", sql, Arrays.toString(values));
+    /**
+     * List identifiers starting with the specification supplied by the user
+     * <p>
+     * Resulting list is up to maxRows + 1 long
+     *
+     * @param from    Timestamp to start from (inclusive)
+     * @param until   Timestamp to end at (inclusive)
+     * @param set     dataset to take identifiers from
+     * @param maxRows page size
+     * @return List of identifiers
+     * @throws SQLException if identifiers couldn't be fetched from the database
+     */
+    @Timed
+    public LinkedList<OaiIdentifier> listIdentifiers(OaiTimestamp from, OaiTimestamp until, Set<String> set, int maxRows) throws SQLException {
+        return listIdentifiers(from, null, null, until, set, maxRows);
+    }
+
+    private LinkedList<OaiIdentifier> listIdentifiers(OaiTimestamp from, Timestamp segmentStart, String segmentId, OaiTimestamp until, Set<String> set, int maxRows) throws SQLException {
+        boolean resume = segmentStart != null && segmentId != null;
+        String sql = LIST_RECORDS_SQL[listRecordsSqlIndex(resume, from != null, until != null)];
+        log.debug("sql = {}, sets = {}", sql, set);
         try (Connection connection = dataSource.getConnection() ;
              PreparedStatement stmt = connection.prepareStatement(sql)) {
-            for (int i = 0 ; i < values.length ; i++) {
-                Object value = values[i];
-                if (value == null)
-                    break;
-                if (value instanceof String) {
-                    stmt.setString(i + 1, (String) value);
-                } else if (value instanceof Timestamp) {
-                    stmt.setTimestamp(i + 1, (Timestamp) value);
-                } else {
-                    throw new AssertionError();
+            int pos = 1;
+            stmt.setArray(pos++, connection.createArrayOf("TEXT", set.toArray()));
+            if (resume) {
+                stmt.setTimestamp(pos++, segmentStart);
+                stmt.setTimestamp(pos++, segmentStart);
+                stmt.setString(pos++, segmentId);
+            } else if (from != null) {
+                pos = from.bind(stmt, pos);
+            }
+            if (until != null)
+                pos = until.bind(stmt, pos);
+            stmt.setInt(pos, maxRows * set.size() + 1);
+            int maxLength = maxRows + 1;
+            return listOfIdentifiersFromStatement(stmt, maxLength);
+        }
+    }
+
+    /**
+     * Find a recent, or create a new, snapshot of the records in the given
+     * sets
+     * <p>
+     * Creating a snapshot copies the pid of every record in the harvest, in
+     * the first request of the harvest. Harvests estimated larger than
+     * {@link Config#getHarvestSnapshotMaxRows()} don't get a snapshot.
+     * <p>
+     * The snapshot row is marked as filled (records is set), after the pids
+     * has been copied, and only filled snapshots are used. So a snapshot is
+     * never half-filled, no matter how the statements are committed. If the
+     * filling fails, the snapshot is removed.
+     *
+     * @param sets  which sets the records should be in
+     * @param until Timestamp to end at (inclusive)
+     * @return id of snapshot or null if the harvest is too large
+     * @throws SQLException if the snapshot couldn't be made
+     */
+    @Timed
+    public Long harvestSnapshot(Set<String> sets, OaiTimestamp until) throws SQLException {
+        String setspecs = sets.stream().sorted().collect(joining(","));
+        Instant now = Instant.now();
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement stmt = connection.prepareStatement(FIND_SNAPSHOT)) {
+                stmt.setString(1, setspecs);
+                stmt.setString(2, until == null ? null : until.getTruncate());
+                stmt.setTimestamp(3, until == null ? null : until.getTimestamp());
+                stmt.setTimestamp(4, Timestamp.from(now.minusSeconds(config.getHarvestSnapshotReuseInSeconds())));
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    if (resultSet.next())
+                        return resultSet.getLong(1);
                 }
             }
-            int maxLength = config.getMaxRowsPrRequest() + 1;
+            int maxRows = config.getHarvestSnapshotMaxRows();
+            if (maxRows != 0) {
+                long estimate = estimateListSize(null, until, sets);
+                if (estimate > maxRows) {
+                    log.info("Not making harvest snapshot of ~{} records for {}", estimate, setspecs);
+                    return null;
+                }
+            }
+            long snapshot;
+            try (PreparedStatement stmt = connection.prepareStatement(CREATE_SNAPSHOT)) {
+                stmt.setString(1, setspecs);
+                stmt.setString(2, until == null ? null : until.getTruncate());
+                stmt.setTimestamp(3, until == null ? null : until.getTimestamp());
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    resultSet.next();
+                    snapshot = resultSet.getLong(1);
+                }
+            }
+            String sql = until == null ?
+                         FILL_SNAPSHOT + ") AS pids" :
+                         FILL_SNAPSHOT + " AND " + OaiTimestamp.sqlTo("changed") + ") AS pids";
+            try (PreparedStatement stmt = connection.prepareStatement(sql) ;
+                 PreparedStatement filledStmt = connection.prepareStatement(FILLED_SNAPSHOT)) {
+                stmt.setLong(1, snapshot);
+                stmt.setArray(2, connection.createArrayOf("TEXT", sets.toArray()));
+                if (until != null)
+                    until.bind(stmt, 3);
+                int rows = stmt.executeUpdate();
+                filledStmt.setInt(1, rows);
+                filledStmt.setLong(2, snapshot);
+                filledStmt.executeUpdate();
+                log.info("Created harvest snapshot {} of {} records for {}", snapshot, rows, setspecs);
+            } catch (SQLException ex) {
+                try (PreparedStatement stmt = connection.prepareStatement(DROP_SNAPSHOT)) {
+                    stmt.setLong(1, snapshot);
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    log.warn("Could not remove unfinished harvest snapshot {}: {}", snapshot, e.getMessage());
+                }
+                throw ex;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * List identifiers from a harvest snapshot
+     * <p>
+     * Resulting list is up to {@link Config#getMaxRowsPrRequest()} + 1 long
+     * If it is longer than configured, then the last should be removed and
+     * converted into a new resumption token.
+     * <p>
+     * Every record in the snapshot is listed, so the offset for the next
+     * request is the offset plus the number of identifiers returned.
+     * <p>
+     * The snapshot is marked as accessed, so it isn't purged while a harvest
+     * is paging through it.
+     *
+     * @param snapshot id of snapshot
+     * @param offset   position to start from
+     * @return List of identifiers
+     * @throws SQLException if identifiers couldn't be fetched from the database
+     */
+    @Timed
+    public LinkedList<OaiIdentifier> listSnapshotIdentifiers(long snapshot, int offset) throws SQLException {
+        return listSnapshotIdentifiers(snapshot, offset, config.getMaxRowsPrRequest());
+    }
+
+    /**
+     * List identifiers from a harvest snapshot
+     * <p>
+     * Resulting list is up to maxRows + 1 long
+     *
+     * @param snapshot id of snapshot
+     * @param offset   position to start from
+     * @param maxRows  page size
+     * @return List of identifiers
+     * @throws SQLException if identifiers couldn't be fetched from the database
+     */
+    @Timed
+    public LinkedList<OaiIdentifier> listSnapshotIdentifiers(long snapshot, int offset, int maxRows) throws SQLException {
+        int maxLength = maxRows + 1;
+        try (Connection connection = dataSource.getConnection() ;
+             PreparedStatement touchStmt = connection.prepareStatement(TOUCH_SNAPSHOT) ;
+             PreparedStatement stmt = connection.prepareStatement(SELECT_SNAPSHOT_RECORDS)) {
+            touchStmt.setLong(1, snapshot);
+            touchStmt.executeUpdate();
+            stmt.setLong(1, snapshot);
+            stmt.setInt(2, offset);
+            stmt.setInt(3, offset + maxLength - 1);
             return listOfIdentifiersFromStatement(stmt, maxLength);
         }
     }
 
+    /**
+     * Remove harvest snapshots that haven't been accessed for
+     * {@link Config#getHarvestSnapshotKeepInSeconds()}
+     *
+     * @return number of snapshots removed
+     * @throws SQLException if the database couldn't be updated
+     */
+    public int purgeHarvestSnapshots() throws SQLException {
+        try (Connection connection = dataSource.getConnection() ;
+             PreparedStatement stmt = connection.prepareStatement(PURGE_SNAPSHOTS)) {
+            stmt.setTimestamp(1, Timestamp.from(Instant.now().minusSeconds(config.getHarvestSnapshotKeepInSeconds())));
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Check if a harvest snapshot still exists
+     *
+     * @param snapshot id of snapshot
+     * @return if it hasn't been purged
+     * @throws SQLException if the database couldn't be queried
+     */
+    public boolean hasHarvestSnapshot(long snapshot) throws SQLException {
+        try (Connection connection = dataSource.getConnection() ;
+             PreparedStatement stmt = connection.prepareStatement(SELECT_SNAPSHOT_EXISTS)) {
+            stmt.setLong(1, snapshot);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * Estimate the number of records in a harvest
+     * <p>
+     * This uses the pr. set/day counts maintained by the setmatcher, so
+     * records that are in multiple of the requested sets are counted once for
+     * each, and days at the edges are counted whole. The result is an upper
+     * bound on the size of the list.
+     *
+     * @param from  When the harvesting should start (optional)
+     * @param until When the harvesting should stop (optional)
+     * @param sets  Which sets to harvest from
+     * @return estimated number of records
+     * @throws SQLException if the database couldn't be queried
+     */
+    @Timed
+    public long estimateListSize(OaiTimestamp from, OaiTimestamp until, Set<String> sets) throws SQLException {
+        String sql = ESTIMATE_SQL[( from != null ? 2 : 0 ) + ( until != null ? 1 : 0 )];
+        log.debug("sql = {}, sets = {}", sql, sets);
+        try (Connection connection = dataSource.getConnection() ;
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int pos = 1;
+            stmt.setArray(pos++, connection.createArrayOf("TEXT", sets.toArray()));
+            if (from != null)
+                stmt.setObject(pos++, dayOf(from));
+            if (until != null)
+                stmt.setObject(pos++, dayOf(until));
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (resultSet.next())
+                    return resultSet.getLong(1);
+                return 0;
+            }
+        }
+    }
+
+    private static LocalDate dayOf(OaiTimestamp timestamp) {
+        return LocalDate.ofInstant(timestamp.getTimestamp().toInstant(), ZoneOffset.UTC);
+    }
+
     /**
      * Construct a list of identifiers from a prepared statement
      *
@@ -164,7 +440,9 @@ public class OaiDatabaseWorker {
         OaiIdentifier oaiIdentifier = new OaiIdentifier();
         try (ResultSet resultSet = stmt.executeQuery()) {
             LinkedList<OaiIdentifier> identifiers = new LinkedList<>();
+            int rows = 0;
             while (resultSet.next()) {
+                rows++;
                 String identifier = resultSet.getString(1);
                 if (!identifier.equals(oaiIdentifier.getIdentifier())) {
                     if (identifiers.size() == maxLength)
@@ -179,55 +457,54 @@ public class OaiDatabaseWorker {
                 if (!gone)
                     oaiIdentifier.add(setSpec);
             }
+            metrics.rows(rows, identifiers.size());
             return identifiers;
         }
     }
 
     /**
-     * Build an sql statement for fetching identifiers from a time slot
+     * Select the precomputed sql statement for fetching identifiers from a
+     * time slot
      *
-     * @param values       Array of values to insert into the prepared statement
-     * @param valueOffset  Start position in values
-     * @param from         Starting timestamp
-     * @param segmentStart Continue from timestamp
-     * @param segmentId    Continue from identifier
-     * @param until        Ending timestamp
-     * @return SQL statement
+     * @param resume If continuing from a segment start
+     * @param from   If a starting timestamp is given
+     * @param until  If an ending timestamp is given
+     * @return index into {@link #LIST_RECORDS_SQL}
      */
-    private String listRecordsSql(Object[] values, int valueOffset, OaiTimestamp from, Timestamp segmentStart, String segmentId, OaiTimestamp until, int setSize) {
-        StringBuilder sql = new StringBuilder();
-        sql.append(SELECT_OAI_RECORDS + " WHERE setspec");
-        if (valueOffset == 1) {
-            sql.append(" = ?");
-        } else {
-            sql.append(" IN (");
-            for (int i = 0 ; i < valueOffset ; i++) {
-                if (i == 0) {
-                    sql.append("?");
-                } else {
-                    sql.append(", ?");
-                }
+    private static int listRecordsSqlIndex(boolean resume, boolean from, boolean until) {
+        return ( resume ? 4 : 0 ) + ( from ? 2 : 0 ) + ( until ? 1 : 0 );
+    }
+
+    /**
+     * Build all variations of sql statement for fetching identifiers from a
+     * time slot
+     * <p>
+     * The statement texts do not depend upon the number of sets or the
+     * granularity of the timestamps, so the JDBC driver can reuse server side
+     * prepared statements.
+     *
+     * @return SQL statements indexed by
+     *         {@link #listRecordsSqlIndex(boolean, boolean, boolean)}
+     */
+    private static String[] listRecordsSqls() {
+        String[] sqls = new String[8];
+        for (int i = 0 ; i < sqls.length ; i++) {
+            boolean resume = ( i & 4 ) != 0;
+            boolean from = ( i & 2 ) != 0;
+            boolean until = ( i & 1 ) != 0;
+            StringBuilder sql = new StringBuilder();
+            sql.append(SELECT_OAI_RECORDS + " WHERE setspec = ANY(?::TEXT[])");
+            if (resume) {
+                sql.append(" AND (changed > ? OR changed = ? AND pid >= ?)");
+            } else if (from) {
+                sql.append(" AND ").append(OaiTimestamp.sqlFrom("changed"));
             }
-            sql.append(")");
-        }
-        if (segmentStart != null && segmentId != null) {
-            sql.append(" AND (changed > ? OR changed = ? AND pid >= ?)");
-            values[valueOffset++] = segmentStart;
-            values[valueOffset++] = segmentStart;
-            values[valueOffset++] = segmentId;
-        } else if (from != null) {
-            sql.append(" AND ");
-            from.sqlFrom(sql, "changed");
-            values[valueOffset++] = from.getTimestamp();
-        }
-        if (until != null) {
-            sql.append(" AND ");
-            until.sqlTo(sql, "changed");
-            values[valueOffset++] = until.getTimestamp();
+            if (until)
+                sql.append(" AND ").append(OaiTimestamp.sqlTo("changed"));
+            sql.append(" ORDER BY changed, pid LIMIT ?");
+            sqls[listRecordsSqlIndex(resume, from, until)] = sql.toString();
         }
-        sql.append(" ORDER BY changed, pid LIMIT ")
-                .append(config.getMaxRowsPrRequest() * setSize + 1);
-        return sql.toString();
+        return sqls;
     }
 
 }
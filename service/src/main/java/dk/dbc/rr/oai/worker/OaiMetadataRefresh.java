@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.DependsOn;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reload database metadata, so new sets and formats are exposed
+ * without restarting the service
+ * <p>
+ * When the metadata has changed, the pre-rendered responses are rebuilt.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@DependsOn("OaiStaticResponses")
+@Lock(LockType.READ)
+public class OaiMetadataRefresh {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiMetadataRefresh.class);
+
+    @Inject
+    public Config config;
+
+    @Inject
+    public OaiDatabaseMetadata databaseMetadata;
+
+    @Inject
+    public OaiStaticResponses staticResponses;
+
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService")
+    public ManagedScheduledExecutorService ses;
+
+    @PostConstruct
+    public void init() {
+        long seconds = config.getMetadataRefreshInSeconds();
+        if (seconds == 0) {
+            log.info("Database metadata refresh is disabled");
+            return;
+        }
+        ses.scheduleWithFixedDelay(this::refresh, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reload the database metadata, and rebuild derived responses if it has
+     * changed
+     */
+    public void refresh() {
+        try {
+            if (databaseMetadata.refresh())
+                staticResponses.rebuild();
+        } catch (RuntimeException ex) {
+            log.error("Error refreshing database metadata: {}", ex.getMessage());
+            log.debug("Error refreshing database metadata: ", ex);
+        }
+    }
+}
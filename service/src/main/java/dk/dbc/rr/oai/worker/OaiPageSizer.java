@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page size for ListRecords based upon how long it recently took to format
+ * records in the requested format
+ * <p>
+ * The (wall) time of a parallel fetch divided by the number of records
+ * fetched, is kept as an exponentially weighted moving average pr. format.
+ * The page size is the number of records that can be fetched within the
+ * budget, limited by {@link Config#getAdaptivePageMinRows()} and
+ * {@link Config#getMaxRowsPrRequest()}.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Lock(LockType.READ)
+public class OaiPageSizer {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiPageSizer.class);
+
+    // Weight of a new sample in the moving average
+    private static final double WEIGHT = 0.2;
+
+    @Inject
+    public Config config;
+
+    private final ConcurrentHashMap<String, Double> nanosPrRecord;
+
+    public OaiPageSizer() {
+        this.nanosPrRecord = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * How many records to put in a ListRecords response
+     *
+     * @param metadataPrefix the requested format
+     * @return number of records
+     */
+    public int pageSize(String metadataPrefix) {
+        int maxRows = config.getMaxRowsPrRequest();
+        long budget = config.getAdaptivePageBudgetInSeconds();
+        if (budget == 0)
+            return maxRows;
+        Double cost = nanosPrRecord.get(metadataPrefix);
+        if (cost == null || cost <= 0.0)
+            return maxRows;
+        int minRows = Math.min(config.getAdaptivePageMinRows(), maxRows);
+        double rows = TimeUnit.SECONDS.toNanos(budget) / cost;
+        int pageSize = (int) Math.max(minRows, Math.min(maxRows, rows));
+        log.debug("pageSize for {} = {}", metadataPrefix, pageSize);
+        return pageSize;
+    }
+
+    /**
+     * Register how long it took to fetch a page of records
+     *
+     * @param metadataPrefix the format that was fetched
+     * @param records        number of records fetched
+     * @param nanos          wall time used
+     */
+    public void fetched(String metadataPrefix, int records, long nanos) {
+        if (records <= 0)
+            return;
+        double sample = (double) nanos / records;
+        nanosPrRecord.merge(metadataPrefix, sample, (average, value) -> average + WEIGHT * ( value - average ));
+    }
+}
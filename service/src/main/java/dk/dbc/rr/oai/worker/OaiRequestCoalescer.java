@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.io.OaiRequest;
+import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiResumptionToken;
+import dk.dbc.rr.oai.io.OaiTimestamp;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static jakarta.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+
+/**
+ * Let identical concurrent ListRecords requests share one computation
+ * <p>
+ * Harvesters run from cron often ask for the same page at the same time. The
+ * first request (for a given normalized request and set of allowed sets) does
+ * the database lookup and formatting, the requests that arrive while it is in
+ * flight wait for it, and use its content for their own response.
+ * <p>
+ * Only in-flight requests are shared, nothing is cached after the first
+ * request completes. Conditional requests aren't shared, as their content
+ * might not be computed.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Lock(LockType.READ)
+public class OaiRequestCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiRequestCoalescer.class);
+
+    @Inject
+    public Config config;
+
+    @Inject
+    public OaiWorker oaiWorker;
+
+    private final ConcurrentHashMap<Key, CompletableFuture<OaiResponse>> inFlight;
+
+    public OaiRequestCoalescer() {
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * List records, sharing the result with identical concurrent requests
+     *
+     * @param response    Where to write data
+     * @param request     The request parameters (validated)
+     * @param allowedSets Which sets user has access to
+     * @param trackingId  The tracking id of the request
+     * @throws SQLException In case of database communication problems
+     * @see OaiWorker#listRecords(dk.dbc.rr.oai.io.OaiResponse, dk.dbc.rr.oai.io.OaiRequest, java.util.Set, java.lang.String)
+     */
+    public void listRecords(OaiResponse response, OaiRequest request, Set<String> allowedSets, String trackingId) throws SQLException {
+        if (!config.isCoalesceRequests() || response.hasErrors() || response.isConditional()) {
+            oaiWorker.listRecords(response, request, allowedSets, trackingId);
+            return;
+        }
+        Key key = new Key(request, allowedSets);
+        CompletableFuture<OaiResponse> future = new CompletableFuture<>();
+        CompletableFuture<OaiResponse> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            log.info("Using result of identical in-flight request");
+            response.useContentOf(await(leader));
+            return;
+        }
+        try {
+            oaiWorker.listRecords(response, request, allowedSets, trackingId);
+            future.complete(response);
+        } catch (SQLException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Wait for the request that does the work
+     *
+     * @param leader the result of the request
+     * @return the completed response
+     * @throws SQLException if the request failed with a database error
+     */
+    private static OaiResponse await(CompletableFuture<OaiResponse> leader) throws SQLException {
+        try {
+            return leader.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for identical request: {}", ex.getMessage());
+            log.debug("Interrupted waiting for identical request: ", ex);
+            throw new ServerErrorException(INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            log.error("Error in identical request: {}", cause.getMessage());
+            log.debug("Error in identical request: ", cause);
+            throw new ServerErrorException(INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * The parts of a request that determine the content of the response
+     * <p>
+     * The request as echoed in the response comes from the response's own
+     * request parameters, so differently formatted, but equal, parameters are
+     * the same key.
+     */
+    private static final class Key {
+
+        private final String metadataPrefix;
+        private final OaiTimestamp from;
+        private final OaiTimestamp until;
+        private final String set;
+        private final OaiResumptionToken resumptionToken;
+        private final Set<String> allowedSets;
+
+        private Key(OaiRequest request, Set<String> allowedSets) {
+            this.metadataPrefix = request.getMetadataPrefix();
+            this.from = request.getFrom();
+            this.until = request.getUntil();
+            this.set = request.getSet();
+            this.resumptionToken = request.getResumptionToken();
+            this.allowedSets = allowedSets;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 5;
+            hash = 83 * hash + Objects.hashCode(this.metadataPrefix);
+            hash = 83 * hash + Objects.hashCode(this.from);
+            hash = 83 * hash + Objects.hashCode(this.until);
+            hash = 83 * hash + Objects.hashCode(this.set);
+            hash = 83 * hash + Objects.hashCode(this.resumptionToken);
+            hash = 83 * hash + Objects.hashCode(this.allowedSets);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            final Key other = (Key) obj;
+            return Objects.equals(this.metadataPrefix, other.metadataPrefix) &&
+                   Objects.equals(this.from, other.from) &&
+                   Objects.equals(this.until, other.until) &&
+                   Objects.equals(this.set, other.set) &&
+                   Objects.equals(this.resumptionToken, other.resumptionToken) &&
+                   Objects.equals(this.allowedSets, other.allowedSets);
+        }
+    }
+}
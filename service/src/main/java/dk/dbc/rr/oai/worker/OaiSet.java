@@ -18,6 +18,8 @@
  */
 package dk.dbc.rr.oai.worker;
 
+import java.util.Objects;
+
 /**
  *
  * @author Morten Bøgeskov (mb@dbc.dk)
@@ -45,4 +47,26 @@ public class OaiSet {
     public String getSetspec() {
         return setspec;
     }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 53 * hash + Objects.hashCode(this.setspec);
+        hash = 53 * hash + Objects.hashCode(this.setname);
+        hash = 53 * hash + Objects.hashCode(this.description);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null ||
+            getClass() != obj.getClass())
+            return false;
+        final OaiSet other = (OaiSet) obj;
+        return Objects.equals(this.setspec, other.setspec) &&
+               Objects.equals(this.setname, other.setname) &&
+               Objects.equals(this.description, other.description);
+    }
 }
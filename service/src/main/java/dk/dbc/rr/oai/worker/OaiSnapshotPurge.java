@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically remove harvest snapshots that are no longer in use, outside of
+ * the requests
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class OaiSnapshotPurge {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiSnapshotPurge.class);
+
+    @Inject
+    public Config config;
+
+    @Inject
+    public OaiDatabaseWorker databaseWorker;
+
+    @Resource(lookup = "java:comp/DefaultManagedScheduledExecutorService")
+    public ManagedScheduledExecutorService ses;
+
+    @PostConstruct
+    public void init() {
+        long seconds = config.getHarvestSnapshotPurgeInSeconds();
+        if (!config.isHarvestSnapshots() || seconds == 0) {
+            log.info("Harvest snapshot purge is disabled");
+            return;
+        }
+        ses.scheduleWithFixedDelay(this::purge, 0, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remove unused harvest snapshots
+     */
+    public void purge() {
+        try {
+            int purged = databaseWorker.purgeHarvestSnapshots();
+            if (purged != 0)
+                log.info("Purged {} harvest snapshot(s)", purged);
+        } catch (SQLException | RuntimeException ex) {
+            log.error("Error purging harvest snapshots: {}", ex.getMessage());
+            log.debug("Error purging harvest snapshots: ", ex);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.oai.pmh.DeletedRecordType;
+import dk.dbc.oai.pmh.DescriptionType;
+import dk.dbc.oai.pmh.GranularityType;
+import dk.dbc.oai.pmh.IdentifyType;
+import dk.dbc.oai.pmh.MetadataFormatType;
+import dk.dbc.oai.pmh.SetType;
+import dk.dbc.oai.pmh.VerbType;
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.fetch.DocumentBuilderPool;
+import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiResponseTemplate;
+import jakarta.annotation.PostConstruct;
+import jakarta.ejb.DependsOn;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static dk.dbc.rr.oai.io.OaiResponse.O;
+import static jakarta.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Responses that only depend upon configuration and database metadata
+ * <p>
+ * These are rendered at startup (and whenever the database metadata changes),
+ * and served as byte templates, where only the responseDate, the request
+ * element and the comment are filled in pr. request.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Singleton
+@Startup
+@DependsOn("OaiDatabaseMetadata")
+@Lock(LockType.READ)
+public class OaiStaticResponses {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiStaticResponses.class);
+
+    private static final byte[] DC_DESCRIPTION_BYTES =
+            ( "<oai_dc:dc" +
+              " xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\"" +
+              " xmlns:dc=\"http://purl.org/dc/elements/1.1/\"" +
+              " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+              " xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/oai_dc/" +
+              " http://www.openarchives.org/OAI/2.0/oai_dc.xsd\">" +
+              "<dc:description/>" +
+              "</oai_dc:dc>" ).getBytes(UTF_8);
+
+    @Inject
+    public Config config;
+
+    @Inject
+    public OaiDatabaseMetadata databaseMetadata;
+
+    @Inject
+    public DocumentBuilderPool documentBuilders;
+
+    private volatile Templates templates;
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    /**
+     * Render all templates from the current database metadata snapshot
+     * <p>
+     * The set of templates is replaced as a whole
+     */
+    public void rebuild() {
+        this.templates = new Templates(databaseMetadata.getSnapshot());
+        log.info("Pre-rendered static responses");
+    }
+
+    public OaiResponseTemplate getIdentify() {
+        return templates.identify;
+    }
+
+    public OaiResponseTemplate getListMetadataFormats() {
+        return templates.listMetadataFormats;
+    }
+
+    public OaiResponseTemplate getListSets() {
+        return templates.listSets;
+    }
+
+    private final class Templates {
+
+        private final OaiResponseTemplate identify;
+        private final OaiResponseTemplate listMetadataFormats;
+        private final OaiResponseTemplate listSets;
+
+        private Templates(OaiDatabaseMetadata.Snapshot snapshot) {
+            String baseUrl = config.getExposedUrl();
+            this.identify = OaiResponseTemplate.of(baseUrl, VerbType.IDENTIFY, OaiStaticResponses.this::fillIdentify);
+            this.listMetadataFormats = OaiResponseTemplate.of(baseUrl, VerbType.LIST_METADATA_FORMATS, r -> fillListMetadataFormats(r, snapshot));
+            this.listSets = OaiResponseTemplate.of(baseUrl, VerbType.LIST_SETS, r -> fillListSets(r, snapshot));
+        }
+    }
+
+    /**
+     * Identify repository
+     * <p>
+     * Takes data from configuration
+     *
+     * @param response Where to write data
+     */
+    private void fillIdentify(OaiResponse response) {
+        IdentifyType identify = response.identify();
+        identify.setRepositoryName(config.getRepoName());
+        identify.setBaseURL(config.getExposedUrl());
+        identify.setProtocolVersion("2.0");
+        identify.getAdminEmails().add(config.getAdminEmail());
+        identify.setEarliestDatestamp("1970-01-01T00:00:00Z"); // Epoch
+        identify.setDeletedRecord(DeletedRecordType.TRANSIENT); // Cannot guarantee against database wipes
+        identify.setGranularity(GranularityType.YYYY_MM_DD_THH_MM_SS_Z);
+    }
+
+    /**
+     * List all metadata formats from the database
+     *
+     * @param response Where to write data
+     * @param snapshot Database metadata
+     */
+    private void fillListMetadataFormats(OaiResponse response, OaiDatabaseMetadata.Snapshot snapshot) {
+        List<MetadataFormatType> metadataFormats = response.listMetadataFormats()
+                .getMetadataFormats();
+        snapshot.getFormats()
+                .forEach(format -> {
+                    MetadataFormatType xml = O.createMetadataFormatType();
+                    xml.setMetadataPrefix(format.getPrefix());
+                    xml.setSchema(format.getSchema());
+                    xml.setMetadataNamespace(format.getNamespace());
+                    metadataFormats.add(xml);
+                });
+    }
+
+    /**
+     * List set specifications from the database
+     *
+     * @param response Where to write data
+     * @param snapshot Database metadata
+     */
+    private void fillListSets(OaiResponse response, OaiDatabaseMetadata.Snapshot snapshot) {
+        List<SetType> sets = response.listSets().getSets();
+        snapshot.getSets()
+                .forEach(s -> {
+                    SetType set = O.createSetType();
+                    set.setSetSpec(s.getSetspec());
+                    set.setSetName(s.getSetname());
+                    DescriptionType desc = O.createDescriptionType();
+                    desc.setAny(makeSetDescription(s.getDescription()));
+                    set.getSetDescriptions().add(desc);
+                    sets.add(set);
+                });
+    }
+
+    private Element makeSetDescription(String desc) {
+        try (DocumentBuilderPool.Lease lease = documentBuilders.lease() ;
+             InputStream is = new ByteArrayInputStream(DC_DESCRIPTION_BYTES)) {
+            Document doc = lease.get().parse(is);
+            NodeList nodes = doc.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", "description");
+            if (nodes.getLength() != 1)
+                throw new AssertionError();
+            nodes.item(0).appendChild(doc.createTextNode(desc));
+            return doc.getDocumentElement();
+        } catch (SAXException | IOException ex) {
+            log.error("Error parsing dc description (static xml): {}", ex.getMessage());
+            log.debug("Error parsing dc description (static xml): ", ex);
+            throw new ServerErrorException("Cannot build description", INTERNAL_SERVER_ERROR);
+        }
+    }
+}
@@ -18,47 +18,37 @@
  */
 package dk.dbc.rr.oai.worker;
 
-import dk.dbc.oai.pmh.DeletedRecordType;
-import dk.dbc.oai.pmh.DescriptionType;
 import dk.dbc.oai.pmh.GetRecordType;
-import dk.dbc.oai.pmh.GranularityType;
 import dk.dbc.oai.pmh.HeaderType;
-import dk.dbc.oai.pmh.IdentifyType;
 import dk.dbc.oai.pmh.ListIdentifiersType;
 import dk.dbc.oai.pmh.ListRecordsType;
-import dk.dbc.oai.pmh.MetadataFormatType;
 import dk.dbc.oai.pmh.MetadataType;
 import dk.dbc.oai.pmh.OAIPMHerrorcodeType;
 import dk.dbc.oai.pmh.RecordType;
 import dk.dbc.oai.pmh.ResumptionTokenType;
-import dk.dbc.oai.pmh.SetType;
 import dk.dbc.oai.pmh.StatusType;
 import dk.dbc.rr.oai.Config;
-import dk.dbc.rr.oai.fetch.DocumentBuilderPool;
+import dk.dbc.rr.oai.fetch.FetchTimeoutException;
 import dk.dbc.rr.oai.fetch.ParallelFetch;
+import dk.dbc.rr.oai.io.OaiFragment;
 import dk.dbc.rr.oai.io.OaiIOBean;
 import dk.dbc.rr.oai.io.OaiIdentifier;
 import dk.dbc.rr.oai.io.OaiRequest;
 import dk.dbc.rr.oai.io.OaiResponse;
 import dk.dbc.rr.oai.io.OaiResumptionToken;
+import dk.dbc.rr.oai.io.OaiStages;
 import dk.dbc.rr.oai.io.OaiTimestamp;
+import dk.dbc.rr.oai.io.OaiValidator;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.ServerErrorException;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+
 import java.net.URI;
 import java.sql.SQLException;
-import java.util.Collections;
+import java.time.Instant;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -69,7 +59,6 @@ import java.util.stream.Collectors;
 
 import static dk.dbc.rr.oai.io.OaiResponse.O;
 import static jakarta.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singleton;
 
 /**
@@ -91,10 +80,13 @@ public class OaiWorker {
     public OaiDatabaseWorker databaseWorker;
 
     @Inject
-    public DocumentBuilderPool documentBuilders;
+    public OaiIOBean ioBean;
 
     @Inject
-    public OaiIOBean ioBean;
+    public OaiStaticResponses staticResponses;
+
+    @Inject
+    public OaiPageSizer pageSizer;
 
     @Inject
     public ParallelFetch parallelFetch;
@@ -121,20 +113,30 @@ public class OaiWorker {
         if (!databaseMetadata.knownPrefix(metadataPrefix))
             response.error(OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT, "Unknown metadata prefix");
 
+        long dbStart = System.nanoTime();
         OaiIdentifier identifier = databaseWorker.getIdentifier(request.getIdentifier());
+        response.getStages().add(OaiStages.Stage.DATABASE, System.nanoTime() - dbStart);
         if (identifier == null || identifier.setspecsLimitedTo(allowedSets).isEmpty())
             response.error(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, "No such record");
 
         if (response.hasErrors())
             return;
 
+        if (response.validate(new OaiValidator(request, allowedSets, 0).add(identifier, allowedSets))) {
+            log.info("Not modified");
+            return;
+        }
+
         GetRecordType record = response.getRecord();
         RecordType rec = O.createRecordType();
         rec.setHeader(makeHeaderFromIdentifierWithLimitedSetsFunction(allowedSets).apply(identifier));
         if (identifier != null && !identifier.isDeleted()) {
             MetadataType metadata = O.createMetadataType();
             URI uri = parallelFetch.buildUri(identifier.getIdentifier(), metadataPrefix, allowedSets, trackingId);
-            metadata.setAny(parallelFetch.fetchASingleDocument(uri).getDocumentElement());
+            long fetchStart = System.nanoTime();
+            OaiFragment fragment = parallelFetch.fetchASingleFragment(uri);
+            response.getStages().add(OaiStages.Stage.FETCH, System.nanoTime() - fetchStart);
+            metadata.setAny(response.embed(fragment));
             rec.setMetadata(metadata);
         }
         record.setRecord(rec);
@@ -146,7 +148,7 @@ public class OaiWorker {
      * As described in:
      * http://www.openarchives.org/OAI/openarchivesprotocol.html#Identify
      * <p>
-     * Takes data from database and from configuration
+     * Takes data from configuration (pre-rendered at startup)
      *
      * @param response Where to write data
      */
@@ -157,15 +159,7 @@ public class OaiWorker {
         if (response.hasErrors())
             return;
 
-        IdentifyType identify = response.identify();
-        identify.setRepositoryName(config.getRepoName());
-        identify.setBaseURL(config.getExposedUrl());
-        identify.setProtocolVersion("2.0");
-        identify.getAdminEmails().add(config.getAdminEmail());
-        identify.setEarliestDatestamp("1970-01-01T00:00:00Z"); // Epoch
-        identify.setDeletedRecord(DeletedRecordType.TRANSIENT); // Cannot guarantee against database wipes
-        identify.setGranularity(GranularityType.YYYY_MM_DD_THH_MM_SS_Z);
-
+        response.usePreRendered(staticResponses.getIdentify());
     }
 
     /**
@@ -187,7 +181,10 @@ public class OaiWorker {
     @Timed
     public void listIdentifiers(OaiResponse response, OaiRequest request, Set<String> allowedSets) throws SQLException {
         log.info("listIdentifiers");
-        List<OaiIdentifier> identifiers = getIdentifiers(response, request, r -> response.listIdentifiers().setResumptionToken(r), allowedSets);
+        long dbStart = System.nanoTime();
+        List<OaiIdentifier> identifiers = getIdentifiers(response, request, r -> response.listIdentifiers().setResumptionToken(r), allowedSets, config.getMaxRowsPrRequest())
+                .getIdentifiers();
+        response.getStages().add(OaiStages.Stage.DATABASE, System.nanoTime() - dbStart);
 
         if (response.hasErrors())
             return;
@@ -220,7 +217,9 @@ public class OaiWorker {
     public void listMetadataFormats(OaiResponse response, OaiRequest request, Set<String> allowedSets) throws SQLException {
         log.info("listMetadataFormats");
         if (request.getIdentifier() != null) {
+            long dbStart = System.nanoTime();
             OaiIdentifier identifier = databaseWorker.getIdentifier(request.getIdentifier());
+            response.getStages().add(OaiStages.Stage.DATABASE, System.nanoTime() - dbStart);
             if (identifier == null || identifier.setspecsLimitedTo(allowedSets).isEmpty())
                 response.error(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, "No such record");
         }
@@ -228,16 +227,7 @@ public class OaiWorker {
         if (response.hasErrors())
             return;
 
-        List<MetadataFormatType> metadataFormats = response.listMetadataFormats()
-                .getMetadataFormats();
-        databaseMetadata.getFormats()
-                .forEach(format -> {
-                    MetadataFormatType xml = O.createMetadataFormatType();
-                    xml.setMetadataPrefix(format.getPrefix());
-                    xml.setSchema(format.getSchema());
-                    xml.setMetadataNamespace(format.getNamespace());
-                    metadataFormats.add(xml);
-                });
+        response.usePreRendered(staticResponses.getListMetadataFormats());
     }
 
     /**
@@ -259,23 +249,48 @@ public class OaiWorker {
     @Timed
     public void listRecords(OaiResponse response, OaiRequest request, Set<String> allowedSets, String trackingId) throws SQLException {
         log.info("listRecords");
-        List<OaiIdentifier> identifiers = getIdentifiers(response, request, r -> response.listRecords().setResumptionToken(r), allowedSets);
+        String metadataPrefix = request.getMetadataPrefix();
+        int pageSize = pageSizer.pageSize(metadataPrefix);
+        long dbStart = System.nanoTime();
+        Page page = getIdentifiers(response, request, r -> response.listRecords().setResumptionToken(r), allowedSets, pageSize);
+        response.getStages().add(OaiStages.Stage.DATABASE, System.nanoTime() - dbStart);
+        List<OaiIdentifier> identifiers = page.getIdentifiers();
 
         if (response.hasErrors())
             return;
 
+        OaiValidator validator = new OaiValidator(request, allowedSets, page.isResumable() ? validatorWindow() : 0);
+        identifiers.forEach(id -> validator.add(id, allowedSets));
+        if (response.validate(validator)) {
+            log.info("Not modified");
+            return;
+        }
+
         ListRecordsType list = response.listRecords();
-        String metadataPrefix = request.getMetadataPrefix();
 
         List<URI> uris = identifiers.stream()
                 .filter(i -> !i.isDeleted() && !i.setspecsLimitedTo(allowedSets).isEmpty())
                 .map(i -> parallelFetch.buildUri(i.getIdentifier(), metadataPrefix, allowedSets, trackingId))
                 .collect(Collectors.toList());
 
-        List<Element> elements = parallelFetch.parallelFetch(uris, trackingId);
-
-        if (uris.size() != elements.size()) {
-            log.error("Error formatting records - got different list sizes: uris = {} and elements = {}", uris.size(), elements.size());
+        List<OaiFragment> fragments = fetch(response, metadataPrefix, uris, trackingId);
+
+        if (fragments.size() < uris.size() && !fragments.isEmpty() && config.isPartialPageOnTimeout()) {
+            // Timed out - cut the page at the first record that wasn't formatted
+            Iterator<OaiIdentifier> ids = identifiers.iterator();
+            int cut = 0;
+            int formatted = 0;
+            while (ids.hasNext()) {
+                OaiIdentifier id = ids.next();
+                if (!id.isDeleted() && !id.setspecsLimitedTo(allowedSets).isEmpty() && formatted++ == fragments.size())
+                    break;
+                cut++;
+            }
+            log.info("Partial page of {} records, resuming from {}", cut, identifiers.get(cut).getIdentifier());
+            page.cutAt(cut);
+            response.dropValidator(); // Content isn't what the validator describes
+        } else if (uris.size() != fragments.size()) {
+            log.error("Error formatting records - got different list sizes: uris = {} and fragments = {}", uris.size(), fragments.size());
             throw new ServerErrorException("Error formatting records", INTERNAL_SERVER_ERROR);
         }
 
@@ -283,23 +298,65 @@ public class OaiWorker {
                 makeHeaderFromIdentifierWithLimitedSetsFunction(allowedSets);
         List<RecordType> records = list.getRecords();
         Iterator<OaiIdentifier> ids = identifiers.iterator();
-        Iterator<Element> elems = elements.iterator();
+        Iterator<OaiFragment> frags = fragments.iterator();
         while (ids.hasNext()) {
             OaiIdentifier id = ids.next();
             RecordType record = O.createRecordType();
             HeaderType header = headerBuilder.apply(id);
             record.setHeader(header);
             if (!id.isDeleted() && !id.setspecsLimitedTo(allowedSets).isEmpty()) {
-                Element elem = elems.next();
+                OaiFragment fragment = frags.next();
                 // is not deleted and client has access to a set it is in
                 MetadataType metadata = O.createMetadataType();
-                metadata.setAny(elem);
+                metadata.setAny(response.embed(fragment));
                 record.setMetadata(metadata);
             }
             records.add(record);
         }
     }
 
+    /**
+     * Format records in parallel, and report the time spent to the page sizer
+     * <p>
+     * A fetch that timed out (or returned a partial page) is reported with the
+     * number of records that were formatted in time, so the page size shrinks before the next
+     * request times out as well
+     *
+     * @param response       where to register the time spent
+     * @param metadataPrefix the format
+     * @param uris           formatter uris
+     * @param trackingId     tracking id of the request
+     * @return list of XML-fragments
+     */
+    List<OaiFragment> fetch(OaiResponse response, String metadataPrefix, List<URI> uris, String trackingId) {
+        long fetchStart = System.nanoTime();
+        try {
+            List<OaiFragment> fragments = parallelFetch.parallelFetch(uris, trackingId);
+            long fetchTime = System.nanoTime() - fetchStart;
+            // A partial page (timeout) only has the records formatted in time
+            pageSizer.fetched(metadataPrefix, Math.max(1, fragments.size()), fetchTime);
+            response.getStages().add(OaiStages.Stage.FETCH, fetchTime);
+            return fragments;
+        } catch (FetchTimeoutException ex) {
+            long fetchTime = System.nanoTime() - fetchStart;
+            pageSizer.fetched(metadataPrefix, Math.max(1, ex.getCompleted()), fetchTime);
+            response.getStages().add(OaiStages.Stage.FETCH, fetchTime);
+            throw ex;
+        }
+    }
+
+    /**
+     * Time window for validators of responses with a resumption token
+     * <p>
+     * Half the lifetime of a resumption token, so a cached copy always has a
+     * usable token
+     *
+     * @return number of the current window
+     */
+    private long validatorWindow() {
+        return Instant.now().getEpochSecond() / Math.max(1, config.getResumptionTokenTimeoutInSeconds() / 2);
+    }
+
     /**
      * List set specifications
      * <p>
@@ -315,43 +372,7 @@ public class OaiWorker {
         if (response.hasErrors())
             return;
 
-        List<SetType> sets = response.listSets().getSets();
-        databaseMetadata.getSets()
-                .forEach(s -> {
-                    SetType set = O.createSetType();
-                    set.setSetSpec(s.getSetspec());
-                    set.setSetName(s.getSetname());
-                    DescriptionType desc = O.createDescriptionType();
-                    desc.setAny(makeSetDescription(s.getDescription()));
-                    set.getSetDescriptions().add(desc);
-                    sets.add(set);
-                });
-    }
-
-    private static final byte[] DC_DESCRIPTION_BYTES =
-            ( "<oai_dc:dc" +
-              " xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\"" +
-              " xmlns:dc=\"http://purl.org/dc/elements/1.1/\"" +
-              " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
-              " xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/oai_dc/" +
-              " http://www.openarchives.org/OAI/2.0/oai_dc.xsd\">" +
-              "<dc:description/>" +
-              "</oai_dc:dc>" ).getBytes(UTF_8);
-
-    private Element makeSetDescription(String desc) {
-        try (DocumentBuilderPool.Lease lease = documentBuilders.lease() ;
-             InputStream is = new ByteArrayInputStream(DC_DESCRIPTION_BYTES)) {
-            Document doc = lease.get().parse(is);
-            NodeList nodes = doc.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", "description");
-            if (nodes.getLength() != 1)
-                throw new AssertionError();
-            nodes.item(0).appendChild(doc.createTextNode(desc));
-            return doc.getDocumentElement();
-        } catch (SAXException | IOException ex) {
-            log.error("Error parsing dc description (static xml): {}", ex.getMessage());
-            log.debug("Error parsing dc description (static xml): ", ex);
-            throw new ServerErrorException("Cannot build description", INTERNAL_SERVER_ERROR);
-        }
+        response.usePreRendered(staticResponses.getListSets());
     }
 
     /**
@@ -362,14 +383,18 @@ public class OaiWorker {
      * - If no records are returned an error is set and an empty list is
      * returned
      * - If there are more records, the resumption token is set using the setter
+     * - If harvest snapshots are enabled, and no from is given, the records are
+     * taken from a frozen list of records
      *
      * @param response              Where errors are posted
      * @param request               The user request data
      * @param resumptionTokenSetter How to set the resumption token
-     * @return list of identifiers - might be empty
+     * @param allowedSets           Which sets user has access to
+     * @param pageSize              Max number of identifiers to return
+     * @return page of identifiers - might be empty
      * @throws SQLException If the database acts up
      */
-    private List<OaiIdentifier> getIdentifiers(OaiResponse response, OaiRequest request, Consumer<ResumptionTokenType> resumptionTokenSetter, Set<String> allowedSets) throws SQLException {
+    private Page getIdentifiers(OaiResponse response, OaiRequest request, Consumer<ResumptionTokenType> resumptionTokenSetter, Set<String> allowedSets, int pageSize) throws SQLException {
 
         if (!databaseMetadata.knownPrefix(request.getMetadataPrefix()))
             response.error(OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT, "Unknown metadata prefix");
@@ -377,6 +402,10 @@ public class OaiWorker {
         OaiTimestamp from;
         OaiTimestamp until;
         String set;
+        Long snapshot = null;
+        int offset = 0;
+        long completeListSize = -1; // Not yet computed
+        long cursor = 0;
 
         LinkedList<OaiIdentifier> identifiers;
 
@@ -391,33 +420,113 @@ public class OaiWorker {
                 response.error(OAIPMHerrorcodeType.BAD_ARGUMENT, "Unknown setspec");
 
             if (response.hasErrors())
-                return Collections.EMPTY_LIST;
+                return new Page();
 
-            if (set == null) {
-                identifiers = databaseWorker.listIdentifiers(from, until, allowedSets);
+            Set<String> sets = set == null ? allowedSets : singleton(set);
+            if (from == null && config.isHarvestSnapshots())
+                snapshot = databaseWorker.harvestSnapshot(sets, until);
+            if (snapshot != null) {
+                identifiers = databaseWorker.listSnapshotIdentifiers(snapshot, offset, pageSize);
             } else {
-                identifiers = databaseWorker.listIdentifiers(from, until, singleton(set));
+                identifiers = databaseWorker.listIdentifiers(from, until, sets, pageSize);
             }
         } else if (response.hasErrors()) { // format error
-            return Collections.EMPTY_LIST;
+            return new Page();
         } else {
             OaiResumptionToken resumptionToken = request.getResumptionToken();
             from = resumptionToken.getFrom();
             until = resumptionToken.getUntil();
             set = resumptionToken.getSet();
-            identifiers = databaseWorker.listIdentifiers(resumptionToken, allowedSets);
+            snapshot = resumptionToken.getSnapshot();
+            completeListSize = resumptionToken.getCompleteListSize();
+            cursor = resumptionToken.getCursor();
+            if (snapshot == null) {
+                identifiers = databaseWorker.listIdentifiers(resumptionToken, allowedSets, pageSize);
+            } else {
+                offset = resumptionToken.getOffset();
+                identifiers = databaseWorker.listSnapshotIdentifiers(snapshot, offset, pageSize);
+                if (identifiers.isEmpty() && !databaseWorker.hasHarvestSnapshot(snapshot)) {
+                    response.error(OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN, "Harvest has expired");
+                    return new Page();
+                }
+            }
         }
         log.debug("identifiers.size() = {}", identifiers.size());
         if (identifiers.isEmpty()) {
             response.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "There are no records in the interval");
-            return Collections.EMPTY_LIST;
+            return new Page();
         }
-        if (identifiers.size() > config.getMaxRowsPrRequest()) {
-            OaiIdentifier resumeFrom = identifiers.removeLast();
-            ResumptionTokenType token = ioBean.resumptionTokenFor(from, resumeFrom, until, set);
+        Page page = new Page(identifiers, resumptionTokenSetter, allowedSets,
+                             from, until, set, snapshot, offset, completeListSize, cursor);
+        if (identifiers.size() > pageSize)
+            page.cutAt(pageSize);
+        return page;
+    }
+
+    /**
+     * A list of identifiers, and what is needed to make a resumption token
+     * that continues from any of them
+     */
+    private final class Page {
+
+        private final LinkedList<OaiIdentifier> identifiers;
+        private final Consumer<ResumptionTokenType> resumptionTokenSetter;
+        private final Set<String> allowedSets;
+        private final OaiTimestamp from;
+        private final OaiTimestamp until;
+        private final String set;
+        private final Long snapshot;
+        private final int offset;
+        private long completeListSize;
+        private final long cursor;
+        private boolean resumable;
+
+        private Page() {
+            this(new LinkedList<>(), null, null, null, null, null, null, 0, 0, 0);
+        }
+
+        private Page(LinkedList<OaiIdentifier> identifiers, Consumer<ResumptionTokenType> resumptionTokenSetter, Set<String> allowedSets,
+                     OaiTimestamp from, OaiTimestamp until, String set, Long snapshot, int offset, long completeListSize, long cursor) {
+            this.identifiers = identifiers;
+            this.resumptionTokenSetter = resumptionTokenSetter;
+            this.allowedSets = allowedSets;
+            this.from = from;
+            this.until = until;
+            this.set = set;
+            this.snapshot = snapshot;
+            this.offset = offset;
+            this.completeListSize = completeListSize;
+            this.cursor = cursor;
+        }
+
+        private List<OaiIdentifier> getIdentifiers() {
+            return identifiers;
+        }
+
+        private boolean isResumable() {
+            return resumable;
+        }
+
+        /**
+         * Remove the identifiers from index, and set a resumption token that
+         * continues from the identifier at index
+         *
+         * @param index where to cut the list
+         * @throws SQLException If the list size cannot be estimated
+         */
+        private void cutAt(int index) throws SQLException {
+            OaiIdentifier resumeFrom = identifiers.get(index);
+            if (completeListSize < 0)
+                completeListSize = databaseWorker.estimateListSize(from, until, set == null ? allowedSets : singleton(set));
+            ResumptionTokenType token = snapshot == null ?
+                                        ioBean.resumptionTokenFor(from, resumeFrom, until, set, completeListSize, cursor, index) :
+                                        ioBean.resumptionTokenFor(until, set, snapshot, offset + index, completeListSize, cursor, index);
+            while (identifiers.size() > index) {
+                identifiers.removeLast();
+            }
             resumptionTokenSetter.accept(token);
+            resumable = true;
         }
-        return identifiers;
     }
 
     /**
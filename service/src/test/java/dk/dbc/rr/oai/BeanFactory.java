@@ -22,8 +22,13 @@ import dk.dbc.rr.oai.fetch.DocumentBuilderPool;
 import dk.dbc.rr.oai.fetch.IdpRights;
 import dk.dbc.rr.oai.fetch.ParallelFetch;
 import dk.dbc.rr.oai.io.OaiIOBean;
+import dk.dbc.rr.oai.io.OaiStages;
 import dk.dbc.rr.oai.worker.OaiDatabaseMetadata;
 import dk.dbc.rr.oai.worker.OaiDatabaseWorker;
+import dk.dbc.rr.oai.worker.OaiMetadataRefresh;
+import dk.dbc.rr.oai.worker.OaiPageSizer;
+import dk.dbc.rr.oai.worker.OaiRequestCoalescer;
+import dk.dbc.rr.oai.worker.OaiStaticResponses;
 import dk.dbc.rr.oai.worker.OaiWorker;
 import jakarta.ws.rs.client.ClientBuilder;
 import org.glassfish.jersey.client.JerseyClientBuilder;
@@ -103,16 +108,34 @@ public class BeanFactory {
     }
 
     public static ParallelFetch newParallelFetch(Config config) {
-        return newParallelFetch(config, newDocumentBuilderPool(config));
-    }
-
-    public static ParallelFetch newParallelFetch(Config config, DocumentBuilderPool documentBuilderPool) {
         ParallelFetch parallelFetch = new ParallelFetch();
         parallelFetch.config = config;
-        parallelFetch.documentBuilders = documentBuilderPool;
         return parallelFetch;
     }
 
+    /**
+     * Metrics that aren't reported anywhere
+     *
+     * @return metrics bean
+     */
+    public static OaiMetrics newOaiMetrics() {
+        return new OaiMetrics() {
+            @Override
+            protected void timing(OaiStages.Stage stage, String verb, String metadataPrefix, long nanos) {
+            }
+
+            @Override
+            protected void count(String name, long count) {
+            }
+        };
+    }
+
+    public static ClientLimiter newClientLimiter(Config config) {
+        ClientLimiter clientLimiter = new ClientLimiter();
+        clientLimiter.config = config;
+        return clientLimiter;
+    }
+
     public static RemoteIp newRemoteIp(Config config) {
         RemoteIp remoteIp = new RemoteIp();
         remoteIp.config = config;
@@ -127,11 +150,14 @@ public class BeanFactory {
 
     public static OaiBean newOaiBean(Config config, IdpRights idpRights, IndexHtml indexHtml, RemoteIp remoteIp, OaiIOBean oiIOBean, OaiWorker oaiWorker) {
         OaiBean oaiBean = new OaiBean();
+        oaiBean.clientLimiter = newClientLimiter(config);
         oaiBean.config = config;
         oaiBean.idpRights = idpRights;
         oaiBean.indexHtml = indexHtml;
         oaiBean.remoteIp = remoteIp;
         oaiBean.oaiIO = oiIOBean;
+        oaiBean.oaiMetrics = newOaiMetrics();
+        oaiBean.oaiRequestCoalescer = newOaiRequestCoalescer(config, oaiWorker);
         oaiBean.oaiWorker = oaiWorker;
         return oaiBean;
     }
@@ -139,6 +165,7 @@ public class BeanFactory {
     public static OaiIOBean newOaiIOBean(Config config) {
         OaiIOBean oaiIOBean = new OaiIOBean();
         oaiIOBean.config = config;
+        oaiIOBean.init();
         return oaiIOBean;
     }
 
@@ -147,16 +174,48 @@ public class BeanFactory {
         oaiWorker.config = config;
         oaiWorker.databaseWorker = newOaiDatabaseWorker(config, dataSource);
         oaiWorker.databaseMetadata = newDatabaseMetadata(dataSource);
-        oaiWorker.documentBuilders = newDocumentBuilderPool(config);
         oaiWorker.ioBean = ioBean;
-        oaiWorker.parallelFetch = newParallelFetch(config, oaiWorker.documentBuilders);
+        oaiWorker.staticResponses = newOaiStaticResponses(config, oaiWorker.databaseMetadata, newDocumentBuilderPool(config));
+        oaiWorker.pageSizer = newOaiPageSizer(config);
+        oaiWorker.parallelFetch = newParallelFetch(config);
         return oaiWorker;
     }
 
+    public static OaiRequestCoalescer newOaiRequestCoalescer(Config config, OaiWorker oaiWorker) {
+        OaiRequestCoalescer oaiRequestCoalescer = new OaiRequestCoalescer();
+        oaiRequestCoalescer.config = config;
+        oaiRequestCoalescer.oaiWorker = oaiWorker;
+        return oaiRequestCoalescer;
+    }
+
+    public static OaiPageSizer newOaiPageSizer(Config config) {
+        OaiPageSizer oaiPageSizer = new OaiPageSizer();
+        oaiPageSizer.config = config;
+        return oaiPageSizer;
+    }
+
+    public static OaiStaticResponses newOaiStaticResponses(Config config, OaiDatabaseMetadata databaseMetadata, DocumentBuilderPool documentBuilderPool) {
+        OaiStaticResponses oaiStaticResponses = new OaiStaticResponses();
+        oaiStaticResponses.config = config;
+        oaiStaticResponses.databaseMetadata = databaseMetadata;
+        oaiStaticResponses.documentBuilders = documentBuilderPool;
+        oaiStaticResponses.init();
+        return oaiStaticResponses;
+    }
+
+    public static OaiMetadataRefresh newOaiMetadataRefresh(Config config, OaiDatabaseMetadata databaseMetadata, OaiStaticResponses staticResponses) {
+        OaiMetadataRefresh oaiMetadataRefresh = new OaiMetadataRefresh();
+        oaiMetadataRefresh.config = config;
+        oaiMetadataRefresh.databaseMetadata = databaseMetadata;
+        oaiMetadataRefresh.staticResponses = staticResponses;
+        return oaiMetadataRefresh;
+    }
+
     public static OaiDatabaseWorker newOaiDatabaseWorker(Config config, DataSource dataSource) {
         OaiDatabaseWorker oaiDatabaseWorker = new OaiDatabaseWorker();
         oaiDatabaseWorker.config = config;
         oaiDatabaseWorker.dataSource = dataSource;
+        oaiDatabaseWorker.metrics = newOaiMetrics();
         return oaiDatabaseWorker;
     }
 
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run all (or some) of the JMH benchmarks, and write the results as JSON
+ * <p>
+ * Run with:
+ * {@code mvn -P benchmark test -DskipTests [-Dbenchmark.include=regex]}
+ * <p>
+ * The result is written to {@code target/jmh-${project.version}.json}, keep
+ * it to compare with the results of the next release.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0 ? args[0] : "jmh-result.json";
+        String include = args.length > 1 ? args[1] : "Benchmark\\.";
+        new Runner(new OptionsBuilder()
+                .include(include)
+                .addProfiler("gc")
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ClientLimiterTest {
+
+    @Test(timeout = 2_000L)
+    public void testUnlimited() throws Exception {
+        System.out.println("testUnlimited");
+        ClientLimiter limiter = newClientLimiter(newConfig());
+        for (int i = 0 ; i < 1000 ; i++) {
+            limiter.admit("ip:127.0.0.1");
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testConcurrency() throws Exception {
+        System.out.println("testConcurrency");
+        ClientLimiter limiter = newClientLimiter(newConfig("CLIENT_CONCURRENT_REQUESTS=2",
+                                                           "CLIENT_QUEUE_WAIT=0s"));
+        ClientLimiter.Permit first = limiter.admit("ip:127.0.0.1");
+        try (ClientLimiter.Permit second = limiter.admit("ip:127.0.0.1")) {
+            assertUnavailable(limiter, "ip:127.0.0.1");
+            limiter.admit("ip:127.0.0.2").close(); // Other clients are unaffected
+        }
+        limiter.admit("ip:127.0.0.1").close();
+        first.close();
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRate() throws Exception {
+        System.out.println("testRate");
+        ClientLimiter limiter = newClientLimiter(newConfig("CLIENT_REQUESTS_PR_MINUTE=60"));
+        // Burst of 10 seconds
+        for (int i = 0 ; i < 10 ; i++) {
+            limiter.admit("identity:user:group").close();
+        }
+        Response response = assertUnavailable(limiter, "identity:user:group");
+        assertThat(response.getHeaderString(HttpHeaders.RETRY_AFTER), is("1"));
+        limiter.admit("identity:user:other").close();
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRejectedDoesntUseRate() throws Exception {
+        System.out.println("testRejectedDoesntUseRate");
+        ClientLimiter limiter = newClientLimiter(newConfig("CLIENT_CONCURRENT_REQUESTS=1",
+                                                           "CLIENT_QUEUE_WAIT=0s",
+                                                           "CLIENT_REQUESTS_PR_MINUTE=12")); // Burst of 2
+        try (ClientLimiter.Permit first = limiter.admit("ip:127.0.0.1")) {
+            assertUnavailable(limiter, "ip:127.0.0.1"); // Concurrency
+        }
+        limiter.admit("ip:127.0.0.1").close();
+        assertUnavailable(limiter, "ip:127.0.0.1"); // Rate
+    }
+
+    @Test(timeout = 2_000L)
+    public void testClientKey() throws Exception {
+        System.out.println("testClientKey");
+        assertThat(OaiBean.clientKey("user:group:password", "127.0.0.1"), is("identity:user:group"));
+        assertThat(OaiBean.clientKey(null, "127.0.0.1"), is("ip:127.0.0.1"));
+        assertThat(OaiBean.clientKey("nonsense", "127.0.0.1"), is("ip:127.0.0.1"));
+    }
+
+    private static Response assertUnavailable(ClientLimiter limiter, String client) {
+        try {
+            limiter.admit(client).close();
+            fail("Expected 503");
+            return null;
+        } catch (WebApplicationException ex) {
+            Response response = ex.getResponse();
+            assertThat(response.getStatus(), is(503));
+            assertThat(response.getHeaderString(HttpHeaders.RETRY_AFTER), notNullValue());
+            return response;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.ContentEncoding.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ContentEncodingTest {
+
+    @Test(timeout = 2_000L)
+    public void testNegotiate() throws Exception {
+        System.out.println("testNegotiate");
+        assertThat(negotiate(null), nullValue());
+        assertThat(negotiate(""), nullValue());
+        assertThat(negotiate("identity"), nullValue());
+        assertThat(negotiate("br"), nullValue());
+        assertThat(negotiate("gzip"), is(GZIP));
+        assertThat(negotiate("GZip"), is(GZIP));
+        assertThat(negotiate("x-gzip"), is(GZIP));
+        assertThat(negotiate("deflate"), is(DEFLATE));
+        assertThat(negotiate("gzip, deflate, br"), is(GZIP));
+        assertThat(negotiate("deflate, gzip"), is(GZIP));
+        assertThat(negotiate("gzip;q=0.5, deflate"), is(DEFLATE));
+        assertThat(negotiate("gzip;q=0, deflate;q=0"), nullValue());
+        assertThat(negotiate("gzip; q=0"), nullValue());
+        assertThat(negotiate("*"), is(GZIP));
+        assertThat(negotiate("gzip;q=0, *"), nullValue());
+        assertThat(negotiate("gzip;q=0, *, deflate"), is(DEFLATE));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRoundTrip() throws Exception {
+        System.out.println("testRoundTrip");
+        StringBuilder sb = new StringBuilder("<OAI-PMH>");
+        for (int i = 0 ; i < 1000 ; i++) {
+            sb.append("<record><header><identifier>870970-basis:").append(i).append("</identifier></header></record>");
+        }
+        byte[] content = sb.append("</OAI-PMH>").toString().getBytes(UTF_8);
+
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            encoding.entity(content, 6).write(bos);
+            byte[] compressed = bos.toByteArray();
+            System.out.println(encoding.getName() + ": " + content.length + " -> " + compressed.length);
+            assertThat(compressed.length < content.length / 10, is(true));
+            try (InputStream is = encoding == GZIP ?
+                                  new GZIPInputStream(new ByteArrayInputStream(compressed)) :
+                                  new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+                assertThat(is.readAllBytes(), is(content));
+            }
+        }
+    }
+}
@@ -90,6 +90,8 @@ public class DB {
              Statement stmt = connection.createStatement()) {
             stmt.executeUpdate("TRUNCATE oairecords CASCADE");
             stmt.executeUpdate("TRUNCATE oairecordsets CASCADE");
+            stmt.executeUpdate("TRUNCATE oaisnapshots CASCADE");
+            stmt.executeUpdate("TRUNCATE oaisetcounts CASCADE");
         }
 
     }
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dk.dbc.rr.oai.BeanFactory.newConfig;
+import static dk.dbc.rr.oai.BeanFactory.newOaiBean;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Load test of the service, against a PostgreSQL (Testcontainers) with a
+ * synthetic population, and stand-ins for the formatter and IDP service
+ * <p>
+ * Run with:
+ * {@code mvn -P loadtest test -DskipTests [-Dload.records=1000000 ...]
+ * [-Dexec.args="MAX_ROWS_PR_REQUEST=500 ..."]}
+ * <p>
+ * Settings (system properties):
+ * <ul>
+ * <li>load.records: number of records to generate (100000)
+ * <li>load.seed: seed for the generated population (1)
+ * <li>load.clients: number of concurrent clients (8)
+ * <li>load.seconds: duration of the test (60)
+ * <li>load.formatterLatency: mean formatter latency in ms (20)
+ * <li>load.idpLatency: mean IDP latency in ms (5)
+ * <li>load.maxPages: max number of pages to follow in a harvest (10)
+ * <li>load.mix: weighted verbs
+ * ({@code ListRecords=40,ListIdentifiers=20,GetRecord=30,Identify=4,ListSets=3,ListMetadataFormats=3})
+ * </ul>
+ * Arguments on the form {@code NAME=value} are service configuration
+ * (MAX_ROWS_PR_REQUEST defaults to 100 here).
+ * <p>
+ * Requests go through authentication (every time, there's no cache outside
+ * the container), request processing and rendering, not the JAX-RS layer.
+ * Harvests follow the resumption tokens, every page is a request of its own.
+ * Database connections aren't pooled (unlike in the container).
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class LoadHarness extends DB {
+
+    private static final Pattern RESUMPTION_TOKEN = Pattern.compile("<resumptionToken[^>]*>([^<]+)</resumptionToken>");
+    private static final Pattern ERROR = Pattern.compile("<error code=\"([^\"]+)\"");
+    private static final String[] SETS = {"art", "bkm", "nat", "onl"};
+    private static final String[] TRIPLES = {null, "load:502:secret"};
+    private static final Instant FIRST = Instant.parse("2019-01-01T00:00:00Z");
+
+    private final int records;
+    private final int clients;
+    private final int seconds;
+    private final int maxPages;
+    private final Map<String, Integer> mix;
+    private final String[] env;
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness(args).run();
+    }
+
+    private LoadHarness(String[] env) {
+        this.records = Integer.getInteger("load.records", 100_000);
+        this.clients = Integer.getInteger("load.clients", 8);
+        this.seconds = Integer.getInteger("load.seconds", 60);
+        this.maxPages = Integer.getInteger("load.maxPages", 10);
+        this.mix = mix(System.getProperty("load.mix", "ListRecords=40,ListIdentifiers=20,GetRecord=30,Identify=4,ListSets=3,ListMetadataFormats=3"));
+        this.env = env;
+    }
+
+    private void run() throws Exception {
+        try (StubServices stubs = new StubServices(Integer.getInteger("load.formatterLatency", 20),
+                                                   Integer.getInteger("load.idpLatency", 5),
+                                                   clients * 16)) {
+            wipeDatabase();
+            seed();
+            ArrayList<String> envs = new ArrayList<>(Arrays.asList(
+                    "RAWREPO_OAI_FORMATTER_SERVICE_URL=" + stubs.getFormatterUrl(),
+                    "IDP_URL=" + stubs.getIdpUrl(),
+                    "MAX_ROWS_PR_REQUEST=100"));
+            envs.addAll(Arrays.asList(env));
+            OaiBean oaiBean = newOaiBean(newConfig(envs.toArray(String[]::new)), ds);
+
+            Map<String, Long> dbBefore = dbStatistics();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+            for (int i = 0 ; i < clients ; i++) {
+                int client = i;
+                futures.add(executor.submit(() -> new Client(oaiBean, client).run(deadline)));
+            }
+            Map<String, Latencies> all = new TreeMap<>();
+            for (Future<Map<String, Latencies>> future : futures) {
+                future.get().forEach((name, latencies) -> all.computeIfAbsent(name, n -> new Latencies()).addAll(latencies));
+            }
+            executor.shutdown();
+            Map<String, Long> dbAfter = dbStatistics();
+            report(all, dbBefore, dbAfter);
+        }
+    }
+
+    private void seed() throws SQLException {
+        System.out.println("Generating " + records + " records");
+        long start = System.nanoTime();
+        new SyntheticData(ds)
+                .records(records)
+                .seed(Long.getLong("load.seed", 1L))
+                .load();
+        System.out.printf("Generated in %.1fs%n", ( System.nanoTime() - start ) / 1e9);
+    }
+
+    private Map<String, Long> dbStatistics() throws SQLException {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_stat_clear_snapshot()");
+            try (ResultSet resultSet = stmt.executeQuery("SELECT xact_commit, blks_read, blks_hit, tup_returned, tup_fetched" +
+                                                         " FROM pg_stat_database WHERE datname = current_database()")) {
+                if (resultSet.next()) {
+                    for (int i = 1 ; i <= 5 ; i++) {
+                        stats.put(resultSet.getMetaData().getColumnName(i), resultSet.getLong(i));
+                    }
+                }
+            }
+            try (ResultSet resultSet = stmt.executeQuery("SELECT relname, seq_scan, seq_tup_read, idx_scan, idx_tup_fetch" +
+                                                         " FROM pg_stat_user_tables WHERE relname LIKE 'oai%' ORDER BY relname")) {
+                while (resultSet.next()) {
+                    for (int i = 2 ; i <= 5 ; i++) {
+                        stats.put(resultSet.getString(1) + "." + resultSet.getMetaData().getColumnName(i), resultSet.getLong(i));
+                    }
+                }
+            }
+        }
+        return stats;
+    }
+
+    private void report(Map<String, Latencies> all, Map<String, Long> dbBefore, Map<String, Long> dbAfter) {
+        System.out.printf("%n%-24s %8s %7s %9s %9s %9s %9s %9s%n", "request", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        Latencies total = new Latencies();
+        all.forEach((name, latencies) -> {
+            print(name, latencies);
+            total.addAll(latencies);
+        });
+        print("total", total);
+        System.out.printf("%n%-40s %12s%n", "database", "delta");
+        dbAfter.forEach((name, value) -> System.out.printf("%-40s %12d%n", name, value - dbBefore.getOrDefault(name, 0L)));
+    }
+
+    private void print(String name, Latencies latencies) {
+        System.out.printf("%-24s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, latencies.size(), latencies.errors(),
+                          latencies.size() / (double) seconds,
+                          latencies.percentile(50) / 1e6, latencies.percentile(90) / 1e6,
+                          latencies.percentile(99) / 1e6, latencies.percentile(100) / 1e6);
+    }
+
+    private static Map<String, Integer> mix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            mix.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        return mix;
+    }
+
+    /**
+     * One client, that sends requests one at a time
+     */
+    private class Client {
+
+        private final OaiBean oaiBean;
+        private final String ip;
+        private final Map<String, Latencies> latencies;
+        private final int totalWeight;
+        private int sequence;
+
+        private Client(OaiBean oaiBean, int client) {
+            this.oaiBean = oaiBean;
+            this.ip = "10.0." + client / 256 + "." + client % 256;
+            this.latencies = new TreeMap<>();
+            this.totalWeight = mix.values().stream().mapToInt(i -> i).sum();
+            this.sequence = 0;
+        }
+
+        private Map<String, Latencies> run(long deadline) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                String triple = TRIPLES[random.nextInt(TRIPLES.length)];
+                String verb = pickVerb(random.nextInt(totalWeight));
+                switch (verb) {
+                    case "ListRecords":
+                    case "ListIdentifiers":
+                        harvest(triple, verb, random, deadline);
+                        break;
+                    case "GetRecord":
+                        request(verb, triple, "verb=GetRecord&metadataPrefix=" + prefix(random) +
+                                              "&identifier=870970-" + String.format("%08d", 1 + random.nextInt(Math.max(1, records / 2))));
+                        break;
+                    default:
+                        request(verb, triple, "verb=" + verb);
+                        break;
+                }
+            }
+            return latencies;
+        }
+
+        private void harvest(String triple, String verb, ThreadLocalRandom random, long deadline) {
+            String from = FIRST.plusSeconds(86_400L * random.nextInt(365)).toString();
+            String qs = "verb=" + verb + "&metadataPrefix=" + prefix(random) + "&from=" + from;
+            if (random.nextBoolean())
+                qs += "&set=" + SETS[random.nextInt(SETS.length)];
+            String content = request(verb, triple, qs);
+            for (int page = 1 ; page < maxPages && content != null && System.nanoTime() < deadline ; page++) {
+                Matcher matcher = RESUMPTION_TOKEN.matcher(content);
+                if (!matcher.find())
+                    break;
+                content = request(verb + " (resumed)", triple, "verb=" + verb + "&resumptionToken=" + matcher.group(1));
+            }
+        }
+
+        private String request(String name, String triple, String qs) {
+            Latencies stat = latencies.computeIfAbsent(name, n -> new Latencies());
+            String trackingId = "load-" + ip + "-" + sequence++;
+            long start = System.nanoTime();
+            try {
+                Set<String> allowedSets = oaiBean.getAllowedSets(triple, ip);
+                byte[] bytes = oaiBean.processOaiRequest(allowedSets, params(qs), trackingId);
+                String content = new String(bytes, UTF_8);
+                Matcher error = ERROR.matcher(content);
+                // noRecordsMatch is a valid answer to a random from/set
+                stat.add(System.nanoTime() - start, error.find() && !error.group(1).equals("noRecordsMatch"));
+                return content;
+            } catch (RuntimeException ex) {
+                stat.add(System.nanoTime() - start, true);
+                System.err.println(trackingId + ": " + ex);
+                return null;
+            }
+        }
+
+        private String pickVerb(int weight) {
+            for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                weight -= entry.getValue();
+                if (weight < 0)
+                    return entry.getKey();
+            }
+            throw new IllegalStateException("Weight out of range");
+        }
+
+        private String prefix(ThreadLocalRandom random) {
+            return random.nextInt(4) == 0 ? "oai_dc" : "marcx";
+        }
+
+        private MultivaluedHashMap<String, String> params(String qs) {
+            MultivaluedHashMap<String, String> map = new MultivaluedHashMap<>();
+            for (String part : qs.split("&")) {
+                String[] kv = part.split("=", 2);
+                map.add(kv[0], kv[1]);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Collected response times (in nanoseconds)
+     */
+    private static class Latencies {
+
+        private long[] nanos = new long[1024];
+        private int size = 0;
+        private int errors = 0;
+        private boolean sorted = true;
+
+        private void add(long value, boolean error) {
+            if (size == nanos.length)
+                nanos = Arrays.copyOf(nanos, size * 2);
+            nanos[size++] = value;
+            if (error)
+                errors++;
+            sorted = false;
+        }
+
+        private void addAll(Latencies other) {
+            if (size + other.size > nanos.length)
+                nanos = Arrays.copyOf(nanos, size + other.size);
+            System.arraycopy(other.nanos, 0, nanos, size, other.size);
+            size += other.size;
+            errors += other.errors;
+            sorted = false;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int errors() {
+            return errors;
+        }
+
+        private long percentile(int percent) {
+            if (size == 0)
+                return 0;
+            if (!sorted) {
+                Arrays.sort(nanos, 0, size);
+                sorted = true;
+            }
+            return nanos[Math.max(0, (int) Math.ceil(size * percent / 100.0) - 1)];
+        }
+    }
+}
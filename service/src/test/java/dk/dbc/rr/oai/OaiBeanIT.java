@@ -18,6 +18,8 @@
  */
 package dk.dbc.rr.oai;
 
+import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiValidator;
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import jakarta.ws.rs.core.MultivaluedMap;
 import org.hamcrest.BaseMatcher;
@@ -41,6 +43,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -56,6 +60,8 @@ import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 /**
@@ -122,6 +128,48 @@ public class OaiBeanIT extends DB {
                    "<marcx:"));
     }
 
+    @Test(timeout = 2_000L)
+    public void testGetRecordConditional() throws Exception {
+        System.out.println("testGetRecordConditional");
+        insert("870970-00020389").set("nat=").commit();
+        Set<String> allowedSets = new HashSet<>(Arrays.asList("nat"));
+        MultivaluedMap<String, String> params = queryString("verb=GetRecord&identifier=870970-00020389&metadataPrefix=marcx");
+
+        OaiResponse response = oaiBean.processOaiRequest(allowedSets, params, "tracking", null, null);
+        assertThat(response.isNotModified(), is(false));
+        OaiValidator validator = response.getValidator();
+        assertThat(validator, notNullValue());
+        assertThat(validator.getETag(), startsWith("W/\""));
+
+        response = oaiBean.processOaiRequest(allowedSets, params, "tracking", validator.getETag(), null);
+        assertThat(response.isNotModified(), is(true));
+        response = oaiBean.processOaiRequest(allowedSets, params, "tracking", "W/\"other\"", null);
+        assertThat(response.isNotModified(), is(false));
+
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(validator.getLastModified().atZone(ZoneOffset.UTC));
+        response = oaiBean.processOaiRequest(allowedSets, params, "tracking", null, lastModified);
+        assertThat(response.isNotModified(), is(true));
+
+        insert("870970-00020389").set("nat=").commit(); // changed
+        response = oaiBean.processOaiRequest(allowedSets, params, "tracking", validator.getETag(), null);
+        assertThat(response.isNotModified(), is(false));
+    }
+
+    @Test(timeout = 15_000L)
+    public void listRecordsConditional() throws Exception {
+        System.out.println("listRecordsConditional");
+        loadResource("records-15-same-timestamp.json");
+        Set<String> allowedSets = new TreeSet<>(Arrays.asList("art", "bkm", "nat", "onl"));
+        MultivaluedMap<String, String> params = queryString("verb=ListRecords&from=2019-01-01&until=2222-12-31&set=nat&metadataPrefix=marcx");
+
+        OaiResponse response = oaiBean.processOaiRequest(allowedSets, params, "tracking", null, null);
+        String etag = response.getValidator().getETag();
+        response = oaiBean.processOaiRequest(allowedSets, params, "tracking", etag, null);
+        assertThat(response.isNotModified(), is(true));
+        response = oaiBean.processOaiRequest(new TreeSet<>(Arrays.asList("nat")), params, "tracking", etag, null);
+        assertThat(response.isNotModified(), is(false));
+    }
+
     @Test(timeout = 2_000L)
     public void testGetRecordDeleted() throws Exception {
         System.out.println("testGetRecordDeleted");
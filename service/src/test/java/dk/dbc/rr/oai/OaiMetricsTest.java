@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import dk.dbc.oai.pmh.OAIPMHerrorcodeType;
+import dk.dbc.rr.oai.io.OaiIOBean;
+import dk.dbc.rr.oai.io.OaiResponse;
+import dk.dbc.rr.oai.io.OaiStages;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiMetricsTest {
+
+    private static final OaiIOBean IO = newOaiIOBean(newConfig());
+
+    @Test(timeout = 2_000L)
+    public void testStagesEntered() throws Exception {
+        System.out.println("testStagesEntered");
+        OaiResponse response = response("verb=ListIdentifiers", "metadataPrefix=marcx");
+        response.getStages().add(OaiStages.Stage.AUTH, 1_000L);
+        response.getStages().add(OaiStages.Stage.DATABASE, 2_000L);
+        response.getStages().add(OaiStages.Stage.DATABASE, 3_000L);
+        Recorder recorder = new Recorder();
+        recorder.record(response);
+        assertThat(recorder.timings, is(asList("auth ListIdentifiers marcx 1000",
+                                               "database ListIdentifiers marcx 5000")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testMarshalIsTimed() throws Exception {
+        System.out.println("testMarshalIsTimed");
+        OaiResponse response = response("verb=Identify");
+        response.identify();
+        response.content("comment");
+        Recorder recorder = new Recorder();
+        recorder.record(response);
+        assertThat(recorder.timings.size(), is(1));
+        assertThat(recorder.timings.get(0), startsWith("marshal Identify none "));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testErrorsHaveNoMetadataPrefix() throws Exception {
+        System.out.println("testErrorsHaveNoMetadataPrefix");
+        OaiResponse response = response("verb=ListRecords", "metadataPrefix=junk");
+        response.error(OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT, "Unknown metadata prefix");
+        response.getStages().add(OaiStages.Stage.AUTH, 1_000L);
+        Recorder recorder = new Recorder();
+        recorder.record(response);
+        assertThat(recorder.timings, is(asList("auth ListRecords none 1000")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRows() throws Exception {
+        System.out.println("testRows");
+        Recorder recorder = new Recorder();
+        recorder.rows(7, 3);
+        assertThat(recorder.counts, is(asList("oai_database_rows_fetched 7",
+                                              "oai_database_rows_returned 3")));
+    }
+
+    private static OaiResponse response(String... params) {
+        MultivaluedHashMap<String, String> map = new MultivaluedHashMap<>();
+        for (String param : params) {
+            String[] kv = param.split("=", 2);
+            map.add(kv[0], kv[1]);
+        }
+        return IO.oaiResponseOf("http://foo/bar", map);
+    }
+
+    private static class Recorder extends OaiMetrics {
+
+        private final List<String> timings = new ArrayList<>();
+        private final List<String> counts = new ArrayList<>();
+
+        @Override
+        protected void timing(OaiStages.Stage stage, String verb, String metadataPrefix, long nanos) {
+            timings.add(stage.getLabel() + " " + verb + " " + metadataPrefix + " " + nanos);
+        }
+
+        @Override
+        protected void count(String name, long count) {
+            counts.add(name + " " + count);
+        }
+    }
+}
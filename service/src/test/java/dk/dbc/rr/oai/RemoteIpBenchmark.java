@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static dk.dbc.rr.oai.BeanFactory.newConfig;
+import static dk.dbc.rr.oai.BeanFactory.newRemoteIp;
+
+/**
+ * Resolving the client ip through X-Forwarded-For, as done on every request
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ * @see Benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteIpBenchmark {
+
+    @Param({"direct", "ipv4", "ipv6", "chain"})
+    public String hops;
+
+    private RemoteIp remoteIp;
+    private String ip;
+    private String xForwardedFor;
+
+    @Setup
+    public void setUp() {
+        remoteIp = newRemoteIp(newConfig());
+        switch (hops) {
+            case "direct":
+                ip = "8.8.8.8";
+                xForwardedFor = null;
+                break;
+            case "ipv4":
+                ip = "10.1.2.3";
+                xForwardedFor = "8.8.8.8";
+                break;
+            case "ipv6":
+                ip = "::1";
+                xForwardedFor = "2001:db8::8a2e:370:7334";
+                break;
+            case "chain":
+                ip = "127.0.0.1";
+                xForwardedFor = "1.2.3.4, 8.8.8.8, 172.16.0.1, fd00::1, 192.168.1.1";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown hops: " + hops);
+        }
+    }
+
+    @Benchmark
+    public String clientIp() {
+        return remoteIp.clientIp(ip, xForwardedFor);
+    }
+}
@@ -18,6 +18,7 @@
  */
 package dk.dbc.rr.oai;
 
+import dk.dbc.rr.oai.RemoteIp.Ip6Range;
 import dk.dbc.rr.oai.RemoteIp.IpRange;
 import java.util.Arrays;
 import java.util.List;
@@ -25,6 +26,7 @@ import java.util.stream.Stream;
 import org.junit.Test;
 
 import static dk.dbc.rr.oai.RemoteIp.ipOf;
+import static dk.dbc.rr.oai.RemoteIp.parseIpv6;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -118,4 +120,74 @@ public class RemoteIpTest {
         assertThat(remoteIp.clientIp("127.0.0.1", "my-host-name, 10.1.2.3"), is("my-host-name"));
         assertThat(remoteIp.clientIp("::1", "my-host-name, 10.1.2.3"), is("::1"));
     }
+
+    @Test(timeout = 2_000L)
+    public void testParseIpv6() throws Exception {
+        System.out.println("testParseIpv6");
+        long[] ip = new long[2];
+
+        assertThat(parseIpv6("::", 0, 2, ip), is(true));
+        assertThat(ip[0], is(0L));
+        assertThat(ip[1], is(0L));
+        assertThat(parseIpv6("::1", 0, 3, ip), is(true));
+        assertThat(ip[1], is(1L));
+        assertThat(parseIpv6("[2001:db8::ff00:42:8329]", 0, 24, ip), is(true));
+        assertThat(ip[0], is(0x20010db800000000L));
+        assertThat(ip[1], is(0x0000ff0000428329L));
+        assertThat(parseIpv6("2001:0db8:0000:0000:0000:ff00:0042:8329", 0, 39, ip), is(true));
+        assertThat(ip[0], is(0x20010db800000000L));
+        assertThat(ip[1], is(0x0000ff0000428329L));
+        assertThat(parseIpv6("::ffff:10.1.2.3", 0, 15, ip), is(true));
+        assertThat(ip[1], is(0x0000ffff0a010203L));
+        assertThat(parseIpv6("fe80::", 0, 6, ip), is(true));
+        assertThat(ip[0], is(0xfe80000000000000L));
+
+        Stream.of("", ":", ":1", "1:", "1:::2", "1::2::3", "12345::", "1:2:3:4:5:6:7:8:9",
+                  "1:2:3:4:5:6:7:8::", "1:2:3:4:5:6:7", "::10.1.2", "::g", "fe80::1%eth0",
+                  "1.2.3.4", "my-host-name")
+                .forEach(bad -> assertThat(bad, parseIpv6(bad, 0, bad.length(), ip), is(false)));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testIp6Range() throws Exception {
+        System.out.println("testIp6Range");
+
+        assertThat(Ip6Range.of("fc00::/7"), is(Ip6Range.of("fc00::-fdff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertThat(Ip6Range.of("2001:db8::1/64"), is(Ip6Range.of("2001:db8::-2001:db8::ffff:ffff:ffff:ffff")));
+        assertThat(Ip6Range.of("2001:db8::1/128"), is(Ip6Range.of("2001:db8::1")));
+        assertThat(Ip6Range.of("2001:db8::1/0"), is(Ip6Range.of("::-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+
+        Stream.of("::1-::1", "::2-::1", "::1/129", "::1/a", "::1/01", "::g/64")
+                .forEach(badRange -> {
+                    try {
+                        Ip6Range.of(badRange);
+                        assertThat("Expected exception of range: " + badRange, false);
+                    } catch (RuntimeException ex) {
+                        System.out.println("Exception of: " + badRange + " expected");
+                    }
+                });
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRemoteIpMixed() throws Exception {
+        System.out.println("testRemoteIpMixed");
+
+        RemoteIp remoteIp = new RemoteIp();
+        remoteIp.config = new Config() {
+            @Override
+            public List<String> getxForwardedFor() {
+                return Arrays.asList("10.0.0.0/9", "10.128.0.0/9", "10.0.0.1", "127.0.0.0/8", "::1", "fc00::/7", "fd00::/8");
+            }
+        };
+        remoteIp.init();
+
+        assertThat(remoteIp.clientIp("::1", "12.34.56.78"), is("12.34.56.78"));
+        assertThat(remoteIp.clientIp("::1", "2001:db8::1, fd12::1"), is("2001:db8::1"));
+        assertThat(remoteIp.clientIp("fd12::1", " 2001:db8::1 ,, 10.200.0.1 , "), is("2001:db8::1"));
+        assertThat(remoteIp.clientIp("::ffff:10.1.2.3", "12.34.56.78"), is("12.34.56.78"));
+        assertThat(remoteIp.clientIp("::2", "12.34.56.78"), is("::2"));
+        assertThat(remoteIp.clientIp("127.0.0.1", ", 10.1.2.3"), is("10.1.2.3"));
+        assertThat(remoteIp.clientIp("127.0.0.1", ""), is("127.0.0.1"));
+        assertThat(remoteIp.clientIp("127.0.0.1", "01.2.3.4, 10.1.2.3"), is("01.2.3.4"));
+    }
 }
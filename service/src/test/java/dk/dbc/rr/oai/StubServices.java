@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Local stand-ins for the formatter and the IDP service, with configurable
+ * latency
+ * <p>
+ * Like the WireMock setup of the integration tests, the formatter serves a
+ * recorded marcx record (oai_dc is generated). The IDP authorizes everybody,
+ * triples get the DANBIB/502 right. Each response is delayed between half
+ * and one and a half times the configured latency.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class StubServices implements AutoCloseable {
+
+    private static final String MARCX = "wiremock/__files/body-api-format-mZ3Rm.xml";
+    private static final byte[] IDP_IP = "{\"authenticated\":true,\"rights\":[]}".getBytes(UTF_8);
+    private static final byte[] IDP_TRIPLE = "{\"authenticated\":true,\"rights\":[{\"productName\":\"DANBIB\",\"name\":\"502\",\"description\":\"...\"}]}".getBytes(UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] marcx;
+    private final int formatterLatencyMs;
+    private final int idpLatencyMs;
+
+    /**
+     * Start the services on a free port
+     *
+     * @param formatterLatencyMs mean latency of the formatter
+     * @param idpLatencyMs       mean latency of the IDP service
+     * @param threads            number of request handling threads
+     * @throws IOException if the server cannot be started
+     */
+    public StubServices(int formatterLatencyMs, int idpLatencyMs, int threads) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(MARCX)) {
+            if (is == null)
+                throw new IllegalStateException("Cannot open resource: " + MARCX);
+            this.marcx = is.readAllBytes();
+        }
+        this.formatterLatencyMs = formatterLatencyMs;
+        this.idpLatencyMs = idpLatencyMs;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/rawrepo-oai-formatter-service/api/format", this::format);
+        server.createContext("/idp/authorize", this::authorize);
+        server.start();
+    }
+
+    public String getFormatterUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/rawrepo-oai-formatter-service";
+    }
+
+    public String getIdpUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/idp";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void format(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String format = param(query, "format");
+        byte[] content;
+        if ("marcx".equals(format)) {
+            content = marcx;
+        } else {
+            content = ( "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">" +
+                        "<dc:identifier>" + param(query, "id") + "</dc:identifier>" +
+                        "</oai_dc:dc>" ).getBytes(UTF_8);
+        }
+        respond(exchange, formatterLatencyMs, "application/xml", content);
+    }
+
+    private void authorize(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream is = exchange.getRequestBody()) {
+            body = new String(is.readAllBytes(), UTF_8);
+        }
+        respond(exchange, idpLatencyMs, "application/json", body.contains("userIdAut") ? IDP_TRIPLE : IDP_IP);
+    }
+
+    private static void respond(HttpExchange exchange, int latencyMs, String contentType, byte[] content) throws IOException {
+        try {
+            if (latencyMs > 0)
+                Thread.sleep(latencyMs / 2 + ThreadLocalRandom.current().nextInt(latencyMs + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+
+    private static String param(String query, String name) {
+        if (query != null) {
+            for (String part : query.split("&")) {
+                if (part.startsWith(name + "="))
+                    return part.substring(name.length() + 1);
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bulk load of a synthetic population into oairecords/oairecordsets using
+ * {@code COPY}, for testing queries and indexes at a realistic scale
+ * <p>
+ * Records are spread over agencies the way the production data is; most are
+ * 870970 (nat, many bkm), a large part is 870971 (art), and a few are
+ * online only. This gives the skewed set sizes.
+ * <p>
+ * A share of the records is changed in bulk updates, where every record in
+ * the update has the same changed timestamp (and every set of a record has
+ * the same timestamp), the rest is spread evenly over the period.
+ * <p>
+ * The data is determined by the seed, so the same settings give the same
+ * population. Records are appended, the tables should be empty (or at least
+ * not contain the generated pids). oaisetcounts is rebuilt and the tables
+ * are analyzed after the load.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class SyntheticData {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSx");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Agency, share of records, and pr. set the share of the agency's
+     * records that are in it
+     */
+    private static final Agency[] AGENCIES = {
+        new Agency("870970", 0.55, "nat", 0.90, "bkm", 0.45, "onl", 0.03),
+        new Agency("870971", 0.40, "art", 0.95, "onl", 0.02),
+        new Agency("870976", 0.05, "onl", 0.60, "bkm", 0.10)
+    };
+
+    private final DataSource dataSource;
+    private int records = 100_000;
+    private long seed = 1L;
+    private double deleted = 0.05;
+    private double gone = 0.01;
+    private double bulkShare = 0.30;
+    private int bulkSize = 5_000;
+    private Instant from = Instant.parse("2019-01-01T00:00:00Z");
+    private Instant to = Instant.parse("2020-01-01T00:00:00Z");
+
+    public SyntheticData(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Number of records to generate (100000)
+     *
+     * @param records count
+     * @return self
+     */
+    public SyntheticData records(int records) {
+        this.records = records;
+        return this;
+    }
+
+    /**
+     * Seed for the random generator (1)
+     *
+     * @param seed seed
+     * @return self
+     */
+    public SyntheticData seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Share of records that are deleted (0.05)
+     *
+     * @param deleted fraction
+     * @return self
+     */
+    public SyntheticData deleted(double deleted) {
+        this.deleted = deleted;
+        return this;
+    }
+
+    /**
+     * Share of set memberships that are gone (0.01)
+     *
+     * @param gone fraction
+     * @return self
+     */
+    public SyntheticData gone(double gone) {
+        this.gone = gone;
+        return this;
+    }
+
+    /**
+     * Share of records that are changed in bulk updates (0.30), and the mean
+     * number of records in a bulk update (5000, exponentially distributed)
+     *
+     * @param bulkShare fraction
+     * @param bulkSize  mean size
+     * @return self
+     */
+    public SyntheticData bulk(double bulkShare, int bulkSize) {
+        this.bulkShare = bulkShare;
+        this.bulkSize = bulkSize;
+        return this;
+    }
+
+    /**
+     * Period of the changed timestamps (2019-01-01 - 2020-01-01)
+     *
+     * @param from first timestamp
+     * @param to   last timestamp (exclusive)
+     * @return self
+     */
+    public SyntheticData period(Instant from, Instant to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Generate and load the records
+     *
+     * @throws SQLException in case of database errors
+     */
+    public void load() throws SQLException {
+        try (Connection connection = dataSource.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            copy(connection, "COPY oairecords (pid, deleted) FROM STDIN", true);
+            copy(connection, "COPY oairecordsets (pid, setSpec, gone, changed) FROM STDIN", false);
+            stmt.executeUpdate("DELETE FROM oaisetcounts");
+            stmt.executeUpdate("INSERT INTO oaisetcounts (setSpec, day, records)" +
+                               " SELECT setSpec, DATE(changed AT TIME ZONE 'UTC'), COUNT(*) FROM oairecordsets GROUP BY 1, 2");
+            connection.commit();
+            connection.setAutoCommit(true);
+            stmt.executeUpdate("ANALYZE oairecords, oairecordsets, oaisetcounts");
+        }
+    }
+
+    /**
+     * Run the generator, and copy either the records or the set memberships
+     * into the database
+     * <p>
+     * Both passes draw the same random numbers, so they describe the same
+     * records.
+     *
+     * @param connection database connection
+     * @param sql        the COPY statement
+     * @param isRecords  if the rows are records (or set memberships)
+     * @throws SQLException in case of database errors
+     */
+    private void copy(Connection connection, String sql, boolean isRecords) throws SQLException {
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        try {
+            Random random = new Random(seed);
+            long period = to.toEpochMilli() - from.toEpochMilli();
+            int[] pids = new int[AGENCIES.length];
+            int bulkRemaining = 0;
+            String bulkChanged = null;
+            StringBuilder sb = new StringBuilder(BUFFER_SIZE + 1024);
+            for (int i = 0 ; i < records ; i++) {
+                int agencyNo = pickAgency(random.nextDouble());
+                Agency agency = AGENCIES[agencyNo];
+                String pid = agency.agencyId + "-" + String.format("%08d", ++pids[agencyNo]);
+                boolean isDeleted = random.nextDouble() < deleted;
+                String changed;
+                if (random.nextDouble() < bulkShare) {
+                    if (bulkRemaining <= 0) {
+                        bulkRemaining = 1 + (int) ( -Math.log(1.0 - random.nextDouble()) * bulkSize );
+                        bulkChanged = timestamp(from.toEpochMilli() + (long) ( random.nextDouble() * period ));
+                    }
+                    bulkRemaining--;
+                    changed = bulkChanged;
+                } else {
+                    changed = timestamp(from.toEpochMilli() + (long) ( random.nextDouble() * period ));
+                }
+                if (isRecords) {
+                    sb.append(pid).append('\t').append(isDeleted ? 't' : 'f').append('\n');
+                }
+                for (int s = 0 ; s < agency.setSpecs.length ; s++) {
+                    boolean inSet = random.nextDouble() < agency.shares[s];
+                    boolean isGone = random.nextDouble() < gone;
+                    if (inSet && !isRecords) {
+                        sb.append(pid).append('\t')
+                                .append(agency.setSpecs[s]).append('\t')
+                                .append(isGone ? 't' : 'f').append('\t')
+                                .append(changed).append('\n');
+                    }
+                }
+                if (sb.length() >= BUFFER_SIZE) {
+                    byte[] bytes = sb.toString().getBytes(UTF_8);
+                    copyIn.writeToCopy(bytes, 0, bytes.length);
+                    sb.setLength(0);
+                }
+            }
+            byte[] bytes = sb.toString().getBytes(UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive())
+                copyIn.cancelCopy();
+        }
+    }
+
+    private static int pickAgency(double draw) {
+        for (int i = 0 ; i < AGENCIES.length - 1 ; i++) {
+            draw -= AGENCIES[i].share;
+            if (draw < 0)
+                return i;
+        }
+        return AGENCIES.length - 1;
+    }
+
+    private static String timestamp(long epochMilli) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneOffset.UTC).format(TIMESTAMP);
+    }
+
+    private static class Agency {
+
+        private final String agencyId;
+        private final double share;
+        private final String[] setSpecs;
+        private final double[] shares;
+
+        private Agency(String agencyId, double share, Object... sets) {
+            this.agencyId = agencyId;
+            this.share = share;
+            this.setSpecs = new String[sets.length / 2];
+            this.shares = new double[sets.length / 2];
+            for (int i = 0 ; i < setSpecs.length ; i++) {
+                setSpecs[i] = (String) sets[i * 2];
+                shares[i] = (double) sets[i * 2 + 1];
+            }
+        }
+    }
+}
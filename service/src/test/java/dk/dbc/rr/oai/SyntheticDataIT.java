@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class SyntheticDataIT extends DB {
+
+    @Test(timeout = 20_000L)
+    public void testDistribution() throws Exception {
+        System.out.println("testDistribution");
+
+        new SyntheticData(ds)
+                .records(20_000)
+                .deleted(0.1)
+                .gone(0.1)
+                .bulk(0.5, 1_000)
+                .load();
+
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            try (ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*), SUM(CASE WHEN deleted THEN 1 ELSE 0 END) FROM oairecords")) {
+                resultSet.next();
+                assertThat(resultSet.getInt(1), is(20_000));
+                int deleted = resultSet.getInt(2);
+                assertThat("deleted ~10%", deleted > 1_600 && deleted < 2_400, is(true));
+            }
+            HashMap<String, Integer> sets = new HashMap<>();
+            try (ResultSet resultSet = stmt.executeQuery("SELECT setSpec, COUNT(*) FROM oairecordsets GROUP BY setSpec")) {
+                while (resultSet.next()) {
+                    sets.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            assertThat("nat > art", sets.get("nat") > sets.get("art"), is(true));
+            assertThat("art > bkm", sets.get("art") > sets.get("bkm"), is(true));
+            assertThat("bkm > onl", sets.get("bkm") > sets.get("onl"), is(true));
+            try (ResultSet resultSet = stmt.executeQuery("SELECT MAX(c) FROM (SELECT COUNT(*) AS c FROM oairecordsets GROUP BY changed) AS bulk")) {
+                resultSet.next();
+                assertThat("bulk updates", resultSet.getInt(1) > 100, is(true));
+            }
+            try (ResultSet resultSet = stmt.executeQuery("SELECT (SELECT SUM(records) FROM oaisetcounts) = (SELECT COUNT(*) FROM oairecordsets)")) {
+                resultSet.next();
+                assertThat("setcounts", resultSet.getBoolean(1), is(true));
+            }
+        }
+    }
+}
@@ -22,11 +22,11 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.io.OaiFragment;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.ServerErrorException;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
 
 import java.net.URI;
 import java.util.ArrayList;
@@ -75,7 +75,7 @@ public class ParallelFetchIT {
                 .map(id -> parallelFetch.buildUri(id, "marcx", "art,bkm,nat,onl", "tracking"))
                 .collect(toList());
 
-        List<Element> docs = parallelFetch.parallelFetch(uris, "tracking");
+        List<OaiFragment> docs = parallelFetch.parallelFetch(uris, "tracking");
         System.out.println("docs = " + docs);
         assertThat(docs.stream()
                 .anyMatch(e -> e == null), is(false));
@@ -130,4 +130,30 @@ public class ParallelFetchIT {
             logger.setLevel(level);
         }
     }
+
+    @Test(timeout = 10_000L)
+    public void testPartialOnTimeout() throws Exception {
+        System.out.println("testPartialOnTimeout");
+
+        Config config = newConfig(
+                "PARALLEL_FETCH=1",
+                "FETCH_TIMEOUT_IN_SECONDS=1",
+                "PARTIAL_PAGE_ON_TIMEOUT=true",
+                "POOL_MIN_IDLE=1",
+                "POOL_MAX_IDLE=100"
+        );
+        ParallelFetch parallelFetch = newParallelFetch(config);
+
+        ArrayList<URI> uris = new ArrayList<>(10_000);
+        URI uri = parallelFetch.buildUri("870970-00010480", "marcx", "art,bkm,nat,onl", "tracking");
+        for (int i = 0 ; i < 10_000 ; i++) {
+            uris.add(uri);
+        }
+
+        List<OaiFragment> docs = parallelFetch.parallelFetch(uris, "tracking");
+        System.out.println("docs.size() = " + docs.size());
+        assertThat(docs.size() < uris.size(), is(true));
+        assertThat(docs.stream()
+                .anyMatch(e -> e == null), is(false));
+    }
 }
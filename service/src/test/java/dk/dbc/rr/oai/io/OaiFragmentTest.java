@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiFragmentTest {
+
+    @Test(timeout = 2_000L)
+    public void testEvents() throws Exception {
+        System.out.println("testEvents");
+        List<Integer> types = parse("<?xml version=\"1.0\"?>\n<!-- c --><?pi x?>" +
+                                    "<a:x xmlns:a=\"urn:a\" xmlns=\"\" b=\"1\"><y>z</y></a:x>\n")
+                .getEvents().stream()
+                .map(XMLEvent::getEventType)
+                .collect(toList());
+        // Start element is followed by namespace, then attribute, as JAXB does it
+        assertThat(types, is(List.of(XMLEvent.START_ELEMENT, XMLEvent.NAMESPACE, XMLEvent.ATTRIBUTE,
+                                     XMLEvent.START_ELEMENT, XMLEvent.CHARACTERS, XMLEvent.END_ELEMENT,
+                                     XMLEvent.END_ELEMENT)));
+    }
+
+    @Test(timeout = 2_000L, expected = XMLStreamException.class)
+    public void testNotWellFormed() throws Exception {
+        System.out.println("testNotWellFormed");
+        parse("<a><b></a>");
+    }
+
+    @Test(timeout = 2_000L, expected = XMLStreamException.class)
+    public void testEmpty() throws Exception {
+        System.out.println("testEmpty");
+        parse("");
+    }
+
+    @Test(timeout = 2_000L, expected = XMLStreamException.class)
+    public void testNoExternalEntities() throws Exception {
+        System.out.println("testNoExternalEntities");
+        parse("<!DOCTYPE a [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><a>&e;</a>");
+    }
+
+    private static OaiFragment parse(String xml) throws XMLStreamException {
+        return OaiFragment.parse(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+    }
+}
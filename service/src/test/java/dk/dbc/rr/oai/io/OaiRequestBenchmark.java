@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import dk.dbc.rr.oai.Config;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static dk.dbc.rr.oai.BeanFactory.newOaiIOBean;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Collections.EMPTY_MAP;
+
+/**
+ * Parsing and validating request parameters, as done on every request
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ * @see dk.dbc.rr.oai.Benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OaiRequestBenchmark {
+
+    private static final byte[] XOR = "ThisIsJustTestData".getBytes(ISO_8859_1);
+
+    @Param({"GetRecord", "ListRecords", "ListRecordsResumed", "BadArgument"})
+    public String request;
+
+    private OaiIOBean bean;
+    private MultivaluedHashMap<String, String> params;
+
+    @Setup
+    public void setUp() {
+        bean = newOaiIOBean(new Config(EMPTY_MAP) {
+            @Override
+            public byte[] getXorBytes() {
+                return XOR;
+            }
+        });
+        params = new MultivaluedHashMap<>();
+        switch (request) {
+            case "GetRecord":
+                params.add("verb", "GetRecord");
+                params.add("identifier", "870970-basis:12345678");
+                params.add("metadataPrefix", "marcx");
+                break;
+            case "ListRecords":
+                params.add("verb", "ListRecords");
+                params.add("from", "2019-01-01");
+                params.add("until", "2019-05-04T12:34:56Z");
+                params.add("set", "nat");
+                params.add("metadataPrefix", "marcx");
+                break;
+            case "ListRecordsResumed":
+                params.add("verb", "ListRecords");
+                params.add("metadataPrefix", "marcx");
+                params.add("resumptionToken",
+                           new OaiResumptionToken(OaiTimestamp.of("2019-01-01"), OaiTimestamp.of("2019-05-04T12:34:56.654321Z").getTimestamp(), "870970-basis:12345678",
+                                                  OaiTimestamp.of("2024-12-31T23:59:59Z"), "nat")
+                                   .toData(Instant.now().plusSeconds(3600), new ResumptionTokenSigner(XOR)));
+                break;
+            case "BadArgument":
+                params.add("verb", "ListRecords");
+                params.add("identifier", "870970-basis:12345678");
+                params.add("from", "yesterday");
+                params.add("foo", "bar");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown request: " + request);
+        }
+    }
+
+    @Benchmark
+    public OaiResponse parse() {
+        return bean.oaiResponseOf("http://foo/bar", params);
+    }
+}
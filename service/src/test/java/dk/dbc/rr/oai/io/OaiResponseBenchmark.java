@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import dk.dbc.oai.pmh.DeletedRecordType;
+import dk.dbc.oai.pmh.GranularityType;
+import dk.dbc.oai.pmh.HeaderType;
+import dk.dbc.oai.pmh.IdentifyType;
+import dk.dbc.oai.pmh.MetadataFormatType;
+import dk.dbc.oai.pmh.MetadataType;
+import dk.dbc.oai.pmh.RecordType;
+import dk.dbc.oai.pmh.ResumptionTokenType;
+import dk.dbc.oai.pmh.SetType;
+import dk.dbc.oai.pmh.VerbType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static dk.dbc.rr.oai.io.OaiResponse.O;
+
+/**
+ * Rendering of responses for each verb
+ * <p>
+ * List verbs have a page of {@link #PAGE_SIZE} entries, records are a real
+ * formatted (marcx) record. Identify, ListMetadataFormats and ListSets are
+ * pre-rendered as they are in the service.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ * @see dk.dbc.rr.oai.Benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OaiResponseBenchmark {
+
+    private static final String BASE_URL = "http://foo/bar";
+    private static final String RECORD = "wiremock/__files/body-api-format-mZ3Rm.xml";
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"GetRecord", "Identify", "ListIdentifiers", "ListMetadataFormats", "ListRecords", "ListSets"})
+    public String verb;
+
+    private OaiFragment record;
+    private OaiResponse response;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(RECORD)) {
+            record = OaiFragment.parse(is);
+        }
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.putSingle("verb", verb);
+        response = OaiResponse.withoutRequestObject(BASE_URL, params);
+        switch (VerbType.fromValue(verb)) {
+            case GET_RECORD:
+                response.getRecord().setRecord(record(response, 0));
+                break;
+            case IDENTIFY:
+                response.usePreRendered(OaiResponseTemplate.of(BASE_URL, VerbType.IDENTIFY, OaiResponseBenchmark::fillIdentify));
+                break;
+            case LIST_IDENTIFIERS:
+                for (int i = 0 ; i < PAGE_SIZE ; i++) {
+                    response.listIdentifiers().getHeaders().add(header(i));
+                }
+                response.listIdentifiers().setResumptionToken(resumptionToken());
+                break;
+            case LIST_METADATA_FORMATS:
+                response.usePreRendered(OaiResponseTemplate.of(BASE_URL, VerbType.LIST_METADATA_FORMATS, OaiResponseBenchmark::fillListMetadataFormats));
+                break;
+            case LIST_RECORDS:
+                for (int i = 0 ; i < PAGE_SIZE ; i++) {
+                    response.listRecords().getRecords().add(record(response, i));
+                }
+                response.listRecords().setResumptionToken(resumptionToken());
+                break;
+            case LIST_SETS:
+                response.usePreRendered(OaiResponseTemplate.of(BASE_URL, VerbType.LIST_SETS, OaiResponseBenchmark::fillListSets));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown verb: " + verb);
+        }
+    }
+
+    @Benchmark
+    public byte[] content() {
+        return response.content("trackingId: benchmark");
+    }
+
+    private RecordType record(OaiResponse response, int i) {
+        RecordType rec = O.createRecordType();
+        rec.setHeader(header(i));
+        MetadataType metadata = O.createMetadataType();
+        metadata.setAny(response.embed(record));
+        rec.setMetadata(metadata);
+        return rec;
+    }
+
+    private static HeaderType header(int i) {
+        HeaderType header = O.createHeaderType();
+        header.setIdentifier(String.format("870970-basis:%08d", 50_000_000 + i));
+        header.setDatestamp("2019-05-04T12:34:56Z");
+        header.getSetSpecs().add("nat");
+        header.getSetSpecs().add("bkm");
+        return header;
+    }
+
+    private static ResumptionTokenType resumptionToken() {
+        ResumptionTokenType token = O.createResumptionTokenType();
+        token.setValue("AQAAAWqBm3J4AAAAAAAAAAAAAAAAAAAAAAA");
+        token.setCompleteListSize(BigInteger.valueOf(1_234_567L));
+        token.setCursor(BigInteger.valueOf(5_000L));
+        return token;
+    }
+
+    private static void fillIdentify(OaiResponse response) {
+        IdentifyType identify = response.identify();
+        identify.setRepositoryName("Benchmark");
+        identify.setBaseURL(BASE_URL);
+        identify.setProtocolVersion("2.0");
+        identify.getAdminEmails().add("user@example.com");
+        identify.setEarliestDatestamp("1970-01-01T00:00:00Z");
+        identify.setDeletedRecord(DeletedRecordType.TRANSIENT);
+        identify.setGranularity(GranularityType.YYYY_MM_DD_THH_MM_SS_Z);
+    }
+
+    private static void fillListMetadataFormats(OaiResponse response) {
+        for (String prefix : new String[] {"marcx", "oai_dc"}) {
+            MetadataFormatType format = O.createMetadataFormatType();
+            format.setMetadataPrefix(prefix);
+            format.setSchema("http://example.com/" + prefix + ".xsd");
+            format.setMetadataNamespace("http://example.com/" + prefix);
+            response.listMetadataFormats().getMetadataFormats().add(format);
+        }
+    }
+
+    private static void fillListSets(OaiResponse response) {
+        for (String spec : new String[] {"art", "bkm", "nat", "onl"}) {
+            SetType set = O.createSetType();
+            set.setSetSpec(spec);
+            set.setSetName("Set " + spec);
+            response.listSets().getSets().add(set);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import dk.dbc.oai.pmh.MetadataFormatType;
+import dk.dbc.oai.pmh.OAIPMHerrorcodeType;
+import dk.dbc.oai.pmh.VerbType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import org.junit.Test;
+
+import java.util.function.Consumer;
+
+import static dk.dbc.rr.oai.io.OaiResponse.O;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiResponseTemplateTest {
+
+    private static final Consumer<OaiResponse> FILLER = response -> {
+        MetadataFormatType format = O.createMetadataFormatType();
+        format.setMetadataPrefix("oai_dc");
+        format.setSchema("http://www.openarchives.org/OAI/2.0/oai_dc.xsd");
+        format.setMetadataNamespace("http://www.openarchives.org/OAI/2.0/oai_dc/");
+        response.listMetadataFormats().getMetadataFormats().add(format);
+    };
+
+    @Test(timeout = 2_000L)
+    public void sameAsMarshalled() throws Exception {
+        System.out.println("sameAsMarshalled");
+
+        OaiResponseTemplate template = OaiResponseTemplate.of("http://foo/bar", VerbType.LIST_METADATA_FORMATS, FILLER);
+
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.putSingle("verb", "ListMetadataFormats");
+        params.putSingle("identifier", "870970-basis:<&\"");
+        OaiResponse response = OaiResponse.withoutRequestObject("http://foo/bar", params);
+        FILLER.accept(response);
+        String marshalled = withoutResponseDate(new String(response.content("MY_MESSAGE"), UTF_8));
+
+        String rendered = new String(template.render("2019-01-01T00:00:00.000Z", "870970-basis:<&\"", "MY_MESSAGE"), UTF_8);
+        assertThat(rendered, containsString("<responseDate>2019-01-01T00:00:00.000Z</responseDate>"));
+        assertThat(withoutResponseDate(rendered), is(marshalled));
+    }
+
+    @Test(timeout = 2_000L)
+    public void preRenderedIsSkippedOnErrors() throws Exception {
+        System.out.println("preRenderedIsSkippedOnErrors");
+
+        OaiResponseTemplate template = OaiResponseTemplate.of("http://foo/bar", VerbType.LIST_METADATA_FORMATS, FILLER);
+
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.putSingle("verb", "ListMetadataFormats");
+        params.putSingle("identifier", "x");
+        OaiResponse response = OaiResponse.withoutRequestObject("http://foo/bar", params);
+        response.usePreRendered(template);
+        response.error(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, "no such id");
+        String str = new String(response.content(null), UTF_8);
+
+        assertThat(str, containsString("<error code=\"idDoesNotExist\">no such id</error>"));
+        assertThat(str.contains("oai_dc.xsd"), is(false));
+    }
+
+    private static String withoutResponseDate(String xml) {
+        return xml.replaceFirst("<responseDate>[^<]*</responseDate>", "<responseDate/>");
+    }
+}
@@ -18,17 +18,22 @@
  */
 package dk.dbc.rr.oai.io;
 
+import dk.dbc.oai.pmh.MetadataType;
 import dk.dbc.oai.pmh.OAIPMHerrorcodeType;
+import dk.dbc.oai.pmh.RecordType;
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static dk.dbc.rr.oai.io.OaiResponse.O;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 /**
@@ -90,6 +95,29 @@ public class OaiResponseTest {
         assertThat(str, containsString("<error code=\"badVerb\">Value of the verb argument is not a legal OAI-PMH verb</error>"));
     }
 
+    @Test(timeout = 2_000L)
+    public void embeddedFragments() throws Exception {
+        System.out.println("embeddedFragments");
+
+        OaiResponse oaiResponse = OaiResponse.withoutRequestObject("http://foo/bar", qs("verb=ListRecords&metadataPrefix=marcx"));
+        for (String xml : Arrays.asList(
+                "<?xml version=\"1.0\"?><!-- formatted --><m:record xmlns:m=\"info:lc/xmlns/marcxchange-v1\" format=\"danMARC2\"><m:leader>00000n</m:leader></m:record>",
+                "<record xmlns=\"info:lc/xmlns/marcxchange-v1\"><datafield tag=\"245\"><![CDATA[a & b]]></datafield></record>")) {
+            RecordType record = O.createRecordType();
+            MetadataType metadata = O.createMetadataType();
+            metadata.setAny(oaiResponse.embed(OaiFragment.parse(new ByteArrayInputStream(xml.getBytes(UTF_8)))));
+            record.setMetadata(metadata);
+            oaiResponse.listRecords().getRecords().add(record);
+        }
+        String str = new String(oaiResponse.content(null), UTF_8);
+
+        assertThat(str, containsString(" xmlns:marcx=\"info:lc/xmlns/marcxchange-v1\""));
+        assertThat(str, containsString("<metadata><marcx:record format=\"danMARC2\"><marcx:leader>00000n</marcx:leader></marcx:record></metadata>"));
+        assertThat(str, containsString("<metadata><marcx:record><marcx:datafield tag=\"245\">a &amp; b</marcx:datafield></marcx:record></metadata>"));
+        assertThat(str, not(containsString("formatted")));
+        assertThat(str, not(containsString("fragment")));
+    }
+
     private static MultivaluedHashMap<String, String> qs(String qs) {
         MultivaluedHashMap<String, String> map = new MultivaluedHashMap<>();
         if (qs != null && !qs.isEmpty()) {
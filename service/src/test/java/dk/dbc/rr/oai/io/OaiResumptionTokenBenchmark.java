@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Encoding and decoding of resumption tokens, as done on every paged request
+ * <p>
+ * Run with:
+ * {@code mvn -P benchmark test -DskipTests -Dbenchmark.include=OaiResumptionToken}
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ * @see dk.dbc.rr.oai.Benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OaiResumptionTokenBenchmark {
+
+    private static final ResumptionTokenSigner SIGNER = new ResumptionTokenSigner("ThisIsJustTestData".getBytes(ISO_8859_1));
+
+    private OaiResumptionToken segment;
+    private OaiResumptionToken snapshot;
+    private String segmentData;
+    private String snapshotData;
+    private Instant expires;
+
+    @Setup
+    public void setUp() {
+        expires = Instant.now().plusSeconds(3600);
+        segment = new OaiResumptionToken(OaiTimestamp.of("2019-01-01"), OaiTimestamp.of("2019-05-04T12:34:56.654321Z").getTimestamp(), "870970-basis:12345678",
+                                         OaiTimestamp.of("2024-12-31T23:59:59Z"), "nat")
+                .withProgress(1_234_567L, 1_000L);
+        snapshot = new OaiResumptionToken(OaiTimestamp.of("2024-12-31T23:59:59Z"), "nat", 1234L, 5000)
+                .withProgress(1_234_567L, 5_000L);
+        segmentData = segment.toData(expires, SIGNER);
+        snapshotData = snapshot.toData(expires, SIGNER);
+    }
+
+    @Benchmark
+    public String encodeSegment() {
+        return segment.toData(expires, SIGNER);
+    }
+
+    @Benchmark
+    public OaiResumptionToken decodeSegment() {
+        return OaiResumptionToken.of(segmentData, SIGNER, false);
+    }
+
+    @Benchmark
+    public String encodeSnapshot() {
+        return snapshot.toData(expires, SIGNER);
+    }
+
+    @Benchmark
+    public OaiResumptionToken decodeSnapshot() {
+        return OaiResumptionToken.of(snapshotData, SIGNER, false);
+    }
+}
@@ -18,11 +18,18 @@
  */
 package dk.dbc.rr.oai.io;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
 import org.junit.Test;
 
+import static dk.dbc.rr.oai.BeanFactory.newConfig;
+import static dk.dbc.rr.oai.BeanFactory.newOaiIOBean;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -33,14 +40,15 @@ import static org.hamcrest.MatcherAssert.assertThat;
 public class OaiResumptionTokenTest {
 
     private static final byte[] XOR = "ThisIsJustTestData".getBytes(ISO_8859_1);
+    private static final ResumptionTokenSigner SIGNER = new ResumptionTokenSigner(XOR);
 
     @Test(timeout = 2_000L)
     public void resumptionTokenOk() throws Exception {
         System.out.println("resumptionTokenOk");
         OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("1970-01-01T00:00:00Z"), ts("1970-01-01T12:34:56Z"), null, OaiTimestamp.of("2134-12-31T23:59:59.999Z"), "foo");
-        String data = before.toData(Instant.MAX, XOR);
+        String data = before.toData(Instant.MAX, SIGNER);
         System.out.println("data = " + data);
-        OaiResumptionToken after = OaiResumptionToken.of(data, XOR);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
         assertThat(after, is(before));
     }
 
@@ -48,9 +56,9 @@ public class OaiResumptionTokenTest {
     public void resumptionTokenOkWithNull1() throws Exception {
         System.out.println("resumptionTokenOkWithNull1");
         OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("1970-01-01T00:00:00Z"), ts("1970-01-01T12:34:56Z"), "id:0", null, "");
-        String data = before.toData(Instant.MAX, XOR);
+        String data = before.toData(Instant.MAX, SIGNER);
         System.out.println("data = " + data);
-        OaiResumptionToken after = OaiResumptionToken.of(data, XOR);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
         assertThat(after, is(before));
     }
 
@@ -58,43 +66,145 @@ public class OaiResumptionTokenTest {
     public void resumptionTokenOkWithNull2() throws Exception {
         System.out.println("resumptionTokenOkWithNull2");
         OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("1970-01-01T00:00:00Z"), ts("1970-01-01T12:34:56Z"), "id:0", OaiTimestamp.of("2134-12-31T23:59:59.999Z"), null);
-        String data = before.toData(Instant.MAX, XOR);
+        String data = before.toData(Instant.MAX, SIGNER);
         System.out.println("data = " + data);
-        OaiResumptionToken after = OaiResumptionToken.of(data, XOR);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
         assertThat(after, is(before));
     }
 
+    @Test(timeout = 2_000L)
+    public void resumptionTokenOkWithSnapshot() throws Exception {
+        System.out.println("resumptionTokenOkWithSnapshot");
+        OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("2134-12-31T23:59:59.999Z"), "foo", 1234567890123L, 42);
+        String data = before.toData(Instant.MAX, SIGNER);
+        System.out.println("data = " + data);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
+        assertThat(after, is(before));
+        assertThat(after.getSnapshot(), is(1234567890123L));
+        assertThat(after.getOffset(), is(42));
+        assertThat(after.getFrom(), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void resumptionTokenOkWithProgress() throws Exception {
+        System.out.println("resumptionTokenOkWithProgress");
+        OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("1970-01-01T00:00:00Z"), ts("1970-01-01T12:34:56Z"), "id:0", OaiTimestamp.of("2134-12-31T23:59:59.999Z"), "foo")
+                .withProgress(12345L, 100L);
+        String data = before.toData(Instant.MAX, SIGNER);
+        System.out.println("data = " + data);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
+        assertThat(after, is(before));
+        assertThat(after.getSnapshot(), nullValue());
+        assertThat(after.getCompleteListSize(), is(12345L));
+        assertThat(after.getCursor(), is(100L));
+    }
+
     @Test(timeout = 2_000L)
     public void resumptionTokenExpired() throws Exception {
         System.out.println("resumptionTokenExpired");
         OaiResumptionToken before = new OaiResumptionToken(OaiTimestamp.of("1970-01-01T00:00:00Z"), ts("1970-01-01T12:34:56Z"), "id:0", OaiTimestamp.of("2134-12-31T23:59:59.999Z"), "foo");
-        String data = before.toData(Instant.now().minusMillis(1), XOR);
+        String data = before.toData(Instant.now().minusMillis(1), SIGNER);
         System.out.println("data = " + data);
-        OaiResumptionToken after = OaiResumptionToken.of(data, XOR);
+        OaiResumptionToken after = OaiResumptionToken.of(data, SIGNER, false);
         assertThat(after, nullValue());
     }
 
+    @Test(timeout = 2_000L)
+    public void resumptionTokenLegacyLayout() throws Exception {
+        System.out.println("resumptionTokenLegacyLayout");
+        String token = legacyToken(XOR, false);
+        assertThat(OaiResumptionToken.of(token, SIGNER, true), is(new OaiResumptionToken(null, null, null, null, "foo")));
+        assertThat(OaiResumptionToken.of(token, SIGNER, false), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void resumptionTokenLegacyLayoutWithSnapshot() throws Exception {
+        System.out.println("resumptionTokenLegacyLayoutWithSnapshot");
+        String token = legacyToken(XOR, true); // Never issued unsigned
+        assertThat(OaiResumptionToken.of(token, SIGNER, true), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void resumptionTokenUnsignedCutoff() throws Exception {
+        System.out.println("resumptionTokenUnsignedCutoff");
+        String token = legacyToken(newConfig().getXorBytes(), false);
+        assertThat(newOaiIOBean(newConfig()).resumptionTokenOf(token), nullValue());
+        assertThat(newOaiIOBean(newConfig("ACCEPT_UNSIGNED_TOKENS_UNTIL=1970-01-02T00:00:00Z")).resumptionTokenOf(token), nullValue());
+        assertThat(newOaiIOBean(newConfig("ACCEPT_UNSIGNED_TOKENS_UNTIL=2999-01-01T00:00:00Z")).resumptionTokenOf(token), notNullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void resumptionTokenTampered() throws Exception {
+        System.out.println("resumptionTokenTampered");
+        OaiResumptionToken before = new OaiResumptionToken(null, "foo", 1L, 0);
+        byte[] bytes = Base64.getUrlDecoder().decode(before.toData(Instant.MAX, SIGNER));
+        for (int i = 0 ; i < bytes.length ; i++) {
+            byte[] tampered = Arrays.copyOf(bytes, bytes.length);
+            tampered[i] ^= 1;
+            OaiResumptionToken after = OaiResumptionToken.of(Base64.getUrlEncoder().encodeToString(tampered), SIGNER, true);
+            assertThat(after, nullValue());
+        }
+        OaiResumptionToken other = OaiResumptionToken.of(before.toData(Instant.MAX, SIGNER), new ResumptionTokenSigner("OtherTestData!".getBytes(ISO_8859_1)), false);
+        assertThat(other, nullValue());
+    }
+
     @Test(timeout = 2_000L)
     public void resumptionTokenBadBase64() throws Exception {
         System.out.println("resumptionTokenBadBase64");
-        OaiResumptionToken token = OaiResumptionToken.of("01=", XOR); // .length % 4 != 0
+        OaiResumptionToken token = OaiResumptionToken.of("01=", SIGNER, true); // .length % 4 != 0
         assertThat(token, nullValue());
     }
 
     @Test(timeout = 2_000L)
     public void resumptionTokenTooShort() throws Exception {
         System.out.println("resumptionTokenTooShort");
-        OaiResumptionToken token = OaiResumptionToken.of("012=", XOR);
+        OaiResumptionToken token = OaiResumptionToken.of("012=", SIGNER, true);
         assertThat(token, nullValue());
     }
 
     @Test(timeout = 2_000L)
     public void resumptionTokenChecksumError() throws Exception {
         System.out.println("resumptionTokenChecksumError");
-        OaiResumptionToken token = OaiResumptionToken.of("0123456789==", XOR);
+        OaiResumptionToken token = OaiResumptionToken.of("0123456789==", SIGNER, true);
         assertThat(token, nullValue());
     }
 
+    /**
+     * Make a token in the old unsigned {@link DataOutputStream} based layout
+     *
+     * @param xor      the obfuscation bytes
+     * @param snapshot add a snapshot (as an unsigned forged token would)
+     * @return base64 token
+     * @throws Exception in case of IO errors
+     */
+    private static String legacyToken(byte[] xor, boolean snapshot) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            dos.writeInt(0); // validUntil nanos
+            dos.writeLong(Instant.MAX.getEpochSecond());
+            dos.writeByte(Byte.MIN_VALUE); // from
+            dos.writeInt(Integer.MIN_VALUE); // segmentStart
+            dos.writeInt(Integer.MIN_VALUE); // segmentId
+            dos.writeByte(Byte.MIN_VALUE); // until
+            dos.writeInt(3);
+            dos.write("foo".getBytes(UTF_8));
+            if (snapshot) {
+                dos.writeLong(1234567890123L);
+                dos.writeInt(42);
+            }
+        }
+        byte[] data = bos.toByteArray();
+        byte[] bytes = new byte[data.length + 4];
+        for (int i = 0 ; i < data.length ; i++) {
+            bytes[i % 4] ^= data[i];
+            bytes[i + 4] = data[i];
+        }
+        for (int i = 0 ; i < bytes.length ; i++) {
+            bytes[i] ^= xor[i % xor.length];
+        }
+        return Base64.getUrlEncoder().encodeToString(bytes);
+    }
+
     private static Timestamp ts(String text) {
         return OaiTimestamp.of(text).getTimestamp();
     }
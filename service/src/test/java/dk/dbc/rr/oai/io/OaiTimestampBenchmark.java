@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and comparing of from/until timestamps in all granularities
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ * @see dk.dbc.rr.oai.Benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OaiTimestampBenchmark {
+
+    @Param({"2019", "2019-05-04", "2019-05-04T12:34:56Z", "2019-05-04T12:34:56.123456Z"})
+    public String text;
+
+    private OaiTimestamp timestamp;
+    private OaiTimestamp other;
+
+    @Setup
+    public void setUp() {
+        timestamp = OaiTimestamp.of(text);
+        other = OaiTimestamp.of("2019-05-04T12:34:56.123457Z");
+    }
+
+    @Benchmark
+    public OaiTimestamp of() {
+        return OaiTimestamp.of(text);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return timestamp.compareTo(other);
+    }
+}
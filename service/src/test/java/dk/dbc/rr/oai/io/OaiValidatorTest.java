@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import dk.dbc.oai.pmh.VerbType;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiValidatorTest {
+
+    private static final Set<String> SETS = Set.of("art", "nat");
+    private static final OaiRequest REQUEST = new OaiRequest(null, OaiTimestamp.of("2019-01-01"), null, "marcx", null, "nat", null, VerbType.LIST_RECORDS);
+
+    @Test(timeout = 2_000L)
+    public void testETag() throws Exception {
+        System.out.println("testETag");
+        String etag = validator(0, "2019-05-04T12:34:56.123456Z").getETag();
+        assertThat(etag, startsWith("W/\""));
+        assertThat(validator(0, "2019-05-04T12:34:56.123456Z").getETag(), is(etag));
+        assertThat(validator(0, "2019-05-04T12:34:56.123457Z").getETag(), not(etag));
+        assertThat(validator(1, "2019-05-04T12:34:56.123456Z").getETag(), not(etag));
+        assertThat(new OaiValidator(REQUEST, Set.of("nat"), 0)
+                .add(identifier("2019-05-04T12:34:56.123456Z"), Set.of("nat"))
+                .getETag(), not(etag));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testLastModified() throws Exception {
+        System.out.println("testLastModified");
+        OaiValidator validator = new OaiValidator(REQUEST, SETS, 0);
+        assertThat(validator.getLastModified(), nullValue());
+        validator.add(identifier("2019-05-04T12:00:00Z"), SETS)
+                .add(identifier("2019-05-05T12:00:00Z"), SETS)
+                .add(identifier("2019-05-03T12:00:00Z"), SETS);
+        assertThat(validator.getLastModified(), is(Instant.parse("2019-05-05T12:00:00Z")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testMatchesAny() throws Exception {
+        System.out.println("testMatchesAny");
+        OaiValidator validator = validator(0, "2019-05-04T12:34:56.123456Z");
+        String etag = validator.getETag();
+        String strong = etag.substring(2);
+        assertThat(validator.matchesAny(etag), is(true));
+        assertThat(validator.matchesAny(strong), is(true));
+        assertThat(validator.matchesAny("\"a\", " + etag + " ,\"b\""), is(true));
+        assertThat(validator.matchesAny("*"), is(true));
+        assertThat(validator.matchesAny("\"a\", W/\"b\""), is(false));
+    }
+
+    private static OaiValidator validator(long window, String changed) {
+        return new OaiValidator(REQUEST, SETS, window)
+                .add(identifier(changed), SETS);
+    }
+
+    private static OaiIdentifier identifier(String changed) {
+        return new OaiIdentifier("870970-basis:12345678", false, Timestamp.from(Instant.parse(changed)), "nat", "bkm");
+    }
+}
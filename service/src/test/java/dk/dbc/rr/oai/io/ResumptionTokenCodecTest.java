@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.io;
+
+import java.sql.Timestamp;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class ResumptionTokenCodecTest {
+
+    private static final ResumptionTokenSigner SIGNER = new ResumptionTokenSigner("ThisIsJustTestData".getBytes(ISO_8859_1));
+
+    @Test(timeout = 2_000L)
+    public void testRoundTrip() throws Exception {
+        System.out.println("testRoundTrip");
+        long[] unsigned = {0L, 1L, 127L, 128L, 16_383L, 16_384L, Long.MAX_VALUE};
+        long[] signed = {0L, -1L, 1L, -64L, 64L, Long.MIN_VALUE, Long.MAX_VALUE};
+        Timestamp[] timestamps = {
+            Timestamp.valueOf("1969-12-31 23:59:59.999999"),
+            Timestamp.valueOf("1970-01-01 00:00:00"),
+            Timestamp.valueOf("2019-05-04 12:34:56.654321")
+        };
+        byte[] text = "æøå".getBytes(UTF_8);
+
+        ResumptionTokenCodec.Writer sizer = new ResumptionTokenCodec.Writer();
+        write(sizer, unsigned, signed, timestamps, text);
+        byte[] bytes = new byte[sizer.size() + ResumptionTokenSigner.MAC_SIZE];
+        write(new ResumptionTokenCodec.Writer(bytes), unsigned, signed, timestamps, text);
+        SIGNER.sign(bytes);
+        SIGNER.xor(bytes);
+        SIGNER.xor(bytes);
+        assertThat(SIGNER.verify(bytes), is(true));
+
+        ResumptionTokenCodec.Reader reader = new ResumptionTokenCodec.Reader(bytes, 0, sizer.size());
+        for (long value : unsigned) {
+            assertThat(reader.getVarLong(), is(value));
+        }
+        for (long value : signed) {
+            assertThat(reader.getSignedVarLong(), is(value));
+        }
+        for (Timestamp value : timestamps) {
+            assertThat(reader.getMicros(), is(value));
+        }
+        assertThat(reader.getString(), is("æøå"));
+        assertThat(reader.hasMore(), is(false));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSignature() throws Exception {
+        System.out.println("testSignature");
+        byte[] bytes = new byte[4 + ResumptionTokenSigner.MAC_SIZE];
+        new ResumptionTokenCodec.Writer(bytes).putByte(1).putByte(2).putByte(3).putByte(4);
+        SIGNER.sign(bytes);
+        assertThat(SIGNER.verify(bytes), is(true));
+        for (int i = 0 ; i < bytes.length ; i++) {
+            bytes[i] ^= 0x40;
+            assertThat(SIGNER.verify(bytes), is(false));
+            bytes[i] ^= 0x40;
+        }
+        assertThat(SIGNER.verify(new byte[ResumptionTokenSigner.MAC_SIZE]), is(false));
+    }
+
+    @Test(timeout = 2_000L, expected = IllegalStateException.class)
+    public void testChecksumError() throws Exception {
+        System.out.println("testChecksumError");
+        ResumptionTokenCodec.checkChecksum(new byte[] {1, 2, 3, 4, 1, 2, 3, 5});
+    }
+
+    private static void write(ResumptionTokenCodec.Writer writer, long[] unsigned, long[] signed, Timestamp[] timestamps, byte[] text) {
+        for (long value : unsigned) {
+            writer.putVarLong(value);
+        }
+        for (long value : signed) {
+            writer.putSignedVarLong(value);
+        }
+        for (Timestamp value : timestamps) {
+            writer.putMicros(value);
+        }
+        writer.putBytes(text);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.DB;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.Before;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiDatabaseMetadataIT extends DB {
+
+    private Config config;
+    private OaiDatabaseMetadata databaseMetadata;
+    private OaiStaticResponses staticResponses;
+
+    @Before
+    public void setUp() {
+        this.config = newConfig();
+        this.databaseMetadata = newDatabaseMetadata(ds);
+        this.staticResponses = newOaiStaticResponses(config, databaseMetadata, newDocumentBuilderPool(config));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRefresh() throws Exception {
+        System.out.println("testRefresh");
+        OaiDatabaseMetadata.Snapshot before = databaseMetadata.getSnapshot();
+        assertThat(databaseMetadata.refresh(), is(false));
+        assertThat(databaseMetadata.getSnapshot(), sameInstance(before));
+
+        sql("INSERT INTO oaisets(setspec, setname, description) VALUES('tst', 'Test', 'A test set')");
+        try {
+            OaiMetadataRefresh refresh = newOaiMetadataRefresh(config, databaseMetadata, staticResponses);
+            refresh.refresh();
+            assertThat(databaseMetadata.getSnapshot(), not(sameInstance(before)));
+            assertThat(databaseMetadata.getSets().size(), is(before.getSets().size() + 1));
+            String listSets = new String(staticResponses.getListSets().render("2019-01-01T00:00:00Z", null, null), UTF_8);
+            assertThat(listSets, containsString("<setSpec>tst</setSpec>"));
+            assertThat(listSets, containsString("<setName>Test</setName>"));
+        } finally {
+            sql("DELETE FROM oaisets WHERE setspec = 'tst'");
+        }
+    }
+
+    private static void sql(String sql) throws SQLException {
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+}
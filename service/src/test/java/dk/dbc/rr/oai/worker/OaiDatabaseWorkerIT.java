@@ -24,6 +24,9 @@ import dk.dbc.rr.oai.io.OaiIOBean;
 import dk.dbc.rr.oai.io.OaiIdentifier;
 import dk.dbc.rr.oai.io.OaiResumptionToken;
 import dk.dbc.rr.oai.io.OaiTimestamp;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -117,8 +120,83 @@ public class OaiDatabaseWorkerIT extends DB {
         assertThat(removedId.getSetspecs().isEmpty(), is(true));
     }
 
+    @Test(timeout = 2_000L)
+    public void testSnapshotHarvest() throws Exception {
+        System.out.println("testSnapshotHarvest");
+        loadResource("records-15-same-timestamp.json");
+        long snapshot = bean.harvestSnapshot(Collections.singleton("nat"), null);
+        assertThat(bean.harvestSnapshot(Collections.singleton("nat"), null), is(snapshot)); // Reused
+
+        insert("870970-99999999")
+                .set("nat=2019-02-02T20:59:59Z")
+                .commit();
+
+        LinkedList<OaiIdentifier> identifiers = bean.listSnapshotIdentifiers(snapshot, 0);
+        assertThat(identifiers.size(), is(11));
+        identifiers.removeLast();
+        identifiers = bean.listSnapshotIdentifiers(snapshot, identifiers.size());
+        assertThat(identifiers.size(), is(5)); // Not the one added after the snapshot
+        assertThat(bean.hasHarvestSnapshot(snapshot), is(true));
+        assertThat(bean.hasHarvestSnapshot(snapshot + 1), is(false));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSnapshotLimits() throws Exception {
+        System.out.println("testSnapshotLimits");
+        loadResource("records-15-same-timestamp.json");
+        long unfilled;
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO oaisetcounts(setspec, day, records) VALUES ('nat', '2019-01-01', 15)");
+            try (ResultSet resultSet = stmt.executeQuery("INSERT INTO oaisnapshots(setspecs) VALUES('nat') RETURNING id")) {
+                resultSet.next();
+                unfilled = resultSet.getLong(1);
+            }
+        }
+        long snapshot = bean.harvestSnapshot(Collections.singleton("nat"), null);
+        assertThat(snapshot, not(unfilled)); // Being filled (or failed)
+
+        OaiDatabaseWorker limited = newOaiDatabaseWorker(newConfig("HARVEST_SNAPSHOT_MAX_ROWS=10"), ds);
+        assertThat(limited.harvestSnapshot(Collections.singleton("nat"), null), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSnapshotPurge() throws Exception {
+        System.out.println("testSnapshotPurge");
+        loadResource("records-15-same-timestamp.json");
+        long paging = bean.harvestSnapshot(Collections.singleton("nat"), null);
+        long unused = bean.harvestSnapshot(Collections.singleton("bkm"), null);
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("UPDATE oaisnapshots SET created = NOW() - INTERVAL '3 days', accessed = NOW() - INTERVAL '3 days'");
+        }
+        bean.listSnapshotIdentifiers(paging, 0); // Still in use
+        assertThat(bean.purgeHarvestSnapshots(), is(1));
+        assertThat(bean.hasHarvestSnapshot(paging), is(true));
+        assertThat(bean.hasHarvestSnapshot(unused), is(false));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testEstimateListSize() throws Exception {
+        System.out.println("testEstimateListSize");
+        try (Connection connection = ds.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO oaisetcounts(setspec, day, records) VALUES" +
+                               " ('nat', '2019-01-01', 3)," +
+                               " ('nat', '2019-01-02', 5)," +
+                               " ('nat', '2019-01-03', 7)," +
+                               " ('bkm', '2019-01-02', 11)");
+        }
+        assertThat(bean.estimateListSize(null, null, Collections.singleton("nat")), is(15L));
+        assertThat(bean.estimateListSize(null, null, new HashSet<>(Arrays.asList("nat", "bkm"))), is(26L));
+        assertThat(bean.estimateListSize(OaiTimestamp.of("2019-01-02"), null, Collections.singleton("nat")), is(12L));
+        assertThat(bean.estimateListSize(null, OaiTimestamp.of("2019-01-02T12:00:00Z"), Collections.singleton("nat")), is(8L));
+        assertThat(bean.estimateListSize(OaiTimestamp.of("2019-01-02"), OaiTimestamp.of("2019-01-02"), new HashSet<>(Arrays.asList("nat", "bkm"))), is(16L));
+        assertThat(bean.estimateListSize(null, null, Collections.singleton("onl")), is(0L));
+    }
+
     private OaiResumptionToken takeLastAsResumptionToken(OaiTimestamp from, LinkedList<OaiIdentifier> identifiers, OaiTimestamp to, String set) {
-        return ioBean.resumptionTokenOf(ioBean.resumptionTokenFor(from, identifiers.removeLast(), to, set).getValue());
+        return ioBean.resumptionTokenOf(ioBean.resumptionTokenFor(from, identifiers.removeLast(), to, set, 0, 0, identifiers.size()).getValue());
     }
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.fetch.FetchTimeoutException;
+import dk.dbc.rr.oai.fetch.ParallelFetch;
+import dk.dbc.rr.oai.io.OaiFragment;
+import dk.dbc.rr.oai.io.OaiResponse;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiPageSizerTest {
+
+    @Test(timeout = 2_000L)
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled");
+        OaiPageSizer pageSizer = newOaiPageSizer(newConfig("MAX_ROWS_PR_REQUEST=100"));
+        pageSizer.fetched("marcx", 100, TimeUnit.SECONDS.toNanos(100));
+        assertThat(pageSizer.pageSize("marcx"), is(100));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testAdaptive() throws Exception {
+        System.out.println("testAdaptive");
+        OaiPageSizer pageSizer = newOaiPageSizer(newConfig("MAX_ROWS_PR_REQUEST=100",
+                                                           "ADAPTIVE_PAGE_BUDGET=10s",
+                                                           "ADAPTIVE_PAGE_MIN_ROWS=5"));
+        assertThat(pageSizer.pageSize("marcx"), is(100)); // No timings yet
+
+        pageSizer.fetched("marcx", 100, TimeUnit.SECONDS.toNanos(20)); // 200ms pr. record
+        pageSizer.fetched("oai_dc", 100, TimeUnit.SECONDS.toNanos(1)); // 10ms pr. record
+        assertThat(pageSizer.pageSize("marcx"), is(50));
+        assertThat(pageSizer.pageSize("oai_dc"), is(100));
+
+        pageSizer.fetched("marcx", 10, TimeUnit.SECONDS.toNanos(100)); // 10s pr. record
+        assertThat(pageSizer.pageSize("marcx"), is(5));
+
+        pageSizer.fetched("marcx", 0, TimeUnit.SECONDS.toNanos(100)); // Ignored
+        assertThat(pageSizer.pageSize("marcx"), is(5));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testTimeout() throws Exception {
+        System.out.println("testTimeout");
+        Config config = newConfig("MAX_ROWS_PR_REQUEST=100",
+                                  "ADAPTIVE_PAGE_BUDGET=1s",
+                                  "ADAPTIVE_PAGE_MIN_ROWS=5");
+        OaiWorker oaiWorker = new OaiWorker();
+        oaiWorker.config = config;
+        oaiWorker.pageSizer = newOaiPageSizer(config);
+        oaiWorker.parallelFetch = new ParallelFetch() {
+            @Override
+            public List<OaiFragment> parallelFetch(List<URI> uris, String trackingId) {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                throw new FetchTimeoutException(1); // >= 100ms pr. record
+            }
+        };
+        OaiResponse response = newOaiIOBean(config).oaiResponseOf("http://foo/bar", new MultivaluedHashMap<>());
+        List<URI> uris = Collections.nCopies(100, URI.create("http://localhost/api/format"));
+        assertThat(oaiWorker.pageSizer.pageSize("marcx"), is(100)); // No timings yet
+
+        try {
+            oaiWorker.fetch(response, "marcx", uris, "track");
+            throw new AssertionError("Expected timeout");
+        } catch (FetchTimeoutException ex) {
+            assertThat(ex.getCompleted(), is(1));
+        }
+        int pageSize = oaiWorker.pageSizer.pageSize("marcx");
+        assertThat(pageSize <= 10, is(true));
+        assertThat(pageSize >= 5, is(true));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testPartialPage() throws Exception {
+        System.out.println("testPartialPage");
+        Config config = newConfig("MAX_ROWS_PR_REQUEST=100",
+                                  "ADAPTIVE_PAGE_BUDGET=1s",
+                                  "ADAPTIVE_PAGE_MIN_ROWS=5",
+                                  "PARTIAL_PAGE_ON_TIMEOUT=true");
+        OaiWorker oaiWorker = new OaiWorker();
+        oaiWorker.config = config;
+        oaiWorker.pageSizer = newOaiPageSizer(config);
+        oaiWorker.parallelFetch = new ParallelFetch() {
+            @Override
+            public List<OaiFragment> parallelFetch(List<URI> uris, String trackingId) {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                return Collections.nCopies(1, null); // >= 100ms pr. record
+            }
+        };
+        OaiResponse response = newOaiIOBean(config).oaiResponseOf("http://foo/bar", new MultivaluedHashMap<>());
+        List<URI> uris = Collections.nCopies(100, URI.create("http://localhost/api/format"));
+
+        List<OaiFragment> fragments = oaiWorker.fetch(response, "marcx", uris, "track");
+        assertThat(fragments.size(), is(1));
+        int pageSize = oaiWorker.pageSizer.pageSize("marcx");
+        assertThat(pageSize <= 10, is(true));
+        assertThat(pageSize >= 5, is(true));
+    }
+}
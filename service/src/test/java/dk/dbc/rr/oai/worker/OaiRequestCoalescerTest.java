@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.oai.pmh.OAIPMHerrorcodeType;
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.io.OaiIOBean;
+import dk.dbc.rr.oai.io.OaiRequest;
+import dk.dbc.rr.oai.io.OaiResponse;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiRequestCoalescerTest {
+
+    private static final Set<String> SETS = Set.of("art", "nat");
+
+    @Test(timeout = 2_000L)
+    public void testIdenticalRequestsShare() throws Exception {
+        System.out.println("testIdenticalRequestsShare");
+        Config config = newConfig();
+        CountingWorker worker = new CountingWorker();
+        OaiRequestCoalescer coalescer = newOaiRequestCoalescer(config, worker);
+        OaiIOBean ioBean = newOaiIOBean(config);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> listRecords(coalescer, ioBean, "2019-01-01", SETS));
+            worker.started.await();
+            Future<String> second = executor.submit(() -> listRecords(coalescer, ioBean, "2019-01-01", SETS));
+            Thread.sleep(200); // Let second join the first
+            worker.release.countDown();
+            assertThat(first.get(), containsString("Shared"));
+            assertThat(second.get(), containsString("Shared"));
+            assertThat(worker.calls.get(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDifferentRequestsDontShare() throws Exception {
+        System.out.println("testDifferentRequestsDontShare");
+        Config config = newConfig();
+        CountingWorker worker = new CountingWorker();
+        worker.release.countDown();
+        OaiRequestCoalescer coalescer = newOaiRequestCoalescer(config, worker);
+        OaiIOBean ioBean = newOaiIOBean(config);
+
+        listRecords(coalescer, ioBean, "2019-01-01", SETS);
+        listRecords(coalescer, ioBean, "2019-01-02", SETS);
+        listRecords(coalescer, ioBean, "2019-01-02", Set.of("art"));
+        listRecords(coalescer, ioBean, "2019-01-02", Set.of("art"));
+        assertThat(worker.calls.get(), is(4)); // Nothing is kept after completion
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled");
+        Config config = newConfig("COALESCE_REQUESTS=false");
+        CountingWorker worker = new CountingWorker();
+        OaiRequestCoalescer coalescer = newOaiRequestCoalescer(config, worker);
+        OaiIOBean ioBean = newOaiIOBean(config);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> listRecords(coalescer, ioBean, "2019-01-01", SETS));
+            Future<String> second = executor.submit(() -> listRecords(coalescer, ioBean, "2019-01-01", SETS));
+            while (worker.calls.get() < 2) {
+                Thread.sleep(10);
+            }
+            worker.release.countDown();
+            first.get();
+            second.get();
+            assertThat(worker.calls.get(), is(2));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String listRecords(OaiRequestCoalescer coalescer, OaiIOBean ioBean, String from, Set<String> allowedSets) throws Exception {
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.put("verb", asList("ListRecords"));
+        params.put("metadataPrefix", asList("oai_dc"));
+        params.put("from", asList(from));
+        OaiResponse response = ioBean.oaiResponseOf("http://foo/bar", params);
+        coalescer.listRecords(response, response.getRequest(), allowedSets, "track");
+        return new String(response.content(null), UTF_8);
+    }
+
+    /**
+     * Worker that (when released) reports an error, so there's content to
+     * share, without a database
+     */
+    private static class CountingWorker extends OaiWorker {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void listRecords(OaiResponse response, OaiRequest request, Set<String> allowedSets, String trackingId) {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            response.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "Shared");
+        }
+    }
+}
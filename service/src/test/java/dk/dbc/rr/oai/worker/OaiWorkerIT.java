@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-service
+ *
+ * rr-oai-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.worker;
+
+import dk.dbc.rr.oai.Config;
+import dk.dbc.rr.oai.DB;
+import dk.dbc.rr.oai.fetch.ParallelFetch;
+import dk.dbc.rr.oai.io.OaiFragment;
+import dk.dbc.rr.oai.io.OaiIOBean;
+import dk.dbc.rr.oai.io.OaiResponse;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.BeanFactory.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class OaiWorkerIT extends DB {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("<identifier>([^<]*)</identifier>");
+    private static final Pattern RESUMPTION_TOKEN = Pattern.compile("<resumptionToken[^>]*>([^<]+)</resumptionToken>");
+
+    @Before
+    public void records() throws Exception {
+        insert("870970-00000001").set("nat=2019-01-01T00:00:01Z").commit();
+        insert("870970-00000002").deleted().set("nat=2019-01-01T00:00:02Z").commit();
+        insert("870970-00000003").set("!nat=2019-01-01T00:00:03Z").commit(); // Not visible
+        insert("870970-00000004").set("nat=2019-01-01T00:00:04Z").commit();
+        insert("870970-00000005").deleted().set("nat=2019-01-01T00:00:05Z").commit();
+        insert("870970-00000006").set("nat=2019-01-01T00:00:06Z").commit();
+        insert("870970-00000007").set("nat=2019-01-01T00:00:07Z").commit();
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPartialPageKeyset() throws Exception {
+        System.out.println("testPartialPageKeyset");
+        testPartialPage(newConfig("PARTIAL_PAGE_ON_TIMEOUT=true"), "&from=2019-01-01");
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPartialPageSnapshot() throws Exception {
+        System.out.println("testPartialPageSnapshot");
+        testPartialPage(newConfig("PARTIAL_PAGE_ON_TIMEOUT=true", "HARVEST_SNAPSHOTS=true"), "");
+    }
+
+    /**
+     * Only the first 2 visible records are formatted before the timeout, so
+     * the page should be cut at the 3rd visible (000006), keeping the
+     * deleted/invisible records before it, and resume from there
+     */
+    private void testPartialPage(Config config, String from) throws Exception {
+        OaiIOBean ioBean = newOaiIOBean(config);
+        OaiWorker oaiWorker = newOaiWorker(config, ds, ioBean);
+        PartialFetch partialFetch = new PartialFetch(config, 2);
+        oaiWorker.parallelFetch = partialFetch;
+
+        String content = listRecords(oaiWorker, ioBean, "metadataPrefix=marcx&set=nat" + from);
+        assertThat(identifiers(content), is(asList("870970-00000001", "870970-00000002", "870970-00000003",
+                                                   "870970-00000004", "870970-00000005")));
+        assertThat(partialFetch.requested, is(4)); // 000001, 000004, 000006, 000007
+        String token = resumptionToken(content);
+        assertThat(token, notNullValue());
+
+        partialFetch.formatted = Integer.MAX_VALUE;
+        content = listRecords(oaiWorker, ioBean, "metadataPrefix=marcx&resumptionToken=" + token);
+        assertThat(identifiers(content), is(asList("870970-00000006", "870970-00000007")));
+        assertThat(resumptionToken(content), nullValue());
+    }
+
+    private static String listRecords(OaiWorker oaiWorker, OaiIOBean ioBean, String query) throws Exception {
+        MultivaluedHashMap<String, String> params = new MultivaluedHashMap<>();
+        params.putSingle("verb", "ListRecords");
+        for (String kv : query.split("&")) {
+            String[] parts = kv.split("=", 2);
+            params.putSingle(parts[0], parts[1]);
+        }
+        OaiResponse response = ioBean.oaiResponseOf("http://foo/bar", params);
+        oaiWorker.listRecords(response, response.getRequest(), Set.of("nat"), "track");
+        return new String(response.content(null), UTF_8);
+    }
+
+    private static List<String> identifiers(String content) {
+        List<String> identifiers = new ArrayList<>();
+        Matcher matcher = IDENTIFIER.matcher(content);
+        while (matcher.find()) {
+            identifiers.add(matcher.group(1));
+        }
+        return identifiers;
+    }
+
+    private static String resumptionToken(String content) {
+        Matcher matcher = RESUMPTION_TOKEN.matcher(content);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Formats only the first records, as if the rest timed out
+     */
+    private static class PartialFetch extends ParallelFetch {
+
+        private int formatted;
+        private int requested;
+
+        private PartialFetch(Config config, int formatted) {
+            this.config = config;
+            this.formatted = formatted;
+        }
+
+        @Override
+        public List<OaiFragment> parallelFetch(List<URI> uris, String trackingId) {
+            requested = uris.size();
+            List<OaiFragment> fragments = new ArrayList<>();
+            for (int i = 0 ; i < uris.size() && i < formatted ; i++) {
+                try {
+                    fragments.add(OaiFragment.parse(new ByteArrayInputStream("<record/>".getBytes(UTF_8))));
+                } catch (XMLStreamException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            return fragments;
+        }
+    }
+}
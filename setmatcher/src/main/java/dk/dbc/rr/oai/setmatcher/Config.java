@@ -56,6 +56,9 @@ public class Config {
     private long maxProcessingTime;
     private int maxConsecutiveServerErrors;
     private long pollRate;
+    private long pollMinDelay;
+    private int rematchChunkSize;
+    private int rematchThreads;
     private int threads;
 
     public Config() {
@@ -84,11 +87,15 @@ public class Config {
         this.maxConsecutiveServerErrors = getenv("MAX_CONSECUTIVE_ERRORS").asInt().min(1).get();
         this.maxProcessingTime = getenv("MAX_PROCESSING_TIME").convert(Config::seconds);
         this.pollRate = getenv("POLL_RATE").convert(Config::seconds);
+        this.pollMinDelay = getenv("POLL_MIN_DELAY", "")
+                .convert(s -> s.isEmpty() ? 0L : Config.milliseconds(s));
         this.poolMinIdle = getenv("POOL_MIN_IDLE").asInt().min(1).get();
         this.poolMaxIdle = getenv("POOL_MAX_IDLE").asInt().min(1).get();
         this.rawrepoRecordService = getenv("RAWREPO_RECORD_SERVICE_URL")
                 .isNot("not empty", String::isEmpty)
                 .get();
+        this.rematchChunkSize = getenv("REMATCH_CHUNK_SIZE", "1000").asInt().min(1).get();
+        this.rematchThreads = getenv("REMATCH_THREADS", "4").asInt().min(1).get();
         this.threads = getenv("THREADS").asInt().min(1).get();
     }
 
@@ -112,6 +119,15 @@ public class Config {
         return pollRate;
     }
 
+    /**
+     * Initial delay (in ms) after an empty poll, when polling continuously
+     *
+     * @return delay or 0 if polling at a fixed rate
+     */
+    public long getPollMinDelay() {
+        return pollMinDelay;
+    }
+
     public int getPoolMaxIdle() {
         return poolMaxIdle;
     }
@@ -128,6 +144,14 @@ public class Config {
         return rawrepoRecordService;
     }
 
+    public int getRematchChunkSize() {
+        return rematchChunkSize;
+    }
+
+    public int getRematchThreads() {
+        return rematchThreads;
+    }
+
     public int getThreads() {
         return threads;
     }
@@ -161,6 +185,33 @@ public class Config {
         throw new IllegalArgumentException("Invalid time spec: " + spec);
     }
 
+    /**
+     * Convert a string representation of a duration (number{h|m|s|ms}) to
+     * milliseconds
+     *
+     * @param spec string representation
+     * @return number of milliseconds
+     */
+    static long milliseconds(String spec) {
+        String[] split = spec.split("(?<=\\d)(?=\\D)");
+        if (split.length == 2) {
+            long units = Long.parseUnsignedLong(split[0]);
+            switch (split[1].toLowerCase(Locale.ROOT)) {
+                case "ms":
+                    return TimeUnit.MILLISECONDS.toMillis(units);
+                case "s":
+                    return TimeUnit.SECONDS.toMillis(units);
+                case "m":
+                    return TimeUnit.MINUTES.toMillis(units);
+                case "h":
+                    return TimeUnit.HOURS.toMillis(units);
+                default:
+                    break;
+            }
+        }
+        throw new IllegalArgumentException("Invalid time spec: " + spec);
+    }
+
     private static class FromEnv {
 
         private final String name;
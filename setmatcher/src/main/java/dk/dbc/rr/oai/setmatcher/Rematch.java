@@ -0,0 +1,410 @@
+package dk.dbc.rr.oai.setmatcher;
+
+import dk.dbc.rawrepo.record.RecordServiceConnectorException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bulk re-matching of all known pids
+ * <p>
+ * When the set rules (oaiSetMatcher.js) change, every record has to be
+ * matched again. Instead of queueing them all, the pids are read from
+ * oairecords in order, a chunk (REMATCH_CHUNK_SIZE) at a time, and processed
+ * by REMATCH_THREADS threads. After each chunk the last pid is stored as
+ * checkpoint in oairematch, so a stopped (or crashed) re-match can be
+ * resumed.
+ * <p>
+ * Pids that fail are stored in oairematchfailed, and the checkpoint moves on.
+ * When all pids have been visited, the failed pids are retried. Pids that the
+ * record service cannot deliver are given up on (as the queue worker does),
+ * and stay listed. If any other failure remains, the re-match isn't
+ * completed, and the failed pids are retried again when it is resumed.
+ * <p>
+ * Only one re-match is run at a time, by one setmatcher (session advisory
+ * lock, taken before the re-match to run is found or created). Records are processed just like queue jobs, so the queue can be
+ * processed in parallel, except that the sets a record remains in aren't
+ * touched (the record hasn't changed, only the rules).
+ */
+@Singleton
+@Lock(LockType.READ)
+public class Rematch {
+
+    private static final Logger log = LoggerFactory.getLogger(Rematch.class);
+
+    /**
+     * Key space of the re-match locks, next to the pid locks
+     */
+    static final int REMATCH_LOCK_SPACE = WorkerTask.PID_LOCK_SPACE + 1;
+    private static final String LOCK = "SELECT pg_try_advisory_lock(?, 0)";
+    private static final String UNLOCK = "SELECT pg_advisory_unlock(?, 0)";
+    private static final String UNFINISHED = "SELECT id FROM oairematch WHERE completed IS NULL ORDER BY id DESC LIMIT 1";
+    private static final String CHECKPOINT = "SELECT COALESCE(checkpoint, '') FROM oairematch WHERE id = ? AND completed IS NULL";
+    private static final String CREATE = "INSERT INTO oairematch DEFAULT VALUES RETURNING id";
+    private static final String STATUS = "SELECT id, started, checkpoint, processed," +
+                                         " (SELECT COUNT(*) FROM oairematchfailed f WHERE f.id = r.id)," +
+                                         " completed FROM oairematch r ORDER BY id DESC LIMIT 1";
+    private static final String PIDS = "SELECT pid FROM oairecords WHERE pid > ? ORDER BY pid LIMIT ?";
+    private static final String FAILED_PIDS = "SELECT pid FROM oairematchfailed WHERE id = ? AND pid > ? ORDER BY pid LIMIT ?";
+    private static final String FAILED = "INSERT INTO oairematchfailed(id, pid, error) VALUES(?, ?, ?)" +
+                                         " ON CONFLICT (id, pid) DO UPDATE SET error = EXCLUDED.error";
+    private static final String SUCCEEDED = "DELETE FROM oairematchfailed WHERE id = ? AND pid = ?";
+    private static final String PROGRESS = "UPDATE oairematch SET checkpoint = ?, processed = processed + ? WHERE id = ?";
+    private static final String COMPLETED = "UPDATE oairematch SET completed = CURRENT_TIMESTAMP WHERE id = ?";
+
+    @Inject
+    public Config config;
+
+    @Inject
+    public JavaScriptPool js;
+
+    @Inject
+    public RawRepo rr;
+
+    @Inject
+    MetricRegistry metricRegistry;
+
+    @Resource(lookup = "jdbc/rawrepo-oai")
+    DataSource rawRepoOai;
+
+    @Resource(lookup = "java:comp/DefaultManagedExecutorService", type = ManagedExecutorService.class)
+    ExecutorService executor;
+
+    private WorkerMetrics workerMetrics;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stop;
+
+    @PostConstruct
+    public void init() {
+        workerMetrics = new WorkerMetrics(metricRegistry, "rematch_");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        stop = true;
+    }
+
+    /**
+     * Start re-matching in the background
+     *
+     * @param restart start from the beginning, instead of resuming an
+     *                unfinished re-match
+     * @return if it has been started (not if it is already running)
+     */
+    public boolean start(boolean restart) {
+        if (!running.compareAndSet(false, true))
+            return false;
+        stop = false;
+        try {
+            executor.submit(() -> {
+                try {
+                    run(restart);
+                } catch (SQLException | InterruptedException | RuntimeException ex) {
+                    log.error("Error re-matching: {}", ex.getMessage());
+                    log.debug("Error re-matching: ", ex);
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            running.set(false);
+            throw ex;
+        }
+        return true;
+    }
+
+    /**
+     * Stop re-matching after the current chunk
+     */
+    public void stop() {
+        stop = true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * The newest re-match
+     *
+     * @return status or null if no re-match has been started
+     * @throws SQLException If there's problems communicating with the database
+     */
+    public Status status() throws SQLException {
+        try (Connection connection = rawRepoOai.getConnection() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery(STATUS)) {
+            if (!resultSet.next())
+                return null;
+            return new Status(resultSet.getLong(1), resultSet.getTimestamp(2), resultSet.getString(3),
+                              resultSet.getLong(4), resultSet.getLong(5), resultSet.getTimestamp(6),
+                              running.get());
+        }
+    }
+
+    /**
+     * Re-match from the checkpoint of the newest unfinished re-match, or from
+     * the beginning
+     *
+     * @param restart always start from the beginning
+     * @return id of the re-match or 0 if it is run by another setmatcher
+     * @throws SQLException         If there's problems communicating with the
+     *                              database
+     * @throws InterruptedException If interrupted while waiting for a chunk
+     */
+    long run(boolean restart) throws SQLException, InterruptedException {
+        try (Connection connection = rawRepoOai.getConnection()) {
+            if (!lock(connection, LOCK)) {
+                log.warn("Re-match is running elsewhere");
+                return 0;
+            }
+            long id = 0;
+            try {
+                if (!restart) {
+                    try (Statement stmt = connection.createStatement() ;
+                         ResultSet resultSet = stmt.executeQuery(UNFINISHED)) {
+                        if (resultSet.next())
+                            id = resultSet.getLong(1);
+                    }
+                }
+                if (id == 0) {
+                    try (Statement stmt = connection.createStatement() ;
+                         ResultSet resultSet = stmt.executeQuery(CREATE)) {
+                        resultSet.next();
+                        id = resultSet.getLong(1);
+                    }
+                }
+                String checkpoint = checkpoint(connection, id);
+                if (checkpoint == null) {
+                    log.info("Re-match {} has been completed elsewhere", id);
+                    return id;
+                }
+                log.info("Re-matching {} from: '{}'", id, checkpoint);
+                while (!stop) {
+                    List<String> pids = pids(connection, checkpoint);
+                    if (pids.isEmpty()) {
+                        if (retryFailed(connection, id)) {
+                            completed(connection, id);
+                            log.info("Re-match {} completed", id);
+                        }
+                        break;
+                    }
+                    failed(connection, id, processChunk(pids));
+                    checkpoint = pids.get(pids.size() - 1);
+                    progress(connection, id, checkpoint, pids.size());
+                }
+            } finally {
+                lock(connection, UNLOCK);
+            }
+            return id;
+        }
+    }
+
+    private static String checkpoint(Connection connection, long id) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(CHECKPOINT)) {
+            stmt.setLong(1, id);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private List<String> pids(Connection connection, String checkpoint) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(PIDS)) {
+            stmt.setString(1, checkpoint);
+            stmt.setInt(2, config.getRematchChunkSize());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                List<String> pids = new ArrayList<>(config.getRematchChunkSize());
+                while (resultSet.next()) {
+                    pids.add(resultSet.getString(1));
+                }
+                return pids;
+            }
+        }
+    }
+
+    /**
+     * Retry the pids that failed during a re-match
+     *
+     * @param connection database connection
+     * @param id         re-match
+     * @return if the re-match can be completed (no failures, except for
+     *         records the record service cannot deliver)
+     * @throws SQLException         If there's problems communicating with the
+     *                              database
+     * @throws InterruptedException If interrupted while waiting for a chunk
+     */
+    private boolean retryFailed(Connection connection, long id) throws SQLException, InterruptedException {
+        boolean complete = true;
+        String last = "";
+        while (!stop) {
+            List<String> pids = failedPids(connection, id, last);
+            if (pids.isEmpty())
+                return complete;
+            log.info("Re-match {} retrying {} failed pid(s) from: '{}'", id, pids.size(), last);
+            Map<String, Exception> failures = processChunk(pids);
+            failed(connection, id, failures);
+            try (PreparedStatement stmt = connection.prepareStatement(SUCCEEDED)) {
+                for (String pid : pids) {
+                    if (failures.containsKey(pid))
+                        continue;
+                    stmt.setLong(1, id);
+                    stmt.setString(2, pid);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+                if (failure.getValue() instanceof RecordServiceConnectorException) {
+                    log.warn("Re-match {} giving up on: {}", id, failure.getKey());
+                } else {
+                    complete = false;
+                }
+            }
+            last = pids.get(pids.size() - 1);
+        }
+        return false;
+    }
+
+    private List<String> failedPids(Connection connection, long id, String last) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(FAILED_PIDS)) {
+            stmt.setLong(1, id);
+            stmt.setString(2, last);
+            stmt.setInt(3, config.getRematchChunkSize());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                List<String> pids = new ArrayList<>(config.getRematchChunkSize());
+                while (resultSet.next()) {
+                    pids.add(resultSet.getString(1));
+                }
+                return pids;
+            }
+        }
+    }
+
+    /**
+     * Split a chunk into a slice pr. thread, and process them in parallel
+     *
+     * @param pids the chunk
+     * @return the pids that failed, and why
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private Map<String, Exception> processChunk(List<String> pids) throws InterruptedException {
+        int threads = config.getRematchThreads();
+        int slice = (pids.size() + threads - 1) / threads;
+        List<Callable<Map<String, Exception>>> tasks = new ArrayList<>(threads);
+        for (int i = 0 ; i < pids.size() ; i += slice) {
+            List<String> part = pids.subList(i, Math.min(i + slice, pids.size()));
+            tasks.add(() -> processPids(part));
+        }
+        Map<String, Exception> failures = new TreeMap<>();
+        for (Future<Map<String, Exception>> future : executor.invokeAll(tasks)) {
+            try {
+                failures.putAll(future.get());
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return failures;
+    }
+
+    private Map<String, Exception> processPids(List<String> pids) {
+        WorkerTask task = new WorkerTask(rr, rawRepoOai, js, workerMetrics);
+        Map<String, Exception> failures = new HashMap<>();
+        for (String pid : pids) {
+            try {
+                task.rematch(pid);
+            } catch (Exception ex) {
+                failures.put(pid, ex);
+                log.error("Error re-matching {}: {}", pid, ex.getMessage());
+                log.debug("Error re-matching {}: ", pid, ex);
+            }
+        }
+        return failures;
+    }
+
+    private void failed(Connection connection, long id, Map<String, Exception> failures) throws SQLException {
+        if (failures.isEmpty())
+            return;
+        try (PreparedStatement stmt = connection.prepareStatement(FAILED)) {
+            for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+                stmt.setLong(1, id);
+                stmt.setString(2, failure.getKey());
+                stmt.setString(3, failure.getValue().toString());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private void progress(Connection connection, long id, String checkpoint, int processed) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(PROGRESS)) {
+            stmt.setString(1, checkpoint);
+            stmt.setInt(2, processed);
+            stmt.setLong(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void completed(Connection connection, long id) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(COMPLETED)) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static boolean lock(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, REMATCH_LOCK_SPACE);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    public static class Status {
+
+        public final long id;
+        public final String started;
+        public final String checkpoint;
+        public final long processed;
+        public final long failed;
+        public final String completed;
+        public final boolean running;
+
+        private Status(long id, Timestamp started, String checkpoint, long processed, long failed, Timestamp completed, boolean running) {
+            this.id = id;
+            this.started = started.toInstant().toString();
+            this.checkpoint = checkpoint;
+            this.processed = processed;
+            this.failed = failed;
+            this.completed = completed == null ? null : completed.toInstant().toString();
+            this.running = running;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-setmatcher
+ *
+ * rr-oai-setmatcher is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-setmatcher is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.setmatcher;
+
+import jakarta.ejb.EJB;
+import jakarta.ejb.Stateless;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.sql.SQLException;
+
+/**
+ * Control of bulk re-matching
+ * <p>
+ * GET for status, POST to start (or resume, unless restart=true) and DELETE
+ * to stop after the current chunk
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+@Stateless
+@Path("rematch")
+public class RematchBean {
+
+    @EJB
+    Rematch rematch;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status() throws SQLException {
+        return status(Response.Status.OK);
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response start(@QueryParam("restart") @DefaultValue("false") boolean restart) throws SQLException {
+        if (!rematch.start(restart))
+            return status(Response.Status.CONFLICT);
+        return status(Response.Status.ACCEPTED);
+    }
+
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stop() throws SQLException {
+        rematch.stop();
+        return status(Response.Status.ACCEPTED);
+    }
+
+    private Response status(Response.Status code) throws SQLException {
+        Rematch.Status status = rematch.status();
+        if (status == null) // None yet, or not created yet when starting
+            return Response.status(code == Response.Status.OK ? Response.Status.NOT_FOUND : code).build();
+        return Response.status(code)
+                .entity(status)
+                .build();
+    }
+}
@@ -33,6 +33,7 @@ import java.util.Set;
 public class SetMatcherApplication extends Application {
 
     private static final Set<Class<?>> CLASSES = new HashSet<>(Arrays.asList(
+            RematchBean.class
     ));
 
     @Override
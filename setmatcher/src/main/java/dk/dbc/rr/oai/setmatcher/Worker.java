@@ -14,12 +14,13 @@ import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
-import org.eclipse.microprofile.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,6 +29,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Worker class responsible for processing queued rawrepo jobs
@@ -37,6 +39,12 @@ public class Worker {
 
     private static final Logger log = LoggerFactory.getLogger(Worker.class);
 
+    private static final long QUEUE_SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    private static final String QUEUE_LAG =
+            "SELECT COUNT(*), COALESCE(EXTRACT(EPOCH FROM CLOCK_TIMESTAMP() - MIN(queued)), 0)::BIGINT" +
+            " FROM queue" +
+            " WHERE worker = ?";
+
     @Inject
     public Config config;
 
@@ -59,12 +67,20 @@ public class Worker {
     ExecutorService executor;
 
     private Counter rawrepoRecordServiceErrorsCounter;
-    private Timer workerTaskDurationTimer;
+    private Counter jobsDequeuedCounter;
+    private WorkerMetrics workerMetrics;
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong queueOldestAge = new AtomicLong();
+    private long nextQueueSample;
 
     @PostConstruct
     public void init() {
         rawrepoRecordServiceErrorsCounter = metricRegistry.counter("rawrepo_record_service_errors");
-        workerTaskDurationTimer = metricRegistry.timer("worker_task");
+        jobsDequeuedCounter = metricRegistry.counter("jobs_dequeued");
+        workerMetrics = new WorkerMetrics(metricRegistry);
+        metricRegistry.gauge("queue_depth", queueDepth::get);
+        metricRegistry.gauge("queue_oldest_age_seconds", queueOldestAge::get);
+        nextQueueSample = System.nanoTime();
     }
 
     /**
@@ -79,6 +95,7 @@ public class Worker {
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public int processJobs() throws IllegalStateException, InterruptedException {
         int numberOfJobsCompleted = 0;
+        sampleQueue();
 
         while (numberOfJobsCompleted < config.getMaxBatchSize()) {
             // Get a number of jobs corresponding (at most) to the configured number of threads
@@ -89,11 +106,12 @@ public class Worker {
                 // Queue is empty...
                 break;
             }
+            jobsDequeuedCounter.inc(jobs.size());
 
             // Create worker tasks from jobs and execute them concurrently
             final List<WorkerTask> tasks = new ArrayList<>(config.getThreads());
             for (QueueItem job : jobs) {
-                tasks.add(new WorkerTask(job, rr, rawRepoOai, js, workerTaskDurationTimer));
+                tasks.add(new WorkerTask(job, rr, rawRepoOai, js, workerMetrics));
             }
             final List<Future<QueueItem>> jobFutures = executor.invokeAll(tasks);
 
@@ -128,6 +146,38 @@ public class Worker {
         return numberOfJobsCompleted;
     }
 
+    /**
+     * Update the queue lag gauges (depth and age of the oldest job), at most
+     * every {@link #QUEUE_SAMPLE_INTERVAL}, counting a large queue isn't free
+     */
+    private void sampleQueue() {
+        long now = System.nanoTime();
+        if (now - nextQueueSample < 0)
+            return;
+        nextQueueSample = now + QUEUE_SAMPLE_INTERVAL;
+        try (Connection connection = rawRepo.getConnection() ;
+             PreparedStatement stmt = connection.prepareStatement(QUEUE_LAG)) {
+            stmt.setString(1, config.getQueueName());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (resultSet.next()) {
+                    queueDepth.set(resultSet.getLong(1));
+                    queueOldestAge.set(Math.max(0L, resultSet.getLong(2)));
+                }
+            }
+        } catch (SQLException ex) {
+            log.error("Error sampling queue: {}", ex.getMessage());
+            log.debug("Error sampling queue: ", ex);
+        }
+    }
+
+    long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    long getQueueOldestAge() {
+        return queueOldestAge.get();
+    }
+
     private List<QueueItem> dequeue(int atMostNumberOfJobs) {
         try (Connection connection = rawRepo.getConnection()) {
             final RawRepoQueueDAO queueDAO = RawRepoQueueDAO.builder(connection).build();
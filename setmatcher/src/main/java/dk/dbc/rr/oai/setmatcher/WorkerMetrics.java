@@ -0,0 +1,98 @@
+package dk.dbc.rr.oai.setmatcher;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.util.EnumMap;
+
+/**
+ * Metrics for the processing of queue jobs
+ * <p>
+ * {@code jobs} (counter) tagged with outcome, {@code worker_stage} (timer)
+ * tagged with stage, and {@code worker_task} (timer) for the whole job.
+ * <p>
+ * The names can be prefixed, to keep other kinds of processing (re-matching)
+ * apart from the queue jobs.
+ */
+public class WorkerMetrics {
+
+    public enum Outcome {
+        /**
+         * The agency isn't eligible for OAI
+         */
+        SKIPPED("skipped"),
+        /**
+         * The record is in at least one set
+         */
+        MATCHED("matched"),
+        /**
+         * The record is in no sets
+         */
+        NO_SETS("no_sets"),
+        /**
+         * The job threw an exception
+         */
+        FAILED("failed");
+
+        private final String tag;
+
+        Outcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Stage {
+        /**
+         * Fetching the record from the record service
+         */
+        FETCH("fetch"),
+        /**
+         * Computing sets in JavaScript
+         */
+        MATCH("match"),
+        /**
+         * Updating the OAI database
+         */
+        DATABASE("database");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Timer task;
+    private final EnumMap<Outcome, Counter> outcomes;
+    private final EnumMap<Stage, Timer> stages;
+
+    public WorkerMetrics(MetricRegistry metricRegistry) {
+        this(metricRegistry, "");
+    }
+
+    public WorkerMetrics(MetricRegistry metricRegistry, String prefix) {
+        this.task = metricRegistry.timer(prefix + "worker_task");
+        this.outcomes = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, metricRegistry.counter(prefix + "jobs", new Tag("outcome", outcome.tag)));
+        }
+        this.stages = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, metricRegistry.timer(prefix + "worker_stage", new Tag("stage", stage.tag)));
+        }
+    }
+
+    public Timer.Context time() {
+        return task.time();
+    }
+
+    public Timer.Context time(Stage stage) {
+        return stages.get(stage).time();
+    }
+
+    public void outcome(Outcome outcome) {
+        outcomes.get(outcome).inc();
+    }
+}
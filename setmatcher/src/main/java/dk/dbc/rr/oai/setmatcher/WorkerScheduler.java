@@ -17,11 +17,17 @@ import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Enterprise Java Bean responsible for activating workers at scheduled intervals
+ * <p>
+ * Either at a fixed rate (POLL_RATE), or continuously if POLL_MIN_DELAY is
+ * set: when jobs have been processed the worker is activated again right
+ * away, when the queue is empty the delay doubles from POLL_MIN_DELAY up to
+ * POLL_RATE.
  */
 @Singleton
 @Startup
@@ -45,22 +51,89 @@ public class WorkerScheduler implements HealthCheck {
 
     private AtomicInteger consecutiveServerErrors;
     private Counter serverErrorsCounter;
+    private long backoff;
 
     @PostConstruct
     public void init() {
         consecutiveServerErrors = new AtomicInteger(0);
         metricRegistry.gauge("consecutive_server_errors", consecutiveServerErrors::get);
         serverErrorsCounter = metricRegistry.counter("server_errors");
-        ses.scheduleAtFixedRate(this::activateWorker, 0, config.getPollRate(), TimeUnit.SECONDS);
+        if (config.getPollMinDelay() > 0) {
+            backoff = config.getPollMinDelay();
+            ses.schedule(this::activateContinuously, 0, TimeUnit.MILLISECONDS);
+        } else {
+            ses.scheduleAtFixedRate(this::activateWorker, 0, config.getPollRate(), TimeUnit.SECONDS);
+        }
     }
 
     @Lock(LockType.READ)
     public void activateWorker() {
+        activate();
+    }
+
+    /**
+     * Activate the worker, and schedule the next activation
+     * <p>
+     * Activations are chained, so only one runs at a time
+     */
+    @Lock(LockType.READ)
+    public void activateContinuously() {
+        long delay = backoff;
+        try {
+            int jobs = activate();
+            delay = delay(backoff, jobs);
+            backoff = nextBackoff(backoff, jobs, config.getPollMinDelay(), TimeUnit.SECONDS.toMillis(config.getPollRate()));
+        } finally {
+            try {
+                ses.schedule(this::activateContinuously, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.info("not rescheduling worker: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * How long to wait before the next activation
+     *
+     * @param backoff current backoff in milliseconds
+     * @param jobs    number of jobs processed by the activation
+     * @return delay in milliseconds
+     */
+    static long delay(long backoff, int jobs) {
+        return jobs > 0 ? 0 : backoff;
+    }
+
+    /**
+     * The backoff after an activation
+     * <p>
+     * Reset to the minimum when jobs have been processed, otherwise doubled
+     * up to the maximum
+     *
+     * @param backoff  current backoff in milliseconds
+     * @param jobs     number of jobs processed by the activation
+     * @param minDelay POLL_MIN_DELAY in milliseconds
+     * @param maxDelay POLL_RATE in milliseconds
+     * @return new backoff in milliseconds
+     */
+    static long nextBackoff(long backoff, int jobs, long minDelay, long maxDelay) {
+        if (jobs > 0)
+            return minDelay;
+        return Math.min(backoff * 2, maxDelay);
+    }
+
+    /**
+     * Run the worker until the queue is drained
+     *
+     * @return number of jobs processed (0 in case of errors)
+     */
+    private int activate() {
+        int jobsProcessedTotal = 0;
         try {
             while (true) {
                 LOGGER.info("activating worker");
 
                 final int jobsProcessed = worker.processJobs();
+                jobsProcessedTotal += jobsProcessed;
 
                 if (jobsProcessed < config.getMaxBatchSize()) {
                     /* Job queue is empty, so we throttle ourselves by not
@@ -77,7 +150,9 @@ public class WorkerScheduler implements HealthCheck {
             serverErrorsCounter.inc();
 
             LOGGER.error("unhandled exception caught by scheduler", e);
+            return 0;
         }
+        return jobsProcessedTotal;
     }
 
     @Override
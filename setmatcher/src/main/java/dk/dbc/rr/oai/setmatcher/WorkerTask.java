@@ -9,85 +9,321 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.Collection;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 
+import static java.util.stream.Collectors.toCollection;
+
+/**
+ * Processing of a single queue job
+ * <p>
+ * Several setmatchers can consume the same queue (rawrepo dequeues skipping
+ * locked rows). To ensure that an older version of a record never overwrites
+ * the sets of a newer one, the record is fetched, matched and written while
+ * holding a transaction scoped advisory lock on the pid in the OAI database.
+ * Whoever takes the lock last, fetches the newest version.
+ */
 public class WorkerTask implements Callable<QueueItem> {
 
     private static final Logger log = LoggerFactory.getLogger(WorkerTask.class);
 
-    private static final String SETS_GONE = "UPDATE oairecordsets SET gone=TRUE, changed=CURRENT_TIMESTAMP WHERE pid=? AND NOT gone";
+    /**
+     * Key space of the pid locks (first argument of the two argument form of
+     * pg_advisory_xact_lock), to keep clear of single key advisory locks (as
+     * used by flyway)
+     */
+    static final int PID_LOCK_SPACE = 0x0a15e75;
+    private static final String LOCK_PID = "SELECT pg_advisory_xact_lock(?, hashtext(?))";
+
     private static final String UPSERT_RECORD =
             "INSERT INTO oairecords(pid, deleted)" +
             " values(?, ?)" +
             " ON CONFLICT (pid)" +
-            " DO UPDATE SET deleted = EXCLUDED.deleted";
-    private static final String UPSERT_SETS =
+            " DO UPDATE SET deleted = EXCLUDED.deleted" +
+            " WHERE oairecords.deleted <> EXCLUDED.deleted";
+    private static final String CURRENT_SETS =
+            "SELECT setspec, gone, DATE(changed AT TIME ZONE 'UTC')" +
+            " FROM oairecordsets" +
+            " WHERE pid=?";
+    private static final String INSERT_SET =
             "INSERT INTO oairecordsets(pid, setspec, changed, gone)" +
-            " values(?, ?, CURRENT_TIMESTAMP, FALSE)" +
-            " ON CONFLICT (pid, setspec)" +
-            " DO UPDATE SET changed = EXCLUDED.changed, setspec = EXCLUDED.setspec, gone = EXCLUDED.gone";
+            " values(?, ?, CURRENT_TIMESTAMP, FALSE)";
+    private static final String UPDATE_SET =
+            "UPDATE oairecordsets SET gone=?, changed=CURRENT_TIMESTAMP" +
+            " WHERE pid=? AND setspec=?";
+    private static final String ADJUST_COUNT =
+            "INSERT INTO oaisetcounts(setspec, day, records)" +
+            " values(?, ?, ?)" +
+            " ON CONFLICT (setspec, day)" +
+            " DO UPDATE SET records = oaisetcounts.records + EXCLUDED.records";
 
     private final QueueItem job;
     private final RawRepo rr;
     private final DataSource rawRepoOai;
     private final JavaScriptPool js;
-    private final Timer timer;
+    private final WorkerMetrics metrics;
 
-    public WorkerTask(QueueItem job, RawRepo rr, DataSource rawRepoOai, JavaScriptPool js, Timer timer) {
+    public WorkerTask(QueueItem job, RawRepo rr, DataSource rawRepoOai, JavaScriptPool js, WorkerMetrics metrics) {
         this.job = job;
         this.rr = rr;
         this.rawRepoOai = rawRepoOai;
         this.js = js;
-        this.timer = timer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * For processing records that aren't queued, see {@link #rematch(String)}
+     *
+     * @param rr         record service
+     * @param rawRepoOai OAI database
+     * @param js         set matcher
+     * @param metrics    where to report timings and outcomes
+     */
+    public WorkerTask(RawRepo rr, DataSource rawRepoOai, JavaScriptPool js, WorkerMetrics metrics) {
+        this(null, rr, rawRepoOai, js, metrics);
     }
 
     @Override
     public QueueItem call() throws Exception {
-        try (Timer.Context timed = timer.time()) {
-            int agencyId = job.getAgencyId();
-            String bibliographicRecordId = job.getBibliographicRecordId();
+        if (job == null)
+            throw new IllegalStateException("No queue job to process");
+        process(job.getAgencyId(), job.getBibliographicRecordId(), true);
+        return job;
+    }
+
+    /**
+     * Match a known record again, because the set rules have changed
+     * <p>
+     * The record itself hasn't changed, so the sets it remains in aren't
+     * touched
+     *
+     * @param pid identifier (agency-bibliographicrecordid)
+     * @return what came of it
+     * @throws Exception If the record cannot be processed
+     */
+    WorkerMetrics.Outcome rematch(String pid) throws Exception {
+        String[] parts = pid.split("-", 2);
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Invalid pid: " + pid);
+        return process(Integer.parseInt(parts[0]), parts[1], false);
+    }
+
+    /**
+     * Fetch, match and store the sets of a record
+     *
+     * @param agencyId              Library number
+     * @param bibliographicRecordId Record id
+     * @param touch                 if the record has changed (see
+     *                              {@link #setPidInDatabase(String, boolean, Collection, boolean)})
+     * @return what came of it (never {@link WorkerMetrics.Outcome#FAILED},
+     *         that is thrown)
+     * @throws Exception If the record cannot be processed
+     */
+    WorkerMetrics.Outcome process(int agencyId, String bibliographicRecordId, boolean touch) throws Exception {
+        try (Timer.Context timed = metrics.time()) {
             String pid = agencyId + "-" + bibliographicRecordId;
             if (!js.isEligible(agencyId)) {
                 log.info("Skipping pid: {} (not eligible)", pid);
-                return job;
+                metrics.outcome(WorkerMetrics.Outcome.SKIPPED);
+                return WorkerMetrics.Outcome.SKIPPED;
             }
             log.info("Processing pid: {}", pid);
-            RecordDTO recordData = rr.getContentFor(agencyId, bibliographicRecordId);
-            boolean deleted = recordData.isDeleted();
-            Set<String> sets = js.getOaiSets(agencyId, recordData.getContent());
-            setPidInDatabase(pid, deleted, sets);
-            return job;
+            Set<String> sets;
+            try (Connection connection = rawRepoOai.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    lockPid(connection, pid);
+                    RecordDTO recordData;
+                    try (Timer.Context stage = metrics.time(WorkerMetrics.Stage.FETCH)) {
+                        recordData = rr.getContentFor(agencyId, bibliographicRecordId);
+                    }
+                    boolean deleted = recordData.isDeleted();
+                    try (Timer.Context stage = metrics.time(WorkerMetrics.Stage.MATCH)) {
+                        sets = js.getOaiSets(agencyId, recordData.getContent());
+                    }
+                    try (Timer.Context stage = metrics.time(WorkerMetrics.Stage.DATABASE)) {
+                        setPidInDatabase(connection, pid, deleted, sets, touch);
+                        connection.commit();
+                    }
+                } catch (Exception ex) {
+                    connection.rollback();
+                    throw ex;
+                }
+            }
+            WorkerMetrics.Outcome outcome = sets.isEmpty() ? WorkerMetrics.Outcome.NO_SETS : WorkerMetrics.Outcome.MATCHED;
+            metrics.outcome(outcome);
+            return outcome;
+        } catch (Exception ex) {
+            metrics.outcome(WorkerMetrics.Outcome.FAILED);
+            throw ex;
         }
     }
 
     /**
-     * Update OAI database
+     * Take the lock for a pid, it is held until the transaction ends
+     *
+     * @param connection database connection, not in autocommit mode
+     * @param pid        identifier
+     * @throws SQLException If there's problems communicating with the database
+     */
+    static void lockPid(Connection connection, String pid) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(LOCK_PID)) {
+            stmt.setInt(1, PID_LOCK_SPACE);
+            stmt.setString(2, pid);
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Update OAI database, for a record that has changed
      *
      * @param pid     identifier
      * @param deleted is the record is deleted
      * @param sets    which sets it is contained in
      * @throws SQLException If there's problems communicating with the database
+     * @see #setPidInDatabase(String, boolean, Collection, boolean)
      */
     public void setPidInDatabase(String pid, boolean deleted, Collection<String> sets) throws SQLException {
-        try (Connection connection = rawRepoOai.getConnection();
-             PreparedStatement setsGoneStmt = connection.prepareStatement(SETS_GONE);
+        setPidInDatabase(pid, deleted, sets, true);
+    }
+
+    /**
+     * Update OAI database
+     * <p>
+     * Only set rows, where the membership changes, are written (created,
+     * marked gone or revived). If the record itself has changed (touch) the
+     * sets it remains in, are also given a new changed timestamp, so
+     * harvesters pick up the new content. When re-matching, the record hasn't
+     * changed, and those rows are left alone.
+     * <p>
+     * Every set row that is written gets a new changed timestamp, so the
+     * pr. day counts are moved from the old day to today
+     * <p>
+     * The current sets are read, and the rows and counts are written, in one
+     * transaction holding the pid lock, so the counts cannot drift from the
+     * rows, when the same pid is processed concurrently
+     *
+     * @param pid     identifier
+     * @param deleted is the record is deleted
+     * @param sets    which sets it is contained in
+     * @param touch   if the record has changed
+     * @throws SQLException If there's problems communicating with the database
+     */
+    public void setPidInDatabase(String pid, boolean deleted, Collection<String> sets, boolean touch) throws SQLException {
+        try (Connection connection = rawRepoOai.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                lockPid(connection, pid);
+                setPidInDatabase(connection, pid, deleted, sets, touch);
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Update OAI database, in the callers transaction
+     *
+     * @param connection database connection, not in autocommit mode, holding
+     *                   the pid lock
+     * @param pid        identifier
+     * @param deleted    is the record is deleted
+     * @param sets       which sets it is contained in
+     * @param touch      if the record has changed
+     * @throws SQLException If there's problems communicating with the database
+     */
+    private void setPidInDatabase(Connection connection, String pid, boolean deleted, Collection<String> sets, boolean touch) throws SQLException {
+        Set<String> setspecs = sets.stream()
+                .map(set -> set.toLowerCase(Locale.ROOT))
+                .collect(toCollection(TreeSet::new));
+        try (PreparedStatement currentStmt = connection.prepareStatement(CURRENT_SETS);
              PreparedStatement recordsStmt = connection.prepareStatement(UPSERT_RECORD);
-             PreparedStatement setsStmt = connection.prepareStatement(UPSERT_SETS)) {
-            setsGoneStmt.setString(1, pid);
-            setsGoneStmt.executeUpdate();
+             PreparedStatement insertStmt = connection.prepareStatement(INSERT_SET);
+             PreparedStatement updateStmt = connection.prepareStatement(UPDATE_SET);
+             PreparedStatement countStmt = connection.prepareStatement(ADJUST_COUNT)) {
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            TreeMap<String, TreeMap<LocalDate, Integer>> counts = new TreeMap<>();
+            TreeMap<String, Boolean> updates = new TreeMap<>(); // setspec -> gone
+            Set<String> inserts = new TreeSet<>(setspecs);
+            currentStmt.setString(1, pid);
+            try (ResultSet resultSet = currentStmt.executeQuery()) {
+                while (resultSet.next()) {
+                    String setspec = resultSet.getString(1);
+                    boolean gone = resultSet.getBoolean(2);
+                    boolean member = inserts.remove(setspec);
+                    if (gone == member || (member && touch)) { // Membership or record has changed
+                        updates.put(setspec, !member);
+                        adjust(counts, setspec, resultSet.getObject(3, LocalDate.class), -1);
+                        adjust(counts, setspec, today, 1);
+                    }
+                }
+            }
+            for (String setspec : inserts) {
+                adjust(counts, setspec, today, 1);
+            }
             recordsStmt.setString(1, pid);
             recordsStmt.setBoolean(2, deleted);
             recordsStmt.executeUpdate();
-            setsStmt.setString(1, pid);
-            for (String set : sets) {
-                setsStmt.setString(2, set.toLowerCase(Locale.ROOT));
-                setsStmt.executeUpdate();
+            if (!inserts.isEmpty()) {
+                insertStmt.setString(1, pid);
+                for (String setspec : inserts) {
+                    insertStmt.setString(2, setspec);
+                    insertStmt.addBatch();
+                }
+                insertStmt.executeBatch();
+            }
+            if (!updates.isEmpty()) {
+                updateStmt.setString(2, pid);
+                for (Map.Entry<String, Boolean> update : updates.entrySet()) {
+                    updateStmt.setBoolean(1, update.getValue());
+                    updateStmt.setString(3, update.getKey());
+                    updateStmt.addBatch();
+                }
+                updateStmt.executeBatch();
+            }
+            updateCounts(countStmt, counts);
+        }
+    }
+
+    private static void adjust(TreeMap<String, TreeMap<LocalDate, Integer>> counts, String setspec, LocalDate day, int delta) {
+        counts.computeIfAbsent(setspec, s -> new TreeMap<>())
+                .merge(day, delta, Integer::sum);
+    }
+
+    /**
+     * Write count changes in a fixed order, to avoid deadlocks between
+     * parallel workers
+     *
+     * @param countStmt statement for adjusting a count
+     * @param counts    delta pr. setspec pr. day
+     * @throws SQLException If there's problems communicating with the database
+     */
+    private static void updateCounts(PreparedStatement countStmt, TreeMap<String, TreeMap<LocalDate, Integer>> counts) throws SQLException {
+        boolean any = false;
+        for (Map.Entry<String, TreeMap<LocalDate, Integer>> set : counts.entrySet()) {
+            for (Map.Entry<LocalDate, Integer> day : set.getValue().entrySet()) {
+                if (day.getValue() == 0)
+                    continue;
+                countStmt.setString(1, set.getKey());
+                countStmt.setObject(2, day.getKey());
+                countStmt.setInt(3, day.getValue());
+                countStmt.addBatch();
+                any = true;
             }
         }
+        if (any)
+            countStmt.executeBatch();
     }
 
 }
@@ -19,9 +19,7 @@
 package dk.dbc.rr.oai.setmatcher;
 
 import jakarta.ws.rs.client.ClientBuilder;
-import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
-import org.eclipse.microprofile.metrics.Timer;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 
 import javax.sql.DataSource;
@@ -33,9 +31,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toMap;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_MOCKS;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
 /**
  *
@@ -113,9 +110,19 @@ public class BeanFactory {
         worker.js = newJavaScriptPool(config);
         worker.rr = newRawRepo(config);
         worker.executor = es;
-        worker.metricRegistry = mock(MetricRegistry.class);
-        when(worker.metricRegistry.counter(anyString())).then(a -> mock(Counter.class));
-        when(worker.metricRegistry.timer(anyString())).then(a -> mock(Timer.class));
+        worker.metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
         return worker;
     }
+
+    public static Rematch newRematch(Config config, DataSource rroai) {
+        Rematch rematch = new Rematch();
+        rematch.config = config;
+        rematch.rawRepoOai = rroai;
+        rematch.js = newJavaScriptPool(config);
+        rematch.rr = newRawRepo(config);
+        rematch.executor = Executors.newFixedThreadPool(config.getRematchThreads());
+        rematch.metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
+        rematch.init();
+        return rematch;
+    }
 }
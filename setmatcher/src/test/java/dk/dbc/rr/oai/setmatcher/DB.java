@@ -93,6 +93,8 @@ public class DB {
              Statement stmt = connection.createStatement()) {
             stmt.executeUpdate("TRUNCATE oairecords CASCADE");
             stmt.executeUpdate("TRUNCATE oairecordsets CASCADE");
+            stmt.executeUpdate("TRUNCATE oaisetcounts CASCADE");
+            stmt.executeUpdate("TRUNCATE oairematch CASCADE");
         }
         try (Connection connection = rawRepo() ;
              Statement stmt = connection.createStatement()) {
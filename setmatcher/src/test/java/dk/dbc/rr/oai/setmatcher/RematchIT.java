@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-setmatcher
+ *
+ * rr-oai-setmatcher is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-setmatcher is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.setmatcher;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.setmatcher.BeanFactory.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class RematchIT extends DB {
+
+    private static final String[] PIDS = {
+        "870970-47308143",
+        "870970-47314933",
+        "870970-54252625",
+        "870971-47366038",
+        "870971-47366054"
+    };
+
+    @Before
+    public void knownPids() throws SQLException {
+        WorkerTask task = new WorkerTask(null, null, dsrroai, null, null);
+        for (String pid : PIDS) {
+            task.setPidInDatabase(pid, false, Arrays.asList());
+        }
+    }
+
+    @Test(timeout = 30_000L)
+    public void testRematch() throws Exception {
+        System.out.println("testRematch");
+        Rematch rematch = newRematch(newConfig("REMATCH_CHUNK_SIZE=2"), dsrroai);
+        long id = rematch.run(false);
+        Rematch.Status status = rematch.status();
+        assertThat(status.id, is(id));
+        assertThat(status.processed, is(5L));
+        assertThat(status.failed, is(0L));
+        assertThat(status.checkpoint, is("870971-47366054"));
+        assertThat(status.completed, notNullValue());
+
+        long next = rematch.run(false); // Nothing unfinished
+        assertThat(next, not(id));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testResume() throws Exception {
+        System.out.println("testResume");
+        long unfinished;
+        try (Connection connection = rawRepoOai() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery("INSERT INTO oairematch(checkpoint, processed) VALUES('870970-47314933', 2) RETURNING id")) {
+            assertThat(resultSet.next(), is(true));
+            unfinished = resultSet.getLong(1);
+        }
+        Rematch rematch = newRematch(newConfig(), dsrroai);
+        long id = rematch.run(false);
+        assertThat(id, is(unfinished));
+        Rematch.Status status = rematch.status();
+        assertThat(status.processed, is(5L));
+        assertThat(status.completed, notNullValue());
+
+        id = rematch.run(true); // Start over
+        status = rematch.status();
+        assertThat(status.id, is(id));
+        assertThat(status.processed, is(5L));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testStop() throws Exception {
+        System.out.println("testStop");
+        Rematch rematch = newRematch(newConfig("REMATCH_CHUNK_SIZE=2"), dsrroai);
+        rematch.stop();
+        rematch.run(false);
+        Rematch.Status status = rematch.status();
+        assertThat(status.processed, is(0L));
+        assertThat(status.completed, nullValue());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testFailedPid() throws Exception {
+        System.out.println("testFailedPid");
+        WorkerTask task = new WorkerTask(null, null, dsrroai, null, null);
+        task.setPidInDatabase("870970-50000000", false, Arrays.asList()); // Not in rawrepo
+        Rematch rematch = newRematch(newConfig("REMATCH_CHUNK_SIZE=2"), dsrroai);
+        long id = rematch.run(false);
+        Rematch.Status status = rematch.status();
+        assertThat(status.id, is(id));
+        assertThat(status.processed, is(6L));
+        assertThat(status.failed, is(1L)); // Given up on, like the queue worker
+        assertThat(status.checkpoint, is("870971-47366054"));
+        assertThat(status.completed, notNullValue());
+        assertThat(failedPids(id), is(Arrays.asList("870970-50000000")));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testFailedPidRetried() throws Exception {
+        System.out.println("testFailedPidRetried");
+        WorkerTask task = new WorkerTask(null, null, dsrroai, null, null);
+        task.setPidInDatabase("bad-pid", false, Arrays.asList()); // Last, and not a number
+        Rematch rematch = newRematch(newConfig("REMATCH_CHUNK_SIZE=2"), dsrroai);
+        long id = rematch.run(false);
+        Rematch.Status status = rematch.status();
+        assertThat(status.processed, is(6L));
+        assertThat(status.failed, is(1L));
+        assertThat(status.checkpoint, is("bad-pid")); // Moved past it
+        assertThat(status.completed, nullValue());
+
+        assertThat(rematch.run(false), is(id)); // Only retries the failed pid
+        status = rematch.status();
+        assertThat(status.processed, is(6L));
+        assertThat(status.failed, is(1L));
+        assertThat(status.completed, nullValue());
+        assertThat(failedPids(id), is(Arrays.asList("bad-pid")));
+    }
+
+    private List<String> failedPids(long id) throws SQLException {
+        try (Connection connection = rawRepoOai() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery("SELECT pid FROM oairematchfailed WHERE id = " + id + " ORDER BY pid")) {
+            List<String> pids = new ArrayList<>();
+            while (resultSet.next()) {
+                pids.add(resultSet.getString(1));
+            }
+            return pids;
+        }
+    }
+
+    @Test(timeout = 30_000L)
+    public void testRunningElsewhere() throws Exception {
+        System.out.println("testRunningElsewhere");
+        Rematch rematch = newRematch(newConfig(), dsrroai);
+        try (Connection connection = rawRepoOai() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeQuery("SELECT pg_advisory_lock(" + Rematch.REMATCH_LOCK_SPACE + ", 0)").close();
+            assertThat(rematch.run(true), is(0L));
+            assertThat(rematch.status(), nullValue()); // None created
+            stmt.executeQuery("SELECT pg_advisory_unlock(" + Rematch.REMATCH_LOCK_SPACE + ", 0)").close();
+        }
+        assertThat(rematch.run(true), not(0L));
+    }
+}
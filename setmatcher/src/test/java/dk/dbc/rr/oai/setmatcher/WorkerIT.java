@@ -27,6 +27,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 import org.hamcrest.Matcher;
 import org.junit.Test;
@@ -57,6 +60,47 @@ public class WorkerIT extends DB {
         assertThat(setsFor("b"), expects());
     }
 
+    @Test(timeout = 2_000L)
+    public void testSetCounts() throws Exception {
+        System.out.println("testSetCounts");
+        WorkerTask task = new WorkerTask(null, null, dsrroai, null, null);
+        task.setPidInDatabase("a", false, Arrays.asList("BKM", "NAT"));
+        assertThat(countsFor(), is(counts("bkm=1", "nat=1")));
+        task.setPidInDatabase("a", false, Arrays.asList("ONL", "NAT"));
+        assertThat(countsFor(), is(counts("bkm=1", "nat=1", "onl=1")));
+        task.setPidInDatabase("b", false, Arrays.asList("NAT"));
+        assertThat(countsFor(), is(counts("bkm=1", "nat=2", "onl=1")));
+        try (Connection connection = dsrroai.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("UPDATE oairecordsets SET changed = changed - INTERVAL '3 DAYS'");
+            stmt.executeUpdate("UPDATE oaisetcounts SET day = day - 3");
+        }
+        task.setPidInDatabase("a", true, Arrays.asList());
+        assertThat(countsFor(), is(counts("bkm=1", "nat=2", "onl=1")));
+        assertThat(countsForToday(), is(counts("nat=1", "onl=1"))); // bkm was already gone
+    }
+
+    @Test(timeout = 2_000L)
+    public void testOnlyChangesAreWritten() throws Exception {
+        System.out.println("testOnlyChangesAreWritten");
+        WorkerTask task = new WorkerTask(null, null, dsrroai, null, null);
+        task.setPidInDatabase("a", false, Arrays.asList("BKM", "NAT"));
+        try (Connection connection = dsrroai.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("UPDATE oairecordsets SET changed = changed - INTERVAL '3 DAYS'");
+            stmt.executeUpdate("UPDATE oaisetcounts SET day = day - 3");
+        }
+        task.setPidInDatabase("a", false, Arrays.asList("BKM", "NAT"), false); // Re-match, nothing changed
+        assertThat(countsForToday(), is(counts()));
+        task.setPidInDatabase("a", false, Arrays.asList("BKM", "ONL"), false); // Re-match, rules changed
+        assertThat(setsFor("a"), expects("BKM=false", "NAT=true", "ONL=false"));
+        assertThat(countsForToday(), is(counts("nat=1", "onl=1")));
+        task.setPidInDatabase("a", false, Arrays.asList("BKM", "ONL")); // Record changed
+        assertThat(setsFor("a"), expects("BKM=false", "NAT=true", "ONL=false"));
+        assertThat(countsForToday(), is(counts("bkm=1", "nat=1", "onl=1")));
+        assertThat(countsFor(), is(counts("bkm=1", "nat=1", "onl=1")));
+    }
+
     @Test(timeout = 30_000L)
     public void testWorkerInParallel() throws Exception {
         System.out.println("testWorkerInParallel");
@@ -72,6 +116,64 @@ public class WorkerIT extends DB {
         worker.destroy();
     }
 
+    @Test(timeout = 30_000L)
+    public void testSeveralWorkers() throws Exception {
+        System.out.println("testSeveralWorkers");
+        Worker worker1 = newWorker(newConfig(), dsrr, dsrroai);
+        Worker worker2 = newWorker(newConfig(), dsrr, dsrroai);
+        queue("WorkerIT/queue-5.json");
+        queue("WorkerIT/queue-5.json"); // Every pid twice
+        worker1.init();
+        worker2.init();
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> jobs1 = es.submit(worker1::processJobs);
+            Future<Integer> jobs2 = es.submit(worker2::processJobs);
+            jobs1.get();
+            jobs2.get();
+        } finally {
+            es.shutdownNow();
+            worker1.destroy();
+            worker2.destroy();
+        }
+        try (Connection connection = rawRepo()) {
+            assertThat(countQueue(connection), is(0));
+        }
+        try (Connection connection = rawRepoOai() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM oairecords")) {
+            assertThat(resultSet.next(), is(true));
+            assertThat(resultSet.getInt(1), is(5));
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testPidLock() throws Exception {
+        System.out.println("testPidLock");
+        try (Connection connection1 = rawRepoOai() ;
+             Connection connection2 = rawRepoOai() ;
+             PreparedStatement stmt = connection2.prepareStatement("SELECT pg_try_advisory_xact_lock(?, hashtext(?))")) {
+            connection1.setAutoCommit(false);
+            WorkerTask.lockPid(connection1, "870970-12345678");
+            assertThat(tryLock(stmt, "870970-12345678"), is(false));
+            assertThat(tryLock(stmt, "870970-87654321"), is(true));
+            connection1.commit();
+            assertThat(tryLock(stmt, "870970-12345678"), is(true));
+        }
+    }
+
+    @Test(timeout = 30_000L)
+    public void testQueueLag() throws Exception {
+        System.out.println("testQueueLag");
+        Worker worker = newWorker(newConfig(), dsrr, dsrroai);
+        queue("WorkerIT/queue-5.json");
+        worker.init();
+        worker.processJobs(); // Samples before processing
+        assertThat(worker.getQueueDepth(), is(5L));
+        assertThat(worker.getQueueOldestAge() >= 0L, is(true));
+        worker.destroy();
+    }
+
     /**
      * setsFor matcher
      *
@@ -85,6 +187,14 @@ public class WorkerIT extends DB {
         return is(expected);
     }
 
+    private static boolean tryLock(PreparedStatement stmt, String pid) throws SQLException {
+        stmt.setInt(1, WorkerTask.PID_LOCK_SPACE);
+        stmt.setString(2, pid);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+            return resultSet.next() && resultSet.getBoolean(1);
+        }
+    }
+
     private int countQueue(Connection connection) throws SQLException {
         try (Statement stmt = connection.createStatement() ;
              ResultSet resultSet = stmt.executeQuery("SELECT COUNT(*) FROM queue")) {
@@ -94,6 +204,32 @@ public class WorkerIT extends DB {
         return Integer.MAX_VALUE;
     }
 
+    private Map<String, Integer> counts(String... strings) {
+        return Stream.of(strings)
+                .map(s -> s.split("="))
+                .collect(toMap(a -> a[0], a -> Integer.parseInt(a[1])));
+    }
+
+    private Map<String, Integer> countsFor() throws SQLException {
+        return countsFor("SELECT setspec, SUM(records) FROM oaisetcounts GROUP BY setspec HAVING SUM(records) <> 0");
+    }
+
+    private Map<String, Integer> countsForToday() throws SQLException {
+        return countsFor("SELECT setspec, records FROM oaisetcounts WHERE day = DATE(CURRENT_TIMESTAMP AT TIME ZONE 'UTC') AND records <> 0");
+    }
+
+    private Map<String, Integer> countsFor(String sql) throws SQLException {
+        try (Connection connection = dsrroai.getConnection() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            HashMap<String, Integer> ret = new HashMap<>();
+            while (resultSet.next()) {
+                ret.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+            return ret;
+        }
+    }
+
     private Map<String, Boolean> setsFor(String pid) throws SQLException {
         try (Connection connection = dsrroai.getConnection();
              PreparedStatement stmt = connection.prepareStatement("SELECT setspec, gone FROM oairecordsets WHERE pid = ?")) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of rr-oai-setmatcher
+ *
+ * rr-oai-setmatcher is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * rr-oai-setmatcher is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.rr.oai.setmatcher;
+
+import org.junit.Test;
+
+import static dk.dbc.rr.oai.setmatcher.WorkerScheduler.delay;
+import static dk.dbc.rr.oai.setmatcher.WorkerScheduler.nextBackoff;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class WorkerSchedulerTest {
+
+    private static final long MIN = 100L;
+    private static final long MAX = 1_000L;
+
+    @Test(timeout = 2_000L)
+    public void testBackoffDoubles() throws Exception {
+        System.out.println("testBackoffDoubles");
+        long backoff = MIN;
+        assertThat(delay(backoff, 0), is(100L));
+        backoff = nextBackoff(backoff, 0, MIN, MAX);
+        assertThat(backoff, is(200L));
+        assertThat(delay(backoff, 0), is(200L));
+        backoff = nextBackoff(backoff, 0, MIN, MAX);
+        assertThat(backoff, is(400L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBackoffCapped() throws Exception {
+        System.out.println("testBackoffCapped");
+        assertThat(nextBackoff(800L, 0, MIN, MAX), is(1_000L));
+        assertThat(nextBackoff(1_000L, 0, MIN, MAX), is(1_000L));
+        assertThat(delay(1_000L, 0), is(1_000L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBackoffReset() throws Exception {
+        System.out.println("testBackoffReset");
+        assertThat(delay(1_000L, 5), is(0L)); // Right away when there were jobs
+        assertThat(nextBackoff(1_000L, 5, MIN, MAX), is(100L));
+        assertThat(nextBackoff(100L, 0, MIN, MAX), is(200L));
+    }
+}